@@ -0,0 +1,112 @@
+package com.imlehr.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 事件循环线程不能阻塞的时候怎么用锁：lockAsync，还是把阻塞的lock()丢到线程池里去跑
+ * 基准线程相当于事件循环，一次提交inFlight个临界区，全部跑完算一次，两种方式用同样大小的线程池
+ * async：lockAsync(pool)，拿到锁之后临界区在pool上跑（第一次就拿到的在基准线程上跑）
+ * offload：pool里的线程lock()/unlock()，拿不到就在pool的线程上park，线程池有多少线程就最多有多少个在排队
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(1)
+public class AsyncLockBenchmark {
+
+    private static final int IN_FLIGHT = 256;
+
+    @Param({"async", "offload", "offload-juc"})
+    public String mode;
+
+    @Param({"false", "true"})
+    public boolean fair;
+
+    @Param({"10", "1000"})
+    public long holdTokens;
+
+    @Param({"4"})
+    public int poolSize;
+
+    private com.imlehr.aqs.ReentrantLock aqs;
+    private java.util.concurrent.locks.ReentrantLock juc;
+    private ExecutorService pool;
+    private final CompletableFuture<?>[] pending = new CompletableFuture<?>[IN_FLIGHT];
+
+    @Setup
+    public void setup() {
+        aqs = new com.imlehr.aqs.ReentrantLock(fair);
+        juc = new java.util.concurrent.locks.ReentrantLock(fair);
+        pool = Executors.newFixedThreadPool(poolSize);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(IN_FLIGHT)
+    public void criticalSections() {
+        switch (mode) {
+            case "async":
+                for (int i = 0; i < IN_FLIGHT; i++) {
+                    pending[i] = aqs.lockAsync(pool).thenAccept(h -> {
+                        try {
+                            Blackhole.consumeCPU(holdTokens);
+                        } finally {
+                            h.unlock();
+                        }
+                    });
+                }
+                break;
+            case "offload":
+                for (int i = 0; i < IN_FLIGHT; i++) {
+                    pending[i] = CompletableFuture.runAsync(() -> {
+                        aqs.lock();
+                        try {
+                            Blackhole.consumeCPU(holdTokens);
+                        } finally {
+                            aqs.unlock();
+                        }
+                    }, pool);
+                }
+                break;
+            case "offload-juc":
+                for (int i = 0; i < IN_FLIGHT; i++) {
+                    pending[i] = CompletableFuture.runAsync(() -> {
+                        juc.lock();
+                        try {
+                            Blackhole.consumeCPU(holdTokens);
+                        } finally {
+                            juc.unlock();
+                        }
+                    }, pool);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("unknown mode: " + mode);
+        }
+        CompletableFuture.allOf(pending).join();
+    }
+
+}
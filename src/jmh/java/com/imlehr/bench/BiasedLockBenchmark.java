@@ -0,0 +1,85 @@
+package com.imlehr.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 预订（偏向）锁在哪种用法下划算
+ * single：只有一个线程反复拿锁，预订的快路径不cas，应该比普通的锁快一截
+ * occasional：一个线程一直在拿锁，另一个线程隔intruderTokens才来拿一次，每次来都要撤销一次预订（handshake），
+ * 之后禁止重新预订一段时间，看撤销的开销摊下来还划不划算；owner和intruder的吞吐分开看
+ * heavy：4个线程一直在抢，预订基本一直是撤销掉的状态，看普通模式下多出来的那点判断有多少开销
+ * 预订默认是关着的，这里在@Fork上打开
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(jvmArgsAppend = "-Dcom.imlehr.aqs.biasedLocking=true")
+public class BiasedLockBenchmark {
+
+    @Param({LockTarget.AQS_NONFAIR, LockTarget.AQS_BIASED, LockTarget.JUC_NONFAIR, LockTarget.SYNCHRONIZED})
+    public String lockType;
+
+    /**
+     * occasional里另一个线程两次拿锁之间在锁外烧多少
+     */
+    @Param({"100000"})
+    public long intruderTokens;
+
+    private LockTarget target;
+
+    @Setup
+    public void setup() {
+        target = LockTarget.create(lockType);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long single() {
+        return target.increment();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long single_reentrant() {
+        return target.incrementReentrant();
+    }
+
+    @Benchmark
+    @Group("occasional")
+    @GroupThreads(1)
+    public long occasional_owner() {
+        return target.increment();
+    }
+
+    @Benchmark
+    @Group("occasional")
+    @GroupThreads(1)
+    public long occasional_intruder() {
+        Blackhole.consumeCPU(intruderTokens);
+        return target.increment();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long heavy_04() {
+        return target.increment();
+    }
+
+}
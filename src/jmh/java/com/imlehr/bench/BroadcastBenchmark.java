@@ -0,0 +1,303 @@
+package com.imlehr.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+
+/**
+ * signalAll广播：waiters个线程都await在同一个Condition上，
+ * 一次操作 = signalAll + 等所有人都醒过来拿到一次锁又重新await回去
+ * 等待线程醒了之后拿着锁直接再await，所以主线程在锁里看到arrived够数的时候，所有人一定都已经回到条件队列了
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(1)
+public class BroadcastBenchmark {
+
+    @Param({LockTarget.AQS_NONFAIR, LockTarget.JUC_NONFAIR, LockTarget.SYNCHRONIZED})
+    public String lockType;
+
+    @Param({"1000"})
+    public int waiters;
+
+    private Broadcast broadcast;
+    private Thread[] threads;
+
+    @Setup
+    public void setup() throws InterruptedException {
+        switch (lockType) {
+            case LockTarget.AQS_NONFAIR:
+                broadcast = new LockBroadcast(new com.imlehr.aqs.ReentrantLock());
+                break;
+            case LockTarget.JUC_NONFAIR:
+                broadcast = new JucBroadcast(new java.util.concurrent.locks.ReentrantLock());
+                break;
+            case LockTarget.SYNCHRONIZED:
+                broadcast = new MonitorBroadcast();
+                break;
+            default:
+                throw new IllegalArgumentException("unknown lock type: " + lockType);
+        }
+        broadcast.waiters = waiters;
+        threads = new Thread[waiters];
+        for (int i = 0; i < waiters; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    broadcast.waitLoop();
+                } catch (InterruptedException ignored) {
+                }
+            }, "broadcast-waiter-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+        //等所有人都进到条件队列里
+        broadcast.awaitAllParked();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        broadcast.shutdown();
+        for (Thread t : threads) {
+            t.join();
+        }
+    }
+
+    @Benchmark
+    public void signalAll() throws InterruptedException {
+        broadcast.broadcast();
+    }
+
+
+    abstract static class Broadcast {
+
+        int waiters;
+
+        /**
+         * 第几轮广播
+         */
+        long generation;
+
+        /**
+         * 一共有多少次醒来（每轮每个等待线程一次），加上第一次进去等待的那一次
+         */
+        long arrived;
+
+        boolean stopped;
+
+        abstract void waitLoop() throws InterruptedException;
+
+        abstract void awaitAllParked() throws InterruptedException;
+
+        abstract void broadcast() throws InterruptedException;
+
+        abstract void shutdown();
+    }
+
+    static final class LockBroadcast extends Broadcast {
+
+        private final com.imlehr.aqs.Lock lock;
+        private final Condition wake;
+        private final Condition allArrived;
+
+        LockBroadcast(com.imlehr.aqs.Lock lock) {
+            this.lock = lock;
+            this.wake = lock.newCondition();
+            this.allArrived = lock.newCondition();
+        }
+
+        @Override
+        void waitLoop() throws InterruptedException {
+            lock.lock();
+            try {
+                long seen = -1;
+                while (!stopped) {
+                    if (seen != generation) {
+                        seen = generation;
+                        if (++arrived % waiters == 0) {
+                            allArrived.signal();
+                        }
+                    }
+                    wake.await();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        void awaitAllParked() throws InterruptedException {
+            lock.lock();
+            try {
+                while (arrived < waiters) {
+                    allArrived.await();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        void broadcast() throws InterruptedException {
+            lock.lock();
+            try {
+                long target = arrived + waiters;
+                generation++;
+                wake.signalAll();
+                while (arrived < target) {
+                    allArrived.await();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        void shutdown() {
+            lock.lock();
+            try {
+                stopped = true;
+                wake.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    static final class JucBroadcast extends Broadcast {
+
+        private final java.util.concurrent.locks.Lock lock;
+        private final Condition wake;
+        private final Condition allArrived;
+
+        JucBroadcast(java.util.concurrent.locks.Lock lock) {
+            this.lock = lock;
+            this.wake = lock.newCondition();
+            this.allArrived = lock.newCondition();
+        }
+
+        @Override
+        void waitLoop() throws InterruptedException {
+            lock.lock();
+            try {
+                long seen = -1;
+                while (!stopped) {
+                    if (seen != generation) {
+                        seen = generation;
+                        if (++arrived % waiters == 0) {
+                            allArrived.signal();
+                        }
+                    }
+                    wake.await();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        void awaitAllParked() throws InterruptedException {
+            lock.lock();
+            try {
+                while (arrived < waiters) {
+                    allArrived.await();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        void broadcast() throws InterruptedException {
+            lock.lock();
+            try {
+                long target = arrived + waiters;
+                generation++;
+                wake.signalAll();
+                while (arrived < target) {
+                    allArrived.await();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        void shutdown() {
+            lock.lock();
+            try {
+                stopped = true;
+                wake.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * synchronized只有一个等待集合，notifyAll会把主线程也叫醒，所以主线程自己while循环判断
+     */
+    static final class MonitorBroadcast extends Broadcast {
+
+        private final Object monitor = new Object();
+
+        @Override
+        void waitLoop() throws InterruptedException {
+            synchronized (monitor) {
+                long seen = -1;
+                while (!stopped) {
+                    if (seen != generation) {
+                        seen = generation;
+                        if (++arrived % waiters == 0) {
+                            monitor.notifyAll();
+                        }
+                    }
+                    monitor.wait();
+                }
+            }
+        }
+
+        @Override
+        void awaitAllParked() throws InterruptedException {
+            synchronized (monitor) {
+                while (arrived < waiters) {
+                    monitor.wait();
+                }
+            }
+        }
+
+        @Override
+        void broadcast() throws InterruptedException {
+            synchronized (monitor) {
+                long target = arrived + waiters;
+                generation++;
+                monitor.notifyAll();
+                while (arrived < target) {
+                    monitor.wait();
+                }
+            }
+        }
+
+        @Override
+        void shutdown() {
+            synchronized (monitor) {
+                stopped = true;
+                monitor.notifyAll();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,135 @@
+package com.imlehr.bench;
+
+import com.imlehr.aqs.ClusterMapper;
+import com.imlehr.aqs.CohortLock;
+import com.imlehr.aqs.Lock;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * cohort锁的吞吐和跨簇公平性
+ * 线程用ClusterMapper.explicit()轮流分到clusters个簇里，不依赖机器真有几个socket，任何机器上跑出来都一样
+ * 跨socket交接贵在缓存行要搬过去，这里用migrateTokens模拟：拿到锁的时候上一个持锁的人在别的簇，就先烧migrateTokens
+ * <p>
+ * 除了吞吐，每个簇拿到锁的次数（cluster0/cluster1）和跨簇交接的次数（crossings）作为辅助计数输出：
+ * cluster0和cluster1差得越多越不公平，吞吐除以crossings就是平均一批在一个簇里连续拿了几次
+ * lockType：cohort-N是batchLimit为N的CohortLock，cohort-1就是每次都放全局锁
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CohortBenchmark {
+
+    @Param({LockTarget.AQS_FAIR, LockTarget.AQS_NONFAIR, "cohort-1", "cohort-16", "cohort-64"})
+    public String lockType;
+
+    @Param({"2"})
+    public int clusters;
+
+    @Param({"10"})
+    public long holdTokens;
+
+    @Param({"0", "200"})
+    public long migrateTokens;
+
+    private final AtomicInteger nextThread = new AtomicInteger();
+    private ClusterMapper.Explicit mapper;
+    private Lock lock;
+    /**
+     * 只在锁里读写
+     */
+    private int lastCluster;
+
+    @Setup
+    public void setup() {
+        mapper = ClusterMapper.explicit();
+        if (lockType.startsWith("cohort-")) {
+            lock = new CohortLock(mapper, clusters, Integer.parseInt(lockType.substring("cohort-".length())));
+        } else if (LockTarget.AQS_FAIR.equals(lockType) || LockTarget.AQS_NONFAIR.equals(lockType)) {
+            lock = new com.imlehr.aqs.ReentrantLock(LockTarget.AQS_FAIR.equals(lockType));
+        } else {
+            throw new IllegalArgumentException("unknown lock type: " + lockType);
+        }
+    }
+
+    /**
+     * 每个线程的簇和计数，jmh把每个线程的同名字段加起来输出
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Cluster {
+
+        public long cluster0;
+        public long cluster1;
+        public long crossings;
+
+        int id;
+
+        @Setup
+        public void assign(CohortBenchmark b) {
+            id = b.nextThread.getAndIncrement() % b.clusters;
+            b.mapper.assign(Thread.currentThread(), id);
+        }
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            cluster0 = 0;
+            cluster1 = 0;
+            crossings = 0;
+        }
+
+        @TearDown
+        public void unassign(CohortBenchmark b) {
+            b.mapper.unassign(Thread.currentThread());
+        }
+    }
+
+    private void criticalSection(Cluster c) {
+        lock.lock();
+        try {
+            if (lastCluster != c.id) {
+                lastCluster = c.id;
+                c.crossings++;
+                Blackhole.consumeCPU(migrateTokens);
+            }
+            Blackhole.consumeCPU(holdTokens);
+        } finally {
+            lock.unlock();
+        }
+        if (c.id == 0) {
+            c.cluster0++;
+        } else if (c.id == 1) {
+            c.cluster1++;
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void cohort_04(Cluster c) {
+        criticalSection(c);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void cohort_08(Cluster c) {
+        criticalSection(c);
+    }
+
+}
@@ -0,0 +1,284 @@
+package com.imlehr.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+
+/**
+ * Condition的signal/await来回一趟的耗时
+ * 每个jmh线程带一个自己的回声线程，所以N个jmh线程其实是N对在同时乒乓，互相之间不共享锁
+ * 回声线程不用jmh的@Group是因为一轮迭代结束时对面可能正await着，没人signal就永远卡住了
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ConditionPingPongBenchmark {
+
+    @Param({LockTarget.AQS_NONFAIR, LockTarget.AQS_FAIR, LockTarget.AQS_MCS,
+            LockTarget.JUC_NONFAIR, LockTarget.JUC_FAIR,
+            LockTarget.SYNCHRONIZED})
+    public String lockType;
+
+    private PingPong pingPong;
+
+    @Setup
+    public void setup() {
+        switch (lockType) {
+            case LockTarget.AQS_NONFAIR:
+                pingPong = new LockPingPong(new com.imlehr.aqs.ReentrantLock(false));
+                break;
+            case LockTarget.AQS_FAIR:
+                pingPong = new LockPingPong(new com.imlehr.aqs.ReentrantLock(true));
+                break;
+            case LockTarget.AQS_MCS:
+                pingPong = new LockPingPong(new com.imlehr.aqs.McsLock());
+                break;
+            case LockTarget.JUC_NONFAIR:
+                pingPong = new JucPingPong(new java.util.concurrent.locks.ReentrantLock(false));
+                break;
+            case LockTarget.JUC_FAIR:
+                pingPong = new JucPingPong(new java.util.concurrent.locks.ReentrantLock(true));
+                break;
+            case LockTarget.SYNCHRONIZED:
+                pingPong = new MonitorPingPong();
+                break;
+            default:
+                throw new IllegalArgumentException("unknown lock type: " + lockType);
+        }
+        pingPong.start();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        pingPong.stop();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void pingPong_01() throws InterruptedException {
+        pingPong.ping();
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void pingPong_02() throws InterruptedException {
+        pingPong.ping();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void pingPong_04() throws InterruptedException {
+        pingPong.ping();
+    }
+
+
+    abstract static class PingPong {
+
+        /**
+         * true表示轮到回声线程
+         */
+        boolean pong;
+
+        boolean stopped;
+
+        private Thread echo;
+
+        void start() {
+            echo = new Thread(() -> {
+                try {
+                    echo();
+                } catch (InterruptedException ignored) {
+                }
+            }, "ping-pong-echo");
+            echo.setDaemon(true);
+            echo.start();
+        }
+
+        void stop() throws InterruptedException {
+            shutdown();
+            echo.join();
+        }
+
+        /**
+         * 发出去然后等对面回过来
+         */
+        abstract void ping() throws InterruptedException;
+
+        /**
+         * 回声线程的循环，直到stopped
+         */
+        abstract void echo() throws InterruptedException;
+
+        abstract void shutdown();
+    }
+
+    /**
+     * com.imlehr.aqs的Lock，java.util.concurrent的那个接口不一样所以单独写一份
+     */
+    static final class LockPingPong extends PingPong {
+
+        private final com.imlehr.aqs.Lock lock;
+        private final Condition cond;
+
+        LockPingPong(com.imlehr.aqs.Lock lock) {
+            this.lock = lock;
+            this.cond = lock.newCondition();
+        }
+
+        @Override
+        void ping() throws InterruptedException {
+            lock.lock();
+            try {
+                pong = true;
+                cond.signal();
+                while (pong) {
+                    cond.await();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        void echo() throws InterruptedException {
+            lock.lock();
+            try {
+                for (; ; ) {
+                    while (!pong && !stopped) {
+                        cond.await();
+                    }
+                    if (stopped) {
+                        return;
+                    }
+                    pong = false;
+                    cond.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        void shutdown() {
+            lock.lock();
+            try {
+                stopped = true;
+                cond.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    static final class JucPingPong extends PingPong {
+
+        private final java.util.concurrent.locks.Lock lock;
+        private final Condition cond;
+
+        JucPingPong(java.util.concurrent.locks.Lock lock) {
+            this.lock = lock;
+            this.cond = lock.newCondition();
+        }
+
+        @Override
+        void ping() throws InterruptedException {
+            lock.lock();
+            try {
+                pong = true;
+                cond.signal();
+                while (pong) {
+                    cond.await();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        void echo() throws InterruptedException {
+            lock.lock();
+            try {
+                for (; ; ) {
+                    while (!pong && !stopped) {
+                        cond.await();
+                    }
+                    if (stopped) {
+                        return;
+                    }
+                    pong = false;
+                    cond.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        void shutdown() {
+            lock.lock();
+            try {
+                stopped = true;
+                cond.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * synchronized + wait/notify
+     */
+    static final class MonitorPingPong extends PingPong {
+
+        private final Object monitor = new Object();
+
+        @Override
+        void ping() throws InterruptedException {
+            synchronized (monitor) {
+                pong = true;
+                monitor.notify();
+                while (pong) {
+                    monitor.wait();
+                }
+            }
+        }
+
+        @Override
+        void echo() throws InterruptedException {
+            synchronized (monitor) {
+                for (; ; ) {
+                    while (!pong && !stopped) {
+                        monitor.wait();
+                    }
+                    if (stopped) {
+                        return;
+                    }
+                    pong = false;
+                    monitor.notify();
+                }
+            }
+        }
+
+        @Override
+        void shutdown() {
+            synchronized (monitor) {
+                stopped = true;
+                monitor.notify();
+            }
+        }
+    }
+
+}
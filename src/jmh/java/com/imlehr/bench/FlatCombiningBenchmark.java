@@ -0,0 +1,137 @@
+package com.imlehr.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * executeLocked（flat combining）和普通lock()/unlock()在最热的两种临界区上比：一个long计数器，一个共享的HashMap
+ * lock：aqs的lock()/unlock()；combining：aqs的executeLocked；juc：juc的lock()/unlock()做参照
+ * 线程数2/8/64，想看别的用-t覆盖
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FlatCombiningBenchmark {
+
+    @Param({"lock", "combining", "juc"})
+    public String mode;
+
+    /**
+     * map里key的范围，put和get各一半
+     */
+    @Param({"1024"})
+    public int keys;
+
+    private com.imlehr.aqs.ReentrantLock aqs;
+    private java.util.concurrent.locks.ReentrantLock juc;
+    private long counter;
+    private Map<Integer, Integer> map;
+
+    @Setup
+    public void setup() {
+        aqs = new com.imlehr.aqs.ReentrantLock();
+        juc = new java.util.concurrent.locks.ReentrantLock();
+        map = new HashMap<>();
+    }
+
+    private long increment() {
+        switch (mode) {
+            case "lock":
+                aqs.lock();
+                try {
+                    return ++counter;
+                } finally {
+                    aqs.unlock();
+                }
+            case "combining":
+                return aqs.executeLocked(() -> ++counter);
+            case "juc":
+                juc.lock();
+                try {
+                    return ++counter;
+                } finally {
+                    juc.unlock();
+                }
+            default:
+                throw new IllegalArgumentException("unknown mode: " + mode);
+        }
+    }
+
+    private Integer mapOp() {
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        Integer key = r.nextInt(keys);
+        boolean put = r.nextBoolean();
+        switch (mode) {
+            case "lock":
+                aqs.lock();
+                try {
+                    return put ? map.put(key, key) : map.get(key);
+                } finally {
+                    aqs.unlock();
+                }
+            case "combining":
+                return aqs.executeLocked(() -> put ? map.put(key, key) : map.get(key));
+            case "juc":
+                juc.lock();
+                try {
+                    return put ? map.put(key, key) : map.get(key);
+                } finally {
+                    juc.unlock();
+                }
+            default:
+                throw new IllegalArgumentException("unknown mode: " + mode);
+        }
+    }
+
+    @Benchmark
+    @Threads(2)
+    public long counter_02() {
+        return increment();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long counter_08() {
+        return increment();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public long counter_64() {
+        return increment();
+    }
+
+    @Benchmark
+    @Threads(2)
+    public Integer map_02() {
+        return mapOp();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Integer map_08() {
+        return mapOp();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Integer map_64() {
+        return mapOp();
+    }
+
+}
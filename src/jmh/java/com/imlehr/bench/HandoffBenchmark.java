@@ -0,0 +1,69 @@
+package com.imlehr.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 交接延迟：每个线程一直在排队，拿到锁只烧一点点cpu就放，一次操作的时间基本就是在队列里等前面的人交过来的时间
+ * 用SampleTime看分布（p50/p99/p99.9），平均值看LockBenchmark/HoldTimeBenchmark
+ * 公平的几种锁每次都是真的交接，非公平的会被抢，放进来做参照
+ * aqs-bounded平时和非公平一样，排第一的被抢得太久才交接，主要看它的p99/p999比非公平收得住多少
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HandoffBenchmark {
+
+    @Param({LockTarget.AQS_FAIR, LockTarget.AQS_MCS, LockTarget.AQS_NONFAIR, LockTarget.AQS_BOUNDED, LockTarget.JUC_FAIR})
+    public String lockType;
+
+    @Param({"10"})
+    public long holdTokens;
+
+    private LockTarget target;
+
+    @Setup
+    public void setup() {
+        target = LockTarget.create(lockType);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void handoff_02() {
+        target.hold(holdTokens);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void handoff_04() {
+        target.hold(holdTokens);
+    }
+
+    /**
+     * 线程比核多得多，非公平锁上排第一的最容易被一直插队
+     */
+    @Benchmark
+    @Threads(16)
+    public void handoff_16() {
+        target.hold(holdTokens);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void handoff_max() {
+        target.hold(holdTokens);
+    }
+
+}
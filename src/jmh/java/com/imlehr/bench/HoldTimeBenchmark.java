@@ -0,0 +1,59 @@
+package com.imlehr.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 不同临界区长度下的竞争吞吐，看排队自旋在短临界区有没有收益、长临界区有没有退化
+ * holdTokens是锁里烧的cpu，thinkTokens是两次拿锁之间在锁外烧的cpu
+ * Blackhole.consumeCPU的一个token大概是几纳秒，具体和机器有关
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HoldTimeBenchmark {
+
+    @Param({LockTarget.AQS_NONFAIR, LockTarget.AQS_FAIR, LockTarget.AQS_BOUNDED, LockTarget.AQS_COMPACT, LockTarget.AQS_MCS, LockTarget.JUC_NONFAIR})
+    public String lockType;
+
+    @Param({"10", "100", "10000"})
+    public long holdTokens;
+
+    @Param({"100"})
+    public long thinkTokens;
+
+    private LockTarget target;
+
+    @Setup
+    public void setup() {
+        target = LockTarget.create(lockType);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void hold_04() {
+        target.hold(holdTokens);
+        Blackhole.consumeCPU(thinkTokens);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void hold_max() {
+        target.hold(holdTokens);
+        Blackhole.consumeCPU(thinkTokens);
+    }
+
+}
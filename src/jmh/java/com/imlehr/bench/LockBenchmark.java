@@ -0,0 +1,75 @@
+package com.imlehr.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * lock/unlock的基本开销：无竞争、重入、1..N线程抢同一把锁
+ * 竞争的几组线程数是写死在注解上的，这样一次跑完结果里就有完整的曲线
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LockBenchmark {
+
+    @Param({LockTarget.AQS_NONFAIR, LockTarget.AQS_FAIR, LockTarget.AQS_COMPACT, LockTarget.AQS_MCS,
+            LockTarget.JUC_NONFAIR, LockTarget.JUC_FAIR,
+            LockTarget.SYNCHRONIZED})
+    public String lockType;
+
+    private LockTarget target;
+
+    @Setup
+    public void setup() {
+        target = LockTarget.create(lockType);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long uncontended() {
+        return target.increment();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long reentrant() {
+        return target.incrementReentrant();
+    }
+
+    @Benchmark
+    @Threads(2)
+    public long contended_02() {
+        return target.increment();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long contended_04() {
+        return target.increment();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long contended_08() {
+        return target.increment();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public long contended_max() {
+        return target.increment();
+    }
+
+}
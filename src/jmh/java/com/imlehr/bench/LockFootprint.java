@@ -0,0 +1,187 @@
+package com.imlehr.bench;
+
+import org.openjdk.jol.vm.VM;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 锁占多少内存：空锁一个实例多大，每多一个排队线程多出来多少
+ * 不是jmh的benchmark，跑法：./gradlew lockFootprint
+ * <p>
+ * 排队的节点会引用Thread，顺着Thread能走到一大堆无关对象，
+ * 所以这里自己遍历引用，只走进锁实现相关包里的对象（com.imlehr和juc的locks/atomic）
+ * 读juc的私有字段需要--add-opens，gradle任务里已经加好了
+ * <p>
+ * sync那一列只算锁里面的同步器实例（两个ReentrantLock都是sync字段），
+ * 默认的aqs同步器是64字节：state换成long、AQS拆出QueuedSynchronizer之后都还是56，
+ * 持锁开始时间（LockMetrics的holdTime用）挪到锁上之后多了8字节；padded多128字节
+ * 外面ReentrantLock本身多了一个flat combining用的combiner字段，所以空锁一共比以前多8字节
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+public class LockFootprint {
+
+    private static final String[] COUNTED_PACKAGES = {
+            "com.imlehr.",
+            "java.util.concurrent.locks.",
+            "java.util.concurrent.atomic."
+    };
+
+    public static void main(String[] args) throws InterruptedException {
+        int waiters = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+
+        System.out.printf("%-16s %12s %12s %16s%n", "lock", "empty(bytes)", "sync(bytes)", "per-waiter(bytes)");
+
+        com.imlehr.aqs.ReentrantLock aqs = new com.imlehr.aqs.ReentrantLock();
+        report("aqs-nonfair", aqs, aqs::lock, aqs::unlock, waiters);
+
+        com.imlehr.aqs.ReentrantLock padded = new com.imlehr.aqs.ReentrantLock(false, null, null, true);
+        report("aqs-padded", padded, padded::lock, padded::unlock, waiters);
+
+        //CompactLock的等待节点在全局的ParkingLot里，从锁上走不到，把那张表也算进per-waiter里
+        Object parkingLot = parkingLotTable();
+        com.imlehr.aqs.CompactLock compact = new com.imlehr.aqs.CompactLock();
+        report("aqs-compact", compact, parkingLot, compact::lock, compact::unlock, waiters);
+
+        java.util.concurrent.locks.ReentrantLock juc = new java.util.concurrent.locks.ReentrantLock();
+        report("juc-nonfair", juc, juc::lock, juc::unlock, waiters);
+
+        System.out.printf("(aqs-compact shares a %d-byte parking lot table across all instances)%n", countedSize(parkingLot));
+    }
+
+    private static void report(String name, Object lock, Runnable lockAction, Runnable unlockAction, int waiters)
+            throws InterruptedException {
+        report(name, lock, null, lockAction, unlockAction, waiters);
+    }
+
+    /**
+     * @param shared 所有锁共用的结构，不算进空锁的大小，只算排队之后多出来的部分
+     */
+    private static void report(String name, Object lock, Object shared, Runnable lockAction, Runnable unlockAction,
+                               int waiters) throws InterruptedException {
+        long empty = countedSize(lock);
+        Object sync = syncOf(lock);
+        String syncSize = sync != null ? String.valueOf(VM.current().sizeOf(sync)) : "-";
+        long sharedBefore = shared != null ? countedSize(shared) : 0;
+
+        //先占住锁，让后面的线程全部进队列
+        lockAction.run();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < waiters; i++) {
+            Thread t = new Thread(() -> {
+                lockAction.run();
+                unlockAction.run();
+            }, name + "-waiter-" + i);
+            t.setDaemon(true);
+            t.start();
+            threads.add(t);
+        }
+        awaitParked(threads);
+
+        long queued = countedSize(lock) + (shared != null ? countedSize(shared) - sharedBefore : 0);
+
+        unlockAction.run();
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        System.out.printf("%-16s %12d %12s %16d%n", name, empty, syncSize, (queued - empty) / waiters);
+    }
+
+    private static void awaitParked(List<Thread> threads) {
+        for (Thread t : threads) {
+            while (t.getState() != Thread.State.WAITING) {
+                LockSupport.parkNanos(100_000L);
+            }
+        }
+    }
+
+    /**
+     * 锁里的sync字段，没有的话（CompactLock）返回null
+     */
+    private static Object syncOf(Object lock) {
+        try {
+            Field sync = lock.getClass().getDeclaredField("sync");
+            sync.setAccessible(true);
+            return sync.get(lock);
+        } catch (NoSuchFieldException e) {
+            return null;
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Object parkingLotTable() {
+        try {
+            Field table = Class.forName("com.imlehr.aqs.ParkingLot").getDeclaredField("TABLE");
+            table.setAccessible(true);
+            return table.get(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long countedSize(Object root) {
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Object> stack = new ArrayDeque<>();
+        stack.push(root);
+        long size = 0;
+        while (!stack.isEmpty()) {
+            Object o = stack.pop();
+            if (!seen.add(o)) {
+                continue;
+            }
+            size += VM.current().sizeOf(o);
+            Class<?> c = o.getClass();
+            if (c.isArray()) {
+                if (!c.getComponentType().isPrimitive()) {
+                    for (int i = 0; i < Array.getLength(o); i++) {
+                        push(stack, Array.get(o, i));
+                    }
+                }
+                continue;
+            }
+            for (; c != null; c = c.getSuperclass()) {
+                for (Field f : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(f.getModifiers()) || f.getType().isPrimitive()) {
+                        continue;
+                    }
+                    f.setAccessible(true);
+                    try {
+                        push(stack, f.get(o));
+                    } catch (IllegalAccessException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }
+        }
+        return size;
+    }
+
+    private static void push(Deque<Object> stack, Object ref) {
+        if (ref != null && (ref.getClass().isArray() || counted(ref.getClass()))) {
+            stack.push(ref);
+        }
+    }
+
+    private static boolean counted(Class<?> c) {
+        for (String p : COUNTED_PACKAGES) {
+            if (c.getName().startsWith(p)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,269 @@
+package com.imlehr.bench;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 被测的锁统一包一层，这样同一个benchmark方法可以通过@Param切换实现
+ * 每个@Param组合jmh都会单独fork一个jvm，所以这里的虚调用在被测进程里是单态的，不会影响对比
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+public abstract class LockTarget {
+
+    public static final String AQS_NONFAIR = "aqs-nonfair";
+    public static final String AQS_FAIR = "aqs-fair";
+    /**
+     * 有界不公平，排第一的等满1ms就不让插队
+     */
+    public static final String AQS_BOUNDED = "aqs-bounded";
+    public static final String AQS_COMPACT = "aqs-compact";
+    public static final String AQS_MCS = "aqs-mcs";
+    /**
+     * BiasedLock，第一个拿到锁的线程把锁预订下来，要-Dcom.imlehr.aqs.biasedLocking=true才会预订
+     */
+    public static final String AQS_BIASED = "aqs-biased";
+    public static final String JUC_NONFAIR = "juc-nonfair";
+    public static final String JUC_FAIR = "juc-fair";
+    public static final String SYNCHRONIZED = "synchronized";
+
+    /**
+     * 锁保护的数据，避免临界区被jit整个优化掉
+     */
+    protected long value;
+
+    public static LockTarget create(String type) {
+        switch (type) {
+            case AQS_NONFAIR:
+                return new Aqs(new com.imlehr.aqs.ReentrantLock(false));
+            case AQS_FAIR:
+                return new Aqs(new com.imlehr.aqs.ReentrantLock(true));
+            case AQS_BOUNDED:
+                return new Aqs(new com.imlehr.aqs.ReentrantLock(1, TimeUnit.MILLISECONDS));
+            case AQS_COMPACT:
+                return new Aqs(new com.imlehr.aqs.CompactLock());
+            case AQS_MCS:
+                return new Aqs(new com.imlehr.aqs.McsLock());
+            case AQS_BIASED:
+                return new Aqs(new com.imlehr.aqs.BiasedLock());
+            case JUC_NONFAIR:
+                return new Juc(new java.util.concurrent.locks.ReentrantLock(false));
+            case JUC_FAIR:
+                return new Juc(new java.util.concurrent.locks.ReentrantLock(true));
+            case SYNCHRONIZED:
+                return new Monitor();
+            default:
+                throw new IllegalArgumentException("unknown lock type: " + type);
+        }
+    }
+
+    /**
+     * lock -> value++ -> unlock
+     */
+    public abstract long increment();
+
+    /**
+     * 同一个线程连续进两次
+     */
+    public abstract long incrementReentrant();
+
+    /**
+     * 在锁里烧holdTokens个单位的cpu，用来模拟不同长度的临界区
+     */
+    public abstract void hold(long holdTokens);
+
+    /**
+     * tryLock()，拿不到就算了
+     */
+    public abstract boolean tryIncrement();
+
+    /**
+     * tryLock(timeout)
+     */
+    public abstract boolean tryIncrement(long timeoutNanos) throws InterruptedException;
+
+
+    static final class Aqs extends LockTarget {
+
+        private final com.imlehr.aqs.Lock lock;
+
+        Aqs(com.imlehr.aqs.Lock lock) {
+            this.lock = lock;
+        }
+
+        @Override
+        public long increment() {
+            lock.lock();
+            try {
+                return ++value;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public long incrementReentrant() {
+            lock.lock();
+            try {
+                lock.lock();
+                try {
+                    return ++value;
+                } finally {
+                    lock.unlock();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void hold(long holdTokens) {
+            lock.lock();
+            try {
+                Blackhole.consumeCPU(holdTokens);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public boolean tryIncrement() {
+            if (lock.tryLock()) {
+                try {
+                    value++;
+                    return true;
+                } finally {
+                    lock.unlock();
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean tryIncrement(long timeoutNanos) throws InterruptedException {
+            if (lock.tryLock(timeoutNanos, TimeUnit.NANOSECONDS)) {
+                try {
+                    value++;
+                    return true;
+                } finally {
+                    lock.unlock();
+                }
+            }
+            return false;
+        }
+    }
+
+    static final class Juc extends LockTarget {
+
+        private final java.util.concurrent.locks.ReentrantLock lock;
+
+        Juc(java.util.concurrent.locks.ReentrantLock lock) {
+            this.lock = lock;
+        }
+
+        @Override
+        public long increment() {
+            lock.lock();
+            try {
+                return ++value;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public long incrementReentrant() {
+            lock.lock();
+            try {
+                lock.lock();
+                try {
+                    return ++value;
+                } finally {
+                    lock.unlock();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void hold(long holdTokens) {
+            lock.lock();
+            try {
+                Blackhole.consumeCPU(holdTokens);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public boolean tryIncrement() {
+            if (lock.tryLock()) {
+                try {
+                    value++;
+                    return true;
+                } finally {
+                    lock.unlock();
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean tryIncrement(long timeoutNanos) throws InterruptedException {
+            if (lock.tryLock(timeoutNanos, TimeUnit.NANOSECONDS)) {
+                try {
+                    value++;
+                    return true;
+                } finally {
+                    lock.unlock();
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * synchronized没有tryLock，所以try系列的benchmark不放它进@Param
+     */
+    static final class Monitor extends LockTarget {
+
+        private final Object monitor = new Object();
+
+        @Override
+        public long increment() {
+            synchronized (monitor) {
+                return ++value;
+            }
+        }
+
+        @Override
+        public long incrementReentrant() {
+            synchronized (monitor) {
+                synchronized (monitor) {
+                    return ++value;
+                }
+            }
+        }
+
+        @Override
+        public void hold(long holdTokens) {
+            synchronized (monitor) {
+                Blackhole.consumeCPU(holdTokens);
+            }
+        }
+
+        @Override
+        public boolean tryIncrement() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean tryIncrement(long timeoutNanos) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.imlehr.bench;
+
+import com.imlehr.aqs.ReentrantLock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 竞争统计的开销：同一把有名字的锁，分别在关着和开着统计的jvm里跑
+ * LockMetrics.ENABLED是static final，只能在启动参数里定，所以开关放在@Fork上，每个方法自己的fork
+ * 用的是jvmArgsPrepend，build.gradle里的jvmArgsAppend会覆盖注解上的append
+ * 关着的那组应该和LockBenchmark里aqs-nonfair的同名方法一样，说明分支确实被删掉了
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MetricsOverheadBenchmark {
+
+    private static final String DISABLED = "-Dcom.imlehr.aqs.metrics=false";
+    private static final String ENABLED = "-Dcom.imlehr.aqs.metrics=true";
+
+    private ReentrantLock lock;
+
+    private long value;
+
+    @Setup
+    public void setup() {
+        lock = new ReentrantLock(false, null, "metrics-overhead");
+    }
+
+    private long increment() {
+        lock.lock();
+        try {
+            return ++value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    @Fork(jvmArgsPrepend = DISABLED)
+    public long uncontended_disabled() {
+        return increment();
+    }
+
+    @Benchmark
+    @Threads(1)
+    @Fork(jvmArgsPrepend = ENABLED)
+    public long uncontended_enabled() {
+        return increment();
+    }
+
+    @Benchmark
+    @Threads(4)
+    @Fork(jvmArgsPrepend = DISABLED)
+    public long contended_04_disabled() {
+        return increment();
+    }
+
+    @Benchmark
+    @Threads(4)
+    @Fork(jvmArgsPrepend = ENABLED)
+    public long contended_04_enabled() {
+        return increment();
+    }
+
+}
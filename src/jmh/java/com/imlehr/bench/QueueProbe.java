@@ -0,0 +1,60 @@
+package com.imlehr.bench;
+
+import java.lang.reflect.Field;
+
+/**
+ * 反射去数同步队列里物理上挂着多少个节点（包括已经取消但还没摘掉的）
+ * getQueueLength只数活着的线程，看不出泄漏，所以benchmark里用这个
+ * 两套ReentrantLock的字段名一样（sync/tail/prev），juc的需要--add-opens
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+final class QueueProbe {
+
+    private final Object sync;
+    private final Field tail;
+    private Field prev;
+
+    QueueProbe(Object lock) {
+        try {
+            Field f = findField(lock.getClass(), "sync");
+            this.sync = f.get(lock);
+            this.tail = findField(sync.getClass(), "tail");
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    int nodes() {
+        try {
+            int n = 0;
+            for (Object p = tail.get(sync); p != null; p = prev(p)) {
+                n++;
+            }
+            return n;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Object prev(Object node) throws ReflectiveOperationException {
+        if (prev == null) {
+            prev = findField(node.getClass(), "prev");
+        }
+        return prev.get(node);
+    }
+
+    private static Field findField(Class<?> c, String name) throws NoSuchFieldException {
+        for (; c != null; c = c.getSuperclass()) {
+            try {
+                Field f = c.getDeclaredField(name);
+                f.setAccessible(true);
+                return f;
+            } catch (NoSuchFieldException ignored) {
+            }
+        }
+        throw new NoSuchFieldException(name);
+    }
+
+}
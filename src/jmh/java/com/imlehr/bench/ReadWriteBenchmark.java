@@ -0,0 +1,162 @@
+package com.imlehr.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 读多写少的吞吐随线程数的变化，每个线程按writePercent的比例穿插写
+ * 读锁里读一个数组的几个元素，写锁里改一下，临界区都很短，主要看读锁本身能不能扩展
+ * 独占的ReentrantLock也放进来当基线，读写锁在读多的时候应该明显比它好
+ * aqs-rw-biased是BiasedReadWriteLock，writePercent=0的时候读线程完全不碰共享的state，应该接近线性扩展
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReadWriteBenchmark {
+
+    public static final String AQS_RW_NONFAIR = "aqs-rw-nonfair";
+    public static final String AQS_RW_FAIR = "aqs-rw-fair";
+    public static final String AQS_RW_BIASED = "aqs-rw-biased";
+    public static final String JUC_RW_NONFAIR = "juc-rw-nonfair";
+    public static final String JUC_RW_FAIR = "juc-rw-fair";
+
+    @Param({AQS_RW_NONFAIR, AQS_RW_FAIR, AQS_RW_BIASED, JUC_RW_NONFAIR, JUC_RW_FAIR, LockTarget.AQS_NONFAIR})
+    public String lockType;
+
+    /**
+     * 每100次操作里有几次是写
+     */
+    @Param({"0", "1", "10"})
+    public int writePercent;
+
+    @Param({"20"})
+    public long readTokens;
+
+    private RwTarget target;
+
+    @Setup
+    public void setup() {
+        switch (lockType) {
+            case AQS_RW_NONFAIR:
+            case AQS_RW_FAIR: {
+                com.imlehr.aqs.ReentrantReadWriteLock rw = new com.imlehr.aqs.ReentrantReadWriteLock(AQS_RW_FAIR.equals(lockType));
+                target = new RwTarget(rw.readLock()::lock, rw.readLock()::unlock, rw.writeLock()::lock, rw.writeLock()::unlock);
+                break;
+            }
+            case AQS_RW_BIASED: {
+                com.imlehr.aqs.BiasedReadWriteLock rw = new com.imlehr.aqs.BiasedReadWriteLock();
+                target = new RwTarget(rw.readLock()::lock, rw.readLock()::unlock, rw.writeLock()::lock, rw.writeLock()::unlock);
+                break;
+            }
+            case JUC_RW_NONFAIR:
+            case JUC_RW_FAIR: {
+                java.util.concurrent.locks.ReentrantReadWriteLock rw =
+                        new java.util.concurrent.locks.ReentrantReadWriteLock(JUC_RW_FAIR.equals(lockType));
+                target = new RwTarget(rw.readLock()::lock, rw.readLock()::unlock, rw.writeLock()::lock, rw.writeLock()::unlock);
+                break;
+            }
+            case LockTarget.AQS_NONFAIR: {
+                com.imlehr.aqs.ReentrantLock l = new com.imlehr.aqs.ReentrantLock();
+                target = new RwTarget(l::lock, l::unlock, l::lock, l::unlock);
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("unknown lock type: " + lockType);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long readMostly_01(Op op) {
+        return target.op(op.next(writePercent), readTokens);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public long readMostly_02(Op op) {
+        return target.op(op.next(writePercent), readTokens);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long readMostly_04(Op op) {
+        return target.op(op.next(writePercent), readTokens);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long readMostly_08(Op op) {
+        return target.op(op.next(writePercent), readTokens);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public long readMostly_max(Op op) {
+        return target.op(op.next(writePercent), readTokens);
+    }
+
+    /**
+     * 每个线程自己决定这次是读还是写，用计数不用随机数，免得随机数本身成了开销
+     */
+    @State(Scope.Thread)
+    public static class Op {
+
+        private int i;
+
+        boolean next(int writePercent) {
+            if (++i == 100) {
+                i = 0;
+            }
+            return i < writePercent;
+        }
+    }
+
+    static final class RwTarget {
+
+        private final Runnable readLock;
+        private final Runnable readUnlock;
+        private final Runnable writeLock;
+        private final Runnable writeUnlock;
+
+        private final long[] data = new long[8];
+
+        RwTarget(Runnable readLock, Runnable readUnlock, Runnable writeLock, Runnable writeUnlock) {
+            this.readLock = readLock;
+            this.readUnlock = readUnlock;
+            this.writeLock = writeLock;
+            this.writeUnlock = writeUnlock;
+        }
+
+        long op(boolean write, long readTokens) {
+            if (write) {
+                writeLock.run();
+                try {
+                    return ++data[0];
+                } finally {
+                    writeUnlock.run();
+                }
+            }
+            readLock.run();
+            try {
+                Blackhole.consumeCPU(readTokens);
+                return data[0] + data[7];
+            } finally {
+                readUnlock.run();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,203 @@
+package com.imlehr.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 读几个字段的小结构（一个价格的买卖价），比较乐观读、悲观读锁和普通读写锁的读锁
+ * 每个线程按writePercent的比例穿插写；乐观读验证失败就退回悲观读锁，和正常用法一样
+ * 乐观读整个过程不写共享内存，writePercent=0的时候应该随线程数线性扩展，读锁要cas同一个state，扩展不上去
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StampedBenchmark {
+
+    public static final String AQS_OPTIMISTIC = "aqs-optimistic";
+    public static final String AQS_READ = "aqs-read";
+    public static final String JUC_OPTIMISTIC = "juc-optimistic";
+    public static final String JUC_READ = "juc-read";
+    public static final String AQS_RW_NONFAIR = "aqs-rw-nonfair";
+
+    @Param({AQS_OPTIMISTIC, AQS_READ, JUC_OPTIMISTIC, JUC_READ, AQS_RW_NONFAIR})
+    public String lockType;
+
+    @Param({"0", "1", "10"})
+    public int writePercent;
+
+    private Quote quote;
+
+    @Setup
+    public void setup() {
+        switch (lockType) {
+            case AQS_OPTIMISTIC:
+                quote = new AqsQuote(true);
+                break;
+            case AQS_READ:
+                quote = new AqsQuote(false);
+                break;
+            case JUC_OPTIMISTIC:
+                quote = new JucQuote(true);
+                break;
+            case JUC_READ:
+                quote = new JucQuote(false);
+                break;
+            case AQS_RW_NONFAIR:
+                quote = new RwQuote();
+                break;
+            default:
+                throw new IllegalArgumentException("unknown lock type: " + lockType);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long quote_01(ReadWriteBenchmark.Op op) {
+        return op.next(writePercent) ? quote.update() : quote.spread();
+    }
+
+    @Benchmark
+    @Threads(2)
+    public long quote_02(ReadWriteBenchmark.Op op) {
+        return op.next(writePercent) ? quote.update() : quote.spread();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long quote_04(ReadWriteBenchmark.Op op) {
+        return op.next(writePercent) ? quote.update() : quote.spread();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public long quote_max(ReadWriteBenchmark.Op op) {
+        return op.next(writePercent) ? quote.update() : quote.spread();
+    }
+
+    abstract static class Quote {
+
+        long bid;
+        long ask = 1;
+
+        abstract long spread();
+
+        abstract long update();
+    }
+
+    static final class AqsQuote extends Quote {
+
+        private final com.imlehr.aqs.StampedLock sl = new com.imlehr.aqs.StampedLock();
+
+        private final boolean optimistic;
+
+        AqsQuote(boolean optimistic) {
+            this.optimistic = optimistic;
+        }
+
+        @Override
+        long spread() {
+            if (optimistic) {
+                long stamp = sl.tryOptimisticRead();
+                long b = bid, a = ask;
+                if (sl.validate(stamp)) {
+                    return a - b;
+                }
+            }
+            long stamp = sl.readLock();
+            try {
+                return ask - bid;
+            } finally {
+                sl.unlockRead(stamp);
+            }
+        }
+
+        @Override
+        long update() {
+            long stamp = sl.writeLock();
+            try {
+                bid++;
+                return ++ask;
+            } finally {
+                sl.unlockWrite(stamp);
+            }
+        }
+    }
+
+    static final class JucQuote extends Quote {
+
+        private final java.util.concurrent.locks.StampedLock sl = new java.util.concurrent.locks.StampedLock();
+
+        private final boolean optimistic;
+
+        JucQuote(boolean optimistic) {
+            this.optimistic = optimistic;
+        }
+
+        @Override
+        long spread() {
+            if (optimistic) {
+                long stamp = sl.tryOptimisticRead();
+                long b = bid, a = ask;
+                if (sl.validate(stamp)) {
+                    return a - b;
+                }
+            }
+            long stamp = sl.readLock();
+            try {
+                return ask - bid;
+            } finally {
+                sl.unlockRead(stamp);
+            }
+        }
+
+        @Override
+        long update() {
+            long stamp = sl.writeLock();
+            try {
+                bid++;
+                return ++ask;
+            } finally {
+                sl.unlockWrite(stamp);
+            }
+        }
+    }
+
+    static final class RwQuote extends Quote {
+
+        private final com.imlehr.aqs.ReentrantReadWriteLock rw = new com.imlehr.aqs.ReentrantReadWriteLock();
+
+        @Override
+        long spread() {
+            rw.readLock().lock();
+            try {
+                return ask - bid;
+            } finally {
+                rw.readLock().unlock();
+            }
+        }
+
+        @Override
+        long update() {
+            rw.writeLock().lock();
+            try {
+                bid++;
+                return ++ask;
+            } finally {
+                rw.writeLock().unlock();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,120 @@
+package com.imlehr.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 分段锁数组上的伪共享：数组里的锁是连着new出来的，在堆上也基本挨着
+ * 每个线程只拿放自己那一段的锁，逻辑上完全不竞争，慢下来的部分全是相邻的锁落在同一个缓存行里互相干扰
+ * aqs-padded是ReentrantLock(..., padded=true)，每把锁占满自己的缓存行，应该和线程数无关；
+ * juc的锁没有padding，当作紧凑布局的对照
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StripedLockBenchmark {
+
+    public static final String AQS = "aqs";
+    public static final String AQS_PADDED = "aqs-padded";
+    public static final String JUC = "juc";
+
+    @Param({AQS, AQS_PADDED, JUC})
+    public String lockType;
+
+    @Param({"64"})
+    public int stripes;
+
+    private Runnable[] locks;
+    private Runnable[] unlocks;
+
+    private final AtomicInteger nextStripe = new AtomicInteger();
+
+    @Setup
+    public void setup() {
+        locks = new Runnable[stripes];
+        unlocks = new Runnable[stripes];
+        //连着new，让相邻的锁在堆上挨在一起
+        for (int i = 0; i < stripes; i++) {
+            switch (lockType) {
+                case AQS:
+                case AQS_PADDED: {
+                    com.imlehr.aqs.ReentrantLock l = new com.imlehr.aqs.ReentrantLock(false, null, null, AQS_PADDED.equals(lockType));
+                    locks[i] = l::lock;
+                    unlocks[i] = l::unlock;
+                    break;
+                }
+                case JUC: {
+                    java.util.concurrent.locks.ReentrantLock l = new java.util.concurrent.locks.ReentrantLock();
+                    locks[i] = l::lock;
+                    unlocks[i] = l::unlock;
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("unknown lock type: " + lockType);
+            }
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void ownStripe_01(Stripe s) {
+        s.run(this);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void ownStripe_02(Stripe s) {
+        s.run(this);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void ownStripe_04(Stripe s) {
+        s.run(this);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void ownStripe_max(Stripe s) {
+        s.run(this);
+    }
+
+    /**
+     * 每个线程分到一个相邻的下标，线程数超过stripes的时候才会真的抢同一把锁
+     */
+    @State(Scope.Thread)
+    public static class Stripe {
+
+        private int index;
+
+        private long counter;
+
+        @Setup
+        public void setup(StripedLockBenchmark b) {
+            index = b.nextStripe.getAndIncrement() % b.stripes;
+        }
+
+        void run(StripedLockBenchmark b) {
+            b.locks[index].run();
+            try {
+                counter++;
+            } finally {
+                b.unlocks[index].run();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,163 @@
+package com.imlehr.bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 超时的长时间压测：一个后台线程反复长时间占着锁，其他线程不停地tryLock(timeout)然后超时
+ * 用SampleTime看p99/p999，迭代次数给多一点，每一轮的延迟和队列长度都应该是平的，不能随时间往上涨
+ * 队列长度是物理节点数（包括取消了还没摘掉的），作为辅助结果queueNodes输出，jmh会把各线程本轮见到的最大值加起来
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Measurement(iterations = 20)
+public class TimeoutSoakBenchmark {
+
+    @Param({LockTarget.AQS_NONFAIR, LockTarget.AQS_FAIR,
+            LockTarget.JUC_NONFAIR, LockTarget.JUC_FAIR})
+    public String lockType;
+
+    /**
+     * 后台线程每次占锁的时间，比超时长得多，所以绝大部分tryLock都会超时
+     */
+    @Param({"200"})
+    public long holdMicros;
+
+    @Param({"20"})
+    public long timeoutMicros;
+
+    private Object lock;
+    private HeldLock held;
+    private QueueProbe probe;
+    private Thread holder;
+    private volatile boolean stopped;
+
+    @Setup
+    public void setup() {
+        switch (lockType) {
+            case LockTarget.AQS_NONFAIR:
+            case LockTarget.AQS_FAIR: {
+                com.imlehr.aqs.ReentrantLock l = new com.imlehr.aqs.ReentrantLock(LockTarget.AQS_FAIR.equals(lockType));
+                lock = l;
+                held = new HeldLock() {
+                    @Override
+                    public void lock() {
+                        l.lock();
+                    }
+
+                    @Override
+                    public void unlock() {
+                        l.unlock();
+                    }
+
+                    @Override
+                    public boolean tryLock(long nanos) throws InterruptedException {
+                        return l.tryLock(nanos, TimeUnit.NANOSECONDS);
+                    }
+                };
+                break;
+            }
+            case LockTarget.JUC_NONFAIR:
+            case LockTarget.JUC_FAIR: {
+                java.util.concurrent.locks.ReentrantLock l =
+                        new java.util.concurrent.locks.ReentrantLock(LockTarget.JUC_FAIR.equals(lockType));
+                lock = l;
+                held = new HeldLock() {
+                    @Override
+                    public void lock() {
+                        l.lock();
+                    }
+
+                    @Override
+                    public void unlock() {
+                        l.unlock();
+                    }
+
+                    @Override
+                    public boolean tryLock(long nanos) throws InterruptedException {
+                        return l.tryLock(nanos, TimeUnit.NANOSECONDS);
+                    }
+                };
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("unknown lock type: " + lockType);
+        }
+        probe = new QueueProbe(lock);
+
+        long holdNanos = TimeUnit.MICROSECONDS.toNanos(holdMicros);
+        holder = new Thread(() -> {
+            while (!stopped) {
+                held.lock();
+                try {
+                    LockSupport.parkNanos(holdNanos);
+                } finally {
+                    held.unlock();
+                }
+            }
+        }, "soak-holder");
+        holder.setDaemon(true);
+        holder.start();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        stopped = true;
+        holder.join();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean tryLockTimeout(QueueStats stats) throws InterruptedException {
+        boolean acquired = held.tryLock(TimeUnit.MICROSECONDS.toNanos(timeoutMicros));
+        if (acquired) {
+            held.unlock();
+        }
+        //遍历队列本身也有开销，抽样着看
+        if ((++stats.calls & 1023) == 0) {
+            stats.queueNodes = Math.max(stats.queueNodes, probe.nodes());
+        }
+        return acquired;
+    }
+
+    interface HeldLock {
+        void lock();
+
+        void unlock();
+
+        boolean tryLock(long nanos) throws InterruptedException;
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class QueueStats {
+
+        public long queueNodes;
+
+        long calls;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            queueNodes = 0;
+        }
+    }
+
+}
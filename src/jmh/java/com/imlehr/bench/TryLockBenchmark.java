@@ -0,0 +1,80 @@
+package com.imlehr.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * tryLock()和tryLock(timeout)
+ * synchronized没有对应的操作，这里只对比两套ReentrantLock
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TryLockBenchmark {
+
+    @Param({LockTarget.AQS_NONFAIR, LockTarget.AQS_FAIR,
+            LockTarget.JUC_NONFAIR, LockTarget.JUC_FAIR})
+    public String lockType;
+
+    /**
+     * 超时时间，竞争的时候决定了多少线程会真的去排队
+     */
+    @Param({"10000"})
+    public long timeoutNanos;
+
+    private LockTarget target;
+
+    @Setup
+    public void setup() {
+        target = LockTarget.create(lockType);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean tryLock_uncontended() {
+        return target.tryIncrement();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean tryLock_contended_04() {
+        return target.tryIncrement();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean tryLock_contended_max() {
+        return target.tryIncrement();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean tryLockTimed_uncontended() throws InterruptedException {
+        return target.tryIncrement(timeoutNanos);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean tryLockTimed_contended_04() throws InterruptedException {
+        return target.tryIncrement(timeoutNanos);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean tryLockTimed_contended_max() throws InterruptedException {
+        return target.tryIncrement(timeoutNanos);
+    }
+
+}
@@ -0,0 +1,185 @@
+package com.imlehr.bench;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * 虚拟线程的规模测试：一百万个虚拟线程排在同一把锁上、等在同一个Condition上
+ * 不是jmh的benchmark，跑法：./gradlew virtualThreadScale（用21的toolchain起），-Pwaiters=...改线程数
+ * 21以下没有虚拟线程，退回平台线程，这时候线程数要自己调小
+ * <p>
+ * 每个场景输出两个数：
+ * per-waiter：所有线程都排好队之后堆上多用了多少（gc之后的used差值除以线程数），
+ * 虚拟线程的栈块和Thread对象都在堆上，所以算进去了；平台线程的栈不在堆上，不算。只看锁里的节点见LockFootprint
+ * wake：放锁/signalAll之后，到所有线程都拿过一次锁走掉花的时间，换算成每秒交接了多少次
+ * <p>
+ * gradle任务里加了-Djdk.tracePinnedThreads=short，有虚拟线程把载体线程钉住了会打印栈
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+public class VirtualThreadScale {
+
+    public static void main(String[] args) throws InterruptedException {
+        ThreadFactory virtual = virtualThreadFactory();
+        ThreadFactory factory = virtual != null ? virtual : r -> {
+            Thread t = new Thread(r);
+            t.setDaemon(true);
+            return t;
+        };
+        int waiters = args.length > 0 ? Integer.parseInt(args[0]) : (virtual != null ? 1_000_000 : 2_000);
+
+        System.out.printf("%s threads, %d waiters%n", virtual != null ? "virtual" : "platform", waiters);
+        System.out.printf("%-12s %-10s %18s %16s%n", "lock", "wait-on", "per-waiter(bytes)", "wake(ops/s)");
+
+        for (String lockType : new String[]{LockTarget.AQS_NONFAIR, LockTarget.AQS_FAIR, LockTarget.JUC_NONFAIR}) {
+            lockScale(lockType, factory, waiters);
+            conditionScale(lockType, factory, waiters);
+        }
+    }
+
+    /**
+     * 锁先占住，所有线程都排进同步队列，然后放锁，看它们一个接一个交接完要多久
+     */
+    private static void lockScale(String lockType, ThreadFactory factory, int waiters) throws InterruptedException {
+        Target target = Target.of(lockType);
+        Thread[] threads = new Thread[waiters];
+        long before = usedHeap();
+
+        target.lock.run();
+        for (int i = 0; i < waiters; i++) {
+            threads[i] = factory.newThread(() -> {
+                target.lock.run();
+                target.unlock.run();
+            });
+            threads[i].start();
+        }
+        //getQueueLength是O(n)的，隔一会儿看一次
+        while (target.queueLength.getAsInt() < waiters) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        long queued = usedHeap();
+
+        long start = System.nanoTime();
+        target.unlock.run();
+        for (Thread t : threads) {
+            t.join();
+        }
+        report(lockType, "lock", before, queued, System.nanoTime() - start, waiters);
+    }
+
+    /**
+     * 所有线程都在同一个Condition上await，然后一次signalAll，看它们重新拿锁走掉要多久
+     */
+    private static void conditionScale(String lockType, ThreadFactory factory, int waiters) throws InterruptedException {
+        Target target = Target.of(lockType);
+        Condition condition = target.newCondition.get();
+        //都只在锁里读写
+        int[] waiting = {0};
+        boolean[] signalled = {false};
+        Thread[] threads = new Thread[waiters];
+        long before = usedHeap();
+
+        for (int i = 0; i < waiters; i++) {
+            threads[i] = factory.newThread(() -> {
+                target.lock.run();
+                try {
+                    waiting[0]++;
+                    while (!signalled[0]) {
+                        condition.awaitUninterruptibly();
+                    }
+                } finally {
+                    target.unlock.run();
+                }
+            });
+            threads[i].start();
+        }
+        //拿得到锁而且计数够了，说明最后一个也已经在await里把锁放掉了，所有人都在条件队列里
+        for (; ; ) {
+            target.lock.run();
+            try {
+                if (waiting[0] == waiters) {
+                    break;
+                }
+            } finally {
+                target.unlock.run();
+            }
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        long queued = usedHeap();
+
+        long start = System.nanoTime();
+        target.lock.run();
+        try {
+            signalled[0] = true;
+            condition.signalAll();
+        } finally {
+            target.unlock.run();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        report(lockType, "condition", before, queued, System.nanoTime() - start, waiters);
+    }
+
+    private static void report(String lockType, String waitOn, long before, long queued, long wakeNanos, int waiters) {
+        System.out.printf("%-12s %-10s %18d %16.0f%n", lockType, waitOn,
+                (queued - before) / waiters, waiters * 1e9 / wakeNanos);
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    /**
+     * Thread.ofVirtual().factory()，21以下没有就返回null
+     * 这个类和别的benchmark一起按11编译，所以只能反射着拿
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    static final class Target {
+
+        final Runnable lock;
+        final Runnable unlock;
+        final Supplier<Condition> newCondition;
+        final IntSupplier queueLength;
+
+        private Target(Runnable lock, Runnable unlock, Supplier<Condition> newCondition, IntSupplier queueLength) {
+            this.lock = lock;
+            this.unlock = unlock;
+            this.newCondition = newCondition;
+            this.queueLength = queueLength;
+        }
+
+        static Target of(String lockType) {
+            switch (lockType) {
+                case LockTarget.AQS_NONFAIR:
+                case LockTarget.AQS_FAIR: {
+                    com.imlehr.aqs.ReentrantLock l = new com.imlehr.aqs.ReentrantLock(LockTarget.AQS_FAIR.equals(lockType));
+                    return new Target(l::lock, l::unlock, l::newCondition, l::getQueueLength);
+                }
+                case LockTarget.JUC_NONFAIR: {
+                    java.util.concurrent.locks.ReentrantLock l = new java.util.concurrent.locks.ReentrantLock();
+                    return new Target(l::lock, l::unlock, l::newCondition, l::getQueueLength);
+                }
+                default:
+                    throw new IllegalArgumentException("unknown lock type: " + lockType);
+            }
+        }
+    }
+
+}
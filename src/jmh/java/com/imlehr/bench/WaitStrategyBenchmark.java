@@ -0,0 +1,79 @@
+package com.imlehr.bench;
+
+import com.imlehr.aqs.ReentrantLock;
+import com.imlehr.aqs.WaitStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 不同WaitStrategy下抢锁的延迟分布，一次操作 = lock + 临界区 + unlock + 锁外干点别的
+ * 用SampleTime看p99/p999，自旋类的策略主要省的是尾部那一次park/unpark
+ * 线程数不要超过空闲的核数，不然自旋的线程会和持锁线程抢cpu，结果没有意义
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WaitStrategyBenchmark {
+
+    @Param({"default", "busy-spin", "spin-yield", "park", "spin-then-park"})
+    public String strategy;
+
+    @Param({"false"})
+    public boolean fair;
+
+    @Param({"50"})
+    public long holdTokens;
+
+    @Param({"200"})
+    public long thinkTokens;
+
+    private ReentrantLock lock;
+
+    @Setup
+    public void setup() {
+        lock = new ReentrantLock(fair, strategyOf(strategy));
+    }
+
+    private static WaitStrategy strategyOf(String name) {
+        switch (name) {
+            case "default":
+                return null;
+            case "busy-spin":
+                return WaitStrategy.BUSY_SPIN;
+            case "spin-yield":
+                return WaitStrategy.SPIN_YIELD;
+            case "park":
+                return WaitStrategy.PARK;
+            case "spin-then-park":
+                return WaitStrategy.spinThenPark(1000);
+            default:
+                throw new IllegalArgumentException("unknown strategy: " + name);
+        }
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void handoff_02() {
+        lock.lock();
+        try {
+            Blackhole.consumeCPU(holdTokens);
+        } finally {
+            lock.unlock();
+        }
+        Blackhole.consumeCPU(thinkTokens);
+    }
+
+}
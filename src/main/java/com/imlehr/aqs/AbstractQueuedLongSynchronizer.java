@@ -0,0 +1,192 @@
+package com.imlehr.aqs;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * state是long的同步器，和AbstractQueuedSynchronizer一模一样，只是state、arg和tryAcquireShared的返回值都是long
+ * 适合按字节算额度的信号量（几个G的内存预算int放不下），或者要在一个字里塞好几个字段的（读写锁再带上版本号之类的）
+ * 排队、条件队列、共享模式、acquireAsync都是QueuedSynchronizer里的同一份，ConditionObject也是同一个，
+ * 条件队列await的时候存下来、回来再拿回去的state是完整的64位
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+public abstract class AbstractQueuedLongSynchronizer extends QueuedSynchronizer {
+
+    protected AbstractQueuedLongSynchronizer() {
+        this(null, null);
+    }
+
+    protected AbstractQueuedLongSynchronizer(WaitStrategy waitStrategy) {
+        this(waitStrategy, null);
+    }
+
+    /**
+     * @param waitStrategy null就是默认的自适应自旋+park
+     * @param name         统计和jfr事件里用的名字，见LockMetrics
+     */
+    protected AbstractQueuedLongSynchronizer(WaitStrategy waitStrategy, String name) {
+        super(waitStrategy, name);
+    }
+
+    protected final long getState() {
+        return state;
+    }
+
+    /**
+     * 和AbstractQueuedSynchronizer.setState一样是完整的volatile写
+     */
+    protected final void setState(long newState) {
+        this.state = newState;
+    }
+
+    protected final boolean compareAndSetState(long expect, long update) {
+        return STATE.compareAndSet(this, expect, update);
+    }
+
+
+    /**
+     * 快路径只调一次tryAcquire，排队在acquireSlow里
+     *
+     * @param arg
+     */
+    public final void acquire(long arg) {
+        if (!tryAcquire(arg)) {
+            acquireSlow(arg);
+        }
+    }
+
+    public final void acquireInterruptibly(long arg) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (!tryAcquire(arg)) {
+            doAcquireInterruptibly(arg);
+        }
+    }
+
+    public final boolean tryAcquireNanos(long arg, long nanosTimeout) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        return tryAcquire(arg) || doAcquireNanos(arg, nanosTimeout);
+    }
+
+    protected boolean tryAcquire(long arg) {
+        throw new UnsupportedOperationException();
+    }
+
+    public final boolean release(long arg) {
+        if (tryRelease(arg)) {
+            signalAfterRelease();
+            return true;
+        }
+        return false;
+    }
+
+    protected boolean tryRelease(long arg) {
+        throw new UnsupportedOperationException();
+    }
+
+
+    /**
+     * 见AbstractQueuedSynchronizer.acquireAsync
+     *
+     * @param arg
+     * @param result
+     * @param executor
+     * @return
+     */
+    public final <T> CompletableFuture<T> acquireAsync(long arg, T result, Executor executor) {
+        return doAcquireAsync(arg, result, executor, false, 0L);
+    }
+
+    public final <T> CompletableFuture<T> tryAcquireAsyncNanos(long arg, T result, long nanosTimeout, Executor executor) {
+        return doAcquireAsync(arg, result, executor, true, nanosTimeout);
+    }
+
+    public final boolean releaseAsync(long arg) {
+        return releaseAsync0(arg);
+    }
+
+    protected boolean tryAcquireAsync(long arg) {
+        throw new UnsupportedOperationException();
+    }
+
+    protected boolean tryReleaseAsync(long arg) {
+        throw new UnsupportedOperationException();
+    }
+
+
+    public final void acquireShared(long arg) {
+        if (tryAcquireShared(arg) < 0) {
+            doAcquireShared(arg);
+        }
+    }
+
+    public final void acquireSharedInterruptibly(long arg) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (tryAcquireShared(arg) < 0) {
+            doAcquireSharedInterruptibly(arg);
+        }
+    }
+
+    public final boolean tryAcquireSharedNanos(long arg, long nanosTimeout) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        return tryAcquireShared(arg) >= 0 || doAcquireSharedNanos(arg, nanosTimeout);
+    }
+
+    public final boolean releaseShared(long arg) {
+        if (tryReleaseShared(arg)) {
+            doReleaseShared();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 返回值的约定和AbstractQueuedSynchronizer.tryAcquireShared一样，只看正负和是不是0
+     *
+     * @param arg
+     * @return
+     */
+    protected long tryAcquireShared(long arg) {
+        throw new UnsupportedOperationException();
+    }
+
+    protected boolean tryReleaseShared(long arg) {
+        throw new UnsupportedOperationException();
+    }
+
+
+    @Override
+    final boolean tryAcquire0(long arg) {
+        return tryAcquire(arg);
+    }
+
+    @Override
+    final boolean tryRelease0(long arg) {
+        return tryRelease(arg);
+    }
+
+    @Override
+    final long tryAcquireShared0(long arg) {
+        return tryAcquireShared(arg);
+    }
+
+    @Override
+    final boolean tryAcquireAsync0(long arg) {
+        return tryAcquireAsync(arg);
+    }
+
+    @Override
+    final boolean tryReleaseAsync0(long arg) {
+        return tryReleaseAsync(arg);
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.imlehr.aqs;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 除了阻塞的lock之外还能不占线程地拿锁的Lock，给netty这种不能把事件循环线程挂住的调用方用
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+public interface AsyncLock extends Lock {
+
+    /**
+     * 不阻塞的lock
+     * 拿到锁的时候future完成，用完了调LockHandle.unlock放锁，哪个线程调都行
+     * 和调lock()的线程排在同一个队列里，公平锁下谁也不插谁的队
+     * 排队之后被叫醒的那次尝试和future的完成都在executor上跑，放锁的线程只是往里面丢个任务
+     * 拿到之前cancel掉future就退出排队
+     *
+     * @param executor
+     * @return
+     */
+    CompletableFuture<LockHandle> lockAsync(Executor executor);
+
+    default CompletableFuture<LockHandle> lockAsync() {
+        return lockAsync(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 限时的lockAsync，超时了future完成成null，和tryLock返回false一个意思
+     *
+     * @param timeout
+     * @param unit
+     * @param executor
+     * @return
+     */
+    CompletableFuture<LockHandle> tryLockAsync(long timeout, TimeUnit unit, Executor executor);
+
+    default CompletableFuture<LockHandle> tryLockAsync(long timeout, TimeUnit unit) {
+        return tryLockAsync(timeout, unit, ForkJoinPool.commonPool());
+    }
+
+}
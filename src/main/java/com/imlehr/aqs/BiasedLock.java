@@ -0,0 +1,380 @@
+package com.imlehr.aqs;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 可以被一个线程“预订”的锁，包在ReentrantLock外面，和以前hotspot的偏向锁是一个意思
+ * 适合批量导入这种一段时间里只有一个线程在反复拿锁放锁的场景
+ * <p>
+ * 第一个拿到锁的线程放锁的时候，没人排队就把锁预订给自己（reservation）
+ * 之后它再拿锁放锁只改预订里的holds，普通写，再volatile读一下revoking（x86上就是一次普通的读），不cas也不碰底下的锁
+ * 别的线程来了先正常拿底下的锁，拿到之后看到有预订就撤销：先标revoking，再和预订的线程做一次handshake，
+ * 然后它要是还在锁里就等它出来。撤销完预订就没了，锁回到普通模式
+ * 撤销一次花了多久，就禁止重新预订它花的时间的INHIBIT_MULTIPLIER倍（和BiasedReadWriteLock一样），
+ * 抢得凶的时候基本一直是普通模式，多出来的只是放锁时候的一次判断
+ * <p>
+ * 关于handshake：预订的线程写holds之后读revoking，中间没有StoreLoad屏障，撤销的线程光靠volatile是看不准它在不在锁里的。
+ * java里没有membarrier这种东西，这里借hotspot的：取别的线程的栈要让那个线程停到安全点上（17上是一次全局安全点，
+ * 新一点的版本是只对它一个的handshake），那个线程停下来之前的写之后都看得到，回来之后的读也一定能读到之前标的revoking
+ * 所以这个依赖的是hotspot的实现，不是JMM的保证；预订的线程已经结束了就不用handshake，isAlive()返回false本身就有happens-before
+ * 撤销要停一次线程（17上是所有线程），很贵，只适合真的是一个线程独占一大段时间、偶尔才有人来抢的锁
+ * <p>
+ * 所以预订默认是关着的，要-Dcom.imlehr.aqs.biasedLocking=true，而且只在hotspot上才会打开（见ENABLED），
+ * 关着的时候从来不预订，就是一把多一层判断的ReentrantLock
+ * tryLock()不等，也不做handshake：预订的线程还活着、也还没确认自己出去了，就只标一下revoking然后返回false，
+ * 它下次拿锁放锁的时候看到了会自己退出预订，之后再来的人就不用停线程了
+ * <p>
+ * 不支持Condition：预订着的时候锁不在底下的ReentrantLock手里，await放不掉
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+public class BiasedLock implements Lock {
+
+    /**
+     * 禁止重新预订的时间是撤销耗时的多少倍
+     */
+    static final int INHIBIT_MULTIPLIER = 9;
+
+    /**
+     * 预订开没开，-Dcom.imlehr.aqs.biasedLocking=true，而且得是hotspot，别的jvm上取栈不一定会让那个线程停下来
+     */
+    static final boolean ENABLED = Boolean.getBoolean("com.imlehr.aqs.biasedLocking") && isHotSpot();
+
+    /**
+     * 撤销的线程等预订的线程出来，先转多少圈再park，单核上转了也等不到
+     */
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 1 << 10 : 0;
+
+    private static final VarHandle RESERVATION;
+
+    static {
+        try {
+            RESERVATION = MethodHandles.lookup().findVarHandle(BiasedLock.class, "reservation", Reservation.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final ReentrantLock inner;
+
+    /**
+     * 当前的预订，没有就是null；撤销之后换成null，重新预订换一个新的，旧的不会再被用起来
+     */
+    private volatile Reservation reservation;
+
+    /**
+     * 在这个时间（nanoTime）之前不许重新预订
+     */
+    private volatile long inhibitUntil;
+
+    /**
+     * 普通模式下底下的锁重入了几次，只有拿着底下的锁的线程读写，放到0的时候才考虑预订
+     */
+    private int innerHolds;
+
+    public BiasedLock() {
+        this(new ReentrantLock(false));
+    }
+
+    /**
+     * @param inner 底下真正的锁，要是新的、没人用过的
+     */
+    public BiasedLock(ReentrantLock inner) {
+        if (inner == null) {
+            throw new NullPointerException();
+        }
+        this.inner = inner;
+        //nanoTime的起点是任意的，可能是负数，不能拿0当“已经过期”
+        this.inhibitUntil = System.nanoTime();
+    }
+
+    @Override
+    public void lock() {
+        Thread current = Thread.currentThread();
+        if (tryReserved(current)) {
+            return;
+        }
+        inner.lock();
+        try {
+            acquired(current, false, -1L);
+        } catch (InterruptedException e) {
+            //不响应中断的时候不会抛
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        Thread current = Thread.currentThread();
+        if (tryReserved(current)) {
+            return;
+        }
+        inner.lockInterruptibly();
+        acquired(current, true, -1L);
+    }
+
+    /**
+     * 预订在别人手里、它还没确认自己出去了的话直接返回false，不做handshake；撤销已经标上了，它下次拿锁放锁的时候就会退出预订
+     */
+    @Override
+    public boolean tryLock() {
+        Thread current = Thread.currentThread();
+        if (tryReserved(current)) {
+            return true;
+        }
+        if (!inner.tryLock()) {
+            return false;
+        }
+        try {
+            return acquired(current, false, 0L);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 超时包括等预订的线程出来的时间
+     */
+    @Override
+    public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        Thread current = Thread.currentThread();
+        if (tryReserved(current)) {
+            return true;
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        if (!inner.tryLock(timeout, unit)) {
+            return false;
+        }
+        return acquired(current, true, Math.max(0L, deadline - System.nanoTime()));
+    }
+
+    @Override
+    public void unlock() {
+        Thread current = Thread.currentThread();
+        Reservation r = reservation;
+        if (r != null && r.owner == current && r.holds > 0) {
+            int h = r.holds - 1;
+            r.holds = h;
+            if (h == 0 && r.revoking) {
+                acknowledge(r);
+            }
+            return;
+        }
+        if (!inner.isHeldByCurrentThread()) {
+            throw new IllegalMonitorStateException();
+        }
+        if (--innerHolds == 0 && ENABLED && reservation == null && !inner.hasQueuedThreads()
+                && System.nanoTime() - inhibitUntil >= 0) {
+            //预订要在放底下的锁之前发布，下一个拿到底下的锁的人一定能看到它，然后去撤销
+            reservation = new Reservation(current);
+        }
+        inner.unlock();
+    }
+
+    @Override
+    public Condition newCondition() {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean isLocked() {
+        Reservation r = reservation;
+        return inner.isLocked() || r != null && (int) Reservation.HOLDS.getOpaque(r) > 0;
+    }
+
+    public boolean isHeldByCurrentThread() {
+        return getHoldCount() > 0;
+    }
+
+    public int getHoldCount() {
+        Thread current = Thread.currentThread();
+        Reservation r = reservation;
+        if (r != null && r.owner == current && r.holds > 0) {
+            return r.holds;
+        }
+        return inner.isHeldByCurrentThread() ? innerHolds : 0;
+    }
+
+    /**
+     * 现在是不是预订给了某个线程，监控和测试用
+     */
+    public boolean isReserved() {
+        Reservation r = reservation;
+        return r != null && !r.revoking;
+    }
+
+    /**
+     * 预订的快路径：先写holds，再看revoking
+     * 在锁里重入的时候不看revoking，撤销的线程等的就是我出去，这里不让进就死锁了
+     * 没在锁里又看到了revoking，就把holds改回去，告诉撤销的线程我不会进来了，去走底下的锁
+     */
+    private boolean tryReserved(Thread current) {
+        Reservation r = reservation;
+        if (r == null || r.owner != current) {
+            return false;
+        }
+        int h = r.holds;
+        if (h == Integer.MAX_VALUE) {
+            throw new Error("Maximum lock count exceeded");
+        }
+        r.holds = h + 1;
+        if (h > 0 || !r.revoking) {
+            return true;
+        }
+        r.holds = 0;
+        acknowledge(r);
+        return false;
+    }
+
+    /**
+     * 拿到底下的锁之后调：有预订就先撤销，撤销不成（超时、中断、tryLock不等）就把底下的锁放掉
+     *
+     * @param nanos 最多等预订的线程多久，负数是一直等，0是不等
+     */
+    private boolean acquired(Thread current, boolean interruptible, long nanos) throws InterruptedException {
+        Reservation r = reservation;
+        if (r != null) {
+            boolean ok = false;
+            try {
+                ok = revoke(r, current, interruptible, nanos);
+            } finally {
+                if (!ok) {
+                    inner.unlock();
+                }
+            }
+            if (!ok) {
+                return false;
+            }
+        }
+        innerHolds++;
+        return true;
+    }
+
+    /**
+     * 拿着底下的锁调，所以同一时间只有一个线程在撤销
+     * 预订是自己的（自己走了慢路径）就不用handshake，直接清掉
+     */
+    private boolean revoke(Reservation r, Thread current, boolean interruptible, long nanos) throws InterruptedException {
+        if (r.owner == current) {
+            r.revoking = true;
+            RESERVATION.compareAndSet(this, r, null);
+            return true;
+        }
+        long start = System.nanoTime();
+        //先登记自己再标revoking，预订的线程看到revoking之后一定能找到要叫醒谁
+        r.revoker = current;
+        r.revoking = true;
+        if (!r.released && r.owner.isAlive()) {
+            if (nanos == 0L) {
+                //tryLock()不为了试一下就停一次线程，等预订的线程自己确认
+                return false;
+            }
+            handshake(r.owner);
+        }
+        boolean interrupted = false;
+        try {
+            for (int spins = 0; !r.released && (int) Reservation.HOLDS.getOpaque(r) > 0; spins++) {
+                if (spins < SPINS) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                long remaining = 0L;
+                if (nanos >= 0 && (remaining = nanos - (System.nanoTime() - start)) <= 0) {
+                    return false;
+                }
+                if (nanos < 0) {
+                    LockSupport.park(this);
+                } else {
+                    LockSupport.parkNanos(this, remaining);
+                }
+                if (Thread.interrupted()) {
+                    if (interruptible) {
+                        throw new InterruptedException();
+                    }
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (RESERVATION.compareAndSet(this, r, null)) {
+            long now = System.nanoTime();
+            inhibitUntil = now + (now - start) * INHIBIT_MULTIPLIER;
+        }
+        return true;
+    }
+
+    /**
+     * 让预订的线程停一下，做完之后：它停之前写的holds我都看得到，它回来之后再读revoking一定是true
+     * 线程停在safepoint/handshake上的时候要过一道完整的屏障，这是hotspot的实现细节
+     */
+    private static void handshake(Thread owner) {
+        owner.getStackTrace();
+    }
+
+    private static boolean isHotSpot() {
+        String vm = System.getProperty("java.vm.name", "");
+        return vm.contains("HotSpot") || vm.contains("OpenJDK");
+    }
+
+    /**
+     * 预订的线程出来了（或者看到revoking没进去），告诉撤销的线程
+     * released和revoker都是volatile，这边先写released再读revoker，撤销的那边先写revoker再读released，至少有一边能看到对方
+     */
+    private static void acknowledge(Reservation r) {
+        r.released = true;
+        Thread w = r.revoker;
+        if (w != null) {
+            LockSupport.unpark(w);
+        }
+    }
+
+    /**
+     * 一次预订
+     * holds只有owner自己写，普通写；撤销的线程在handshake之后用opaque读
+     */
+    static final class Reservation {
+
+        static final VarHandle HOLDS;
+
+        static {
+            try {
+                HOLDS = MethodHandles.lookup().findVarHandle(Reservation.class, "holds", int.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        final Thread owner;
+        int holds;
+        /**
+         * 有人要撤销，标上之后就不会再清
+         */
+        volatile boolean revoking;
+        /**
+         * owner确认自己不在锁里、也不会再从快路径进来了
+         */
+        volatile boolean released;
+        /**
+         * 在等owner出来的线程
+         */
+        volatile Thread revoker;
+
+        Reservation(Thread owner) {
+            this.owner = owner;
+        }
+    }
+
+}
@@ -0,0 +1,422 @@
+package com.imlehr.aqs;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+
+/**
+ * 偏向读的读写锁，BRAVO那一套（Dice &amp; Kogan, "BRAVO: Biased Locking for Reader-Writer Locks"）
+ * 包在ReentrantReadWriteLock外面
+ * <p>
+ * 普通的读写锁每个读线程都要cas同一个state，核一多那个缓存行就在各个核之间来回跑，读再多也扩展不上去
+ * 这里偏向打开（readBias）的时候，读线程不碰state，只在自己那个槽里登记一下（每个槽单独占一个缓存行），
+ * 然后再确认一下偏向还开着就算拿到了
+ * 写线程先拿底下的写锁，再把偏向关掉，然后扫一遍所有的槽，等登记过的读线程都走了才算拿到
+ * 关偏向之后读线程都走底下的读写锁。撤销一次偏向花了多久，就禁止重新打开它花的时间的INHIBIT_MULTIPLIER倍，
+ * 写得频繁的时候偏向基本一直关着，和普通读写锁一样；写得少了，下一个走慢路径的读线程会把偏向重新打开
+ * <p>
+ * 槽是按线程哈希的，两个线程撞到同一个槽上，后来的那个就走慢路径，不影响正确性
+ * 一把锁的槽表大概是 核数*4*128 字节，适合配置缓存这种少量、长期存在、读得特别多的锁
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+public class BiasedReadWriteLock implements ReadWriteLock {
+
+    /**
+     * 禁止重新偏向的时间是撤销耗时的多少倍，论文里用的是9，也就是写线程撤销的开销最多占10%
+     */
+    static final int INHIBIT_MULTIPLIER = 9;
+
+    /**
+     * 每个槽之间隔多少个数组元素，保证两个槽不在同一个缓存行（按128字节算，带上相邻行预取）
+     */
+    private static final int SLOT_STRIDE = 32;
+
+    private static final VarHandle READERS = MethodHandles.arrayElementVarHandle(Thread[].class);
+
+    private final ReentrantReadWriteLock rw;
+
+    private final ReadLock readerLock;
+
+    private final WriteLock writerLock;
+
+    /**
+     * 偏向开着的时候读线程走槽表
+     */
+    private volatile boolean readBias = true;
+
+    /**
+     * 在这个时间（nanoTime）之前不许重新打开偏向
+     */
+    private volatile long inhibitUntil;
+
+    /**
+     * 登记在槽上的读线程，只有下标是SLOT_STRIDE倍数的位置用到
+     */
+    private final Thread[] readers;
+
+    /**
+     * 槽上的线程又重入了几次（不算第一次），只有槽上那个线程自己读写
+     */
+    private final int[] reentries;
+
+    private final int slotMask;
+
+    public BiasedReadWriteLock() {
+        this(false);
+    }
+
+    public BiasedReadWriteLock(boolean fair) {
+        this(new ReentrantReadWriteLock(fair));
+    }
+
+    /**
+     * @param rw 底下真正的读写锁，要是新的、没人用过的
+     */
+    public BiasedReadWriteLock(ReentrantReadWriteLock rw) {
+        this.rw = rw;
+        //nanoTime可能是负的，不能拿0当初始值
+        this.inhibitUntil = System.nanoTime();
+        int slots = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 4 - 1)) << 1;
+        this.slotMask = slots - 1;
+        this.readers = new Thread[slots * SLOT_STRIDE];
+        this.reentries = new int[slots * SLOT_STRIDE];
+        this.readerLock = new ReadLock();
+        this.writerLock = new WriteLock();
+    }
+
+    @Override
+    public Lock readLock() {
+        return readerLock;
+    }
+
+    @Override
+    public Lock writeLock() {
+        return writerLock;
+    }
+
+    public boolean isReadBiased() {
+        return readBias;
+    }
+
+    /**
+     * 当前线程对应的槽在数组里的下标
+     */
+    private int slotOf(Thread t) {
+        //线程id乘黄金分割常数打散，同一个线程每次都落在同一个槽
+        int h = (int) (t.getId() * 0x9E3779B97F4A7C15L >>> 32);
+        return (h & slotMask) * SLOT_STRIDE;
+    }
+
+    /**
+     * 读锁快路径，偏向开着而且槽是空的才成功
+     */
+    private boolean tryFastRead(Thread current) {
+        int i = slotOf(current);
+        Thread occupant = (Thread) READERS.getVolatile(readers, i);
+        if (occupant == current) {
+            //已经拿着快路径的读锁了，重入。写线程要是在等，等的就是这个槽，所以这里不能去走慢路径，不然互相等死
+            reentries[i]++;
+            return true;
+        }
+        if (occupant == null && readBias && READERS.compareAndSet(readers, i, null, current)) {
+            //先登记再看偏向，写线程是先关偏向再扫槽，两边都是volatile，至少有一边能看到对方
+            if (readBias) {
+                return true;
+            }
+            READERS.setVolatile(readers, i, null);
+        }
+        return false;
+    }
+
+    /**
+     * 慢路径拿到读锁之后看看要不要把偏向重新打开
+     * 自己拿着写锁（降级）的时候不能开，不然别的读线程会绕过写锁进来
+     */
+    private void maybeRebias() {
+        if (!readBias && System.nanoTime() - inhibitUntil >= 0 && !rw.isWriteLockedByCurrentThread()) {
+            readBias = true;
+        }
+    }
+
+    /**
+     * 拿到写锁之后把偏向关掉，等槽上的读线程都走掉
+     * 关掉之后新的读线程都会去走慢路径被写锁挡住，所以只需要等已经登记了的那些
+     * 等不到（超时、中断、tryLock不等）就把偏向恢复回去，写锁由调用的人放掉
+     * 拿着快路径读锁的线程自己来拿写锁的时候等的就是自己的槽，只有一直等的lock()会死锁，和升级一样不支持
+     *
+     * @param nanos 最多等读线程多久，负数是一直等，0是只看一遍
+     */
+    private boolean revokeBias(boolean interruptible, long nanos) throws InterruptedException {
+        if (!readBias) {
+            return true;
+        }
+        readBias = false;
+        long start = System.nanoTime();
+        boolean revoked = false;
+        try {
+            for (int i = 0; i < readers.length; i += SLOT_STRIDE) {
+                for (int spins = 0; READERS.getVolatile(readers, i) != null; spins++) {
+                    if (nanos == 0L) {
+                        return false;
+                    }
+                    if ((spins & 1023) == 1023) {
+                        if (interruptible && Thread.interrupted()) {
+                            throw new InterruptedException();
+                        }
+                        if (nanos > 0L && System.nanoTime() - start >= nanos) {
+                            return false;
+                        }
+                        //读线程拿着锁干的活比较长，别一直占着cpu
+                        Thread.yield();
+                    } else {
+                        Thread.onSpinWait();
+                    }
+                }
+            }
+            revoked = true;
+        } finally {
+            if (!revoked) {
+                //写锁还在自己手里，没有别的写线程会同时改偏向
+                readBias = true;
+            }
+        }
+        long now = System.nanoTime();
+        inhibitUntil = now + (now - start) * INHIBIT_MULTIPLIER;
+        return true;
+    }
+
+    /**
+     * 拿到底下的写锁之后调，撤销不成就把写锁放掉
+     */
+    private boolean writeAcquired(boolean interruptible, long nanos) throws InterruptedException {
+        boolean ok = false;
+        try {
+            ok = revokeBias(interruptible, nanos);
+        } finally {
+            if (!ok) {
+                rw.writeLock().unlock();
+            }
+        }
+        return ok;
+    }
+
+    /**
+     * 没拿着写锁就去await的话会抛IllegalMonitorStateException，这时候不能去撤销
+     * 从await回来一定拿着写锁，只能一直等
+     */
+    private void revokeIfOwner() {
+        if (rw.isWriteLockedByCurrentThread()) {
+            try {
+                revokeBias(false, -1L);
+            } catch (InterruptedException e) {
+                //不响应中断的时候不会抛
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private void readUnlock() {
+        Thread current = Thread.currentThread();
+        int i = slotOf(current);
+        if (READERS.getVolatile(readers, i) == current) {
+            if (reentries[i] > 0) {
+                reentries[i]--;
+            } else {
+                READERS.setVolatile(readers, i, null);
+            }
+            return;
+        }
+        rw.readLock().unlock();
+    }
+
+
+    final class ReadLock implements Lock {
+
+        @Override
+        public void lock() {
+            if (!tryFastRead(Thread.currentThread())) {
+                rw.readLock().lock();
+                maybeRebias();
+            }
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (!tryFastRead(Thread.currentThread())) {
+                rw.readLock().lockInterruptibly();
+                maybeRebias();
+            }
+        }
+
+        @Override
+        public boolean tryLock() {
+            if (tryFastRead(Thread.currentThread())) {
+                return true;
+            }
+            if (rw.readLock().tryLock()) {
+                maybeRebias();
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (tryFastRead(Thread.currentThread())) {
+                return true;
+            }
+            if (rw.readLock().tryLock(timeout, unit)) {
+                maybeRebias();
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void unlock() {
+            readUnlock();
+        }
+
+        @Override
+        public Condition newCondition() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    final class WriteLock implements Lock {
+
+        @Override
+        public void lock() {
+            rw.writeLock().lock();
+            try {
+                writeAcquired(false, -1L);
+            } catch (InterruptedException e) {
+                //不响应中断的时候不会抛
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            rw.writeLock().lockInterruptibly();
+            writeAcquired(true, -1L);
+        }
+
+        /**
+         * 槽上还有读线程就直接返回false，不等它们走
+         */
+        @Override
+        public boolean tryLock() {
+            if (!rw.writeLock().tryLock()) {
+                return false;
+            }
+            try {
+                return writeAcquired(false, 0L);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * 超时包括等槽上的读线程走掉的时间
+         */
+        @Override
+        public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            if (!rw.writeLock().tryLock(timeout, unit)) {
+                return false;
+            }
+            //剩下的时间用完了也至少看一遍槽
+            return writeAcquired(true, Math.max(0L, deadline - System.nanoTime()));
+        }
+
+        @Override
+        public void unlock() {
+            rw.writeLock().unlock();
+        }
+
+        @Override
+        public Condition newCondition() {
+            return new WriteCondition(rw.writeLock().newCondition());
+        }
+    }
+
+    /**
+     * await的时候写锁被彻底放掉，期间慢路径的读线程可能把偏向打开了
+     * 所以每次从await回来（不管正常还是异常，回来的时候一定重新拿着写锁）都要再撤销一次
+     */
+    final class WriteCondition implements Condition {
+
+        private final Condition condition;
+
+        WriteCondition(Condition condition) {
+            this.condition = condition;
+        }
+
+        @Override
+        public void await() throws InterruptedException {
+            try {
+                condition.await();
+            } finally {
+                revokeIfOwner();
+            }
+        }
+
+        @Override
+        public void awaitUninterruptibly() {
+            try {
+                condition.awaitUninterruptibly();
+            } finally {
+                revokeIfOwner();
+            }
+        }
+
+        @Override
+        public long awaitNanos(long nanosTimeout) throws InterruptedException {
+            try {
+                return condition.awaitNanos(nanosTimeout);
+            } finally {
+                revokeIfOwner();
+            }
+        }
+
+        @Override
+        public boolean await(long time, TimeUnit unit) throws InterruptedException {
+            try {
+                return condition.await(time, unit);
+            } finally {
+                revokeIfOwner();
+            }
+        }
+
+        @Override
+        public boolean awaitUntil(Date deadline) throws InterruptedException {
+            try {
+                return condition.awaitUntil(deadline);
+            } finally {
+                revokeIfOwner();
+            }
+        }
+
+        @Override
+        public void signal() {
+            condition.signal();
+        }
+
+        @Override
+        public void signalAll() {
+            condition.signalAll();
+        }
+    }
+
+}
@@ -0,0 +1,139 @@
+package com.imlehr.aqs;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CohortLock用来决定一个线程属于哪个簇，同一个簇的线程之间交接锁便宜，跨簇贵
+ * 返回值会对簇的个数取模，所以不用管范围
+ * <p>
+ * 只是性能上的提示，分错了锁照样是对的，只是批量交接省不到东西
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+public interface ClusterMapper {
+
+    /**
+     * 每次lock都会调，要便宜
+     *
+     * @param thread 总是当前线程
+     * @return
+     */
+    int clusterOf(Thread thread);
+
+    /**
+     * 按线程所在cpu的socket（physical_package_id）分
+     * 每个线程第一次用的时候读一次/proc/thread-self/stat里的cpu号，之后一直用这个，
+     * 所以适合用taskset/numactl绑过核的线程；没绑核的线程被调度到别的socket上去也不会更新
+     * 不是linux或者读不到就都算0号簇
+     *
+     * @return
+     */
+    static ClusterMapper byCpu() {
+        ThreadLocal<Integer> cached = ThreadLocal.withInitial(Topology::currentSocket);
+        return thread -> cached.get();
+    }
+
+    /**
+     * 按线程组分，同一个线程组的线程一个簇，线程组按第一次出现的顺序编号
+     * 一个线程组对应一个线程池的时候好用
+     *
+     * @return
+     */
+    static ClusterMapper byThreadGroup() {
+        Map<ThreadGroup, Integer> ids = new WeakHashMap<>();
+        ThreadLocal<Integer> cached = ThreadLocal.withInitial(() -> {
+            ThreadGroup g = Thread.currentThread().getThreadGroup();
+            synchronized (ids) {
+                return ids.computeIfAbsent(g, k -> ids.size());
+            }
+        });
+        return thread -> cached.get();
+    }
+
+    /**
+     * 显式指定，测试和benchmark里用，不依赖机器的拓扑
+     *
+     * @return
+     */
+    static Explicit explicit() {
+        return new Explicit();
+    }
+
+    /**
+     * 没assign过的线程算0号簇
+     * 表里拿着Thread的强引用，线程不用了要unassign
+     */
+    final class Explicit implements ClusterMapper {
+
+        private final ConcurrentHashMap<Thread, Integer> clusters = new ConcurrentHashMap<>();
+
+        private Explicit() {
+        }
+
+        public Explicit assign(Thread thread, int cluster) {
+            clusters.put(thread, cluster);
+            return this;
+        }
+
+        public void unassign(Thread thread) {
+            clusters.remove(thread);
+        }
+
+        @Override
+        public int clusterOf(Thread thread) {
+            return clusters.getOrDefault(thread, 0);
+        }
+    }
+
+    /**
+     * 读linux的/proc和/sys
+     */
+    final class Topology {
+
+        private Topology() {
+        }
+
+        /**
+         * 机器上有几个socket，CohortLock按cpu分簇的时候用这个当簇数，读不到就是1
+         *
+         * @return
+         */
+        public static int socketCount() {
+            int max = -1;
+            int ncpu = Runtime.getRuntime().availableProcessors();
+            for (int cpu = 0; cpu < ncpu; cpu++) {
+                max = Math.max(max, socketOf(cpu));
+            }
+            return Math.max(1, max + 1);
+        }
+
+        static int currentSocket() {
+            try {
+                String stat = new String(Files.readAllBytes(Paths.get("/proc/thread-self/stat")), StandardCharsets.US_ASCII);
+                //第二个字段是括号括起来的线程名，里面可能有空格，从最后一个')'后面开始数；cpu号是第39个字段
+                String[] fields = stat.substring(stat.lastIndexOf(')') + 2).trim().split(" ");
+                return Math.max(0, socketOf(Integer.parseInt(fields[39 - 3])));
+            } catch (IOException | RuntimeException e) {
+                return 0;
+            }
+        }
+
+        private static int socketOf(int cpu) {
+            Path p = Paths.get("/sys/devices/system/cpu/cpu" + cpu + "/topology/physical_package_id");
+            try {
+                return Integer.parseInt(new String(Files.readAllBytes(p), StandardCharsets.US_ASCII).trim());
+            } catch (IOException | RuntimeException e) {
+                return -1;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,342 @@
+package com.imlehr.aqs;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+
+/**
+ * 分层的cohort锁：一把全局锁，加上每个簇（一般是一个socket）一把本地锁，可重入
+ * 拿锁先拿自己簇的本地锁，再拿全局锁；放锁的时候本簇还有人在等，就只放本地锁，全局锁连同数据所在的缓存行一起留在这个簇里，
+ * 交给下一个本簇的人，最多连续交batchLimit次，然后老老实实放全局锁让别的簇进来
+ * 跨socket交接一次比socket内贵好几倍，batchLimit越大省得越多，别的簇等得越久
+ * <p>
+ * 全局锁和本地锁都是不认持有者的AQS互斥量：全局锁是簇里的A拿的，可能是簇里的B放的
+ * 全局锁是公平的，簇和簇之间按先来后到；本地锁非公平，同簇新来的线程插进来也算在这一批里
+ * <p>
+ * 线程属于哪个簇由ClusterMapper决定（按cpu、按线程组或者显式指定）
+ * 不支持Condition
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+public class CohortLock implements Lock {
+
+    /**
+     * 全局锁留在一个簇里最多连续交接多少次
+     * -Dcom.imlehr.aqs.cohortBatch=...
+     */
+    static final int DEFAULT_BATCH_LIMIT = Math.max(1, Integer.getInteger("com.imlehr.aqs.cohortBatch", 64));
+
+    private final Mutex global = new Mutex(true);
+
+    private final Cohort[] cohorts;
+
+    private final ClusterMapper mapper;
+
+    private final int batchLimit;
+
+    /**
+     * 下面三个只有持锁线程读写
+     * cohort：持锁线程是从哪个簇进来的，放锁的时候要知道放哪个本地锁
+     */
+    private Cohort cohort;
+    private Thread owner;
+    private int holds;
+
+    /**
+     * 按cpu所在的socket分簇
+     */
+    public CohortLock() {
+        this(ClusterMapper.byCpu(), ClusterMapper.Topology.socketCount(), DEFAULT_BATCH_LIMIT);
+    }
+
+    public CohortLock(ClusterMapper mapper, int clusters) {
+        this(mapper, clusters, DEFAULT_BATCH_LIMIT);
+    }
+
+    /**
+     * @param mapper
+     * @param clusters   簇的个数，mapper返回的值对它取模
+     * @param batchLimit 全局锁在一个簇里连续交接的上限，1就是每次都放全局锁（相当于两层都排一次队）
+     */
+    public CohortLock(ClusterMapper mapper, int clusters, int batchLimit) {
+        if (mapper == null) {
+            throw new NullPointerException();
+        }
+        if (clusters < 1 || batchLimit < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.mapper = mapper;
+        this.batchLimit = batchLimit;
+        this.cohorts = new Cohort[clusters];
+        for (int i = 0; i < clusters; i++) {
+            cohorts[i] = new Cohort();
+        }
+    }
+
+    @Override
+    public void lock() {
+        Thread current = Thread.currentThread();
+        if (owner == current) {
+            reenter();
+            return;
+        }
+        Cohort c = cohortOf(current);
+        if (!c.local.tryAcquire(1)) {
+            c.enter();
+            try {
+                c.local.acquire(1);
+            } finally {
+                c.leave();
+            }
+        }
+        if (!c.ownsGlobal) {
+            global.acquire(1);
+        }
+        acquired(current, c);
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        Thread current = Thread.currentThread();
+        if (owner == current) {
+            reenter();
+            return;
+        }
+        Cohort c = cohortOf(current);
+        if (!c.local.tryAcquire(1)) {
+            c.enter();
+            boolean ok = false;
+            try {
+                c.local.acquireInterruptibly(1);
+                ok = true;
+            } finally {
+                c.leave();
+                if (!ok) {
+                    releaseOrphaned(c);
+                }
+            }
+        }
+        if (!c.ownsGlobal) {
+            try {
+                global.acquireInterruptibly(1);
+            } catch (InterruptedException e) {
+                c.local.release(1);
+                throw e;
+            }
+        }
+        acquired(current, c);
+    }
+
+    @Override
+    public boolean tryLock() {
+        Thread current = Thread.currentThread();
+        if (owner == current) {
+            reenter();
+            return true;
+        }
+        Cohort c = cohortOf(current);
+        if (!c.local.tryAcquire(1)) {
+            return false;
+        }
+        if (!c.ownsGlobal && !global.tryAcquire(1)) {
+            c.local.release(1);
+            return false;
+        }
+        acquired(current, c);
+        return true;
+    }
+
+    @Override
+    public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        Thread current = Thread.currentThread();
+        if (owner == current) {
+            reenter();
+            return true;
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        Cohort c = cohortOf(current);
+        if (!c.local.tryAcquire(1)) {
+            c.enter();
+            boolean ok = false;
+            try {
+                ok = c.local.tryAcquireNanos(1, deadline - System.nanoTime());
+            } finally {
+                c.leave();
+                if (!ok) {
+                    releaseOrphaned(c);
+                }
+            }
+            if (!ok) {
+                return false;
+            }
+        }
+        if (!c.ownsGlobal) {
+            boolean ok = false;
+            try {
+                ok = global.tryAcquireNanos(1, deadline - System.nanoTime());
+            } finally {
+                if (!ok) {
+                    c.local.release(1);
+                }
+            }
+            if (!ok) {
+                return false;
+            }
+        }
+        acquired(current, c);
+        return true;
+    }
+
+    @Override
+    public void unlock() {
+        if (owner != Thread.currentThread()) {
+            throw new IllegalMonitorStateException();
+        }
+        if (--holds > 0) {
+            return;
+        }
+        Cohort c = cohort;
+        cohort = null;
+        owner = null;
+        if (c.batch < batchLimit && c.waiting > 0) {
+            //本簇还有人在等，全局锁留着，只放本地锁
+            c.batch++;
+            c.ownsGlobal = true;
+            c.local.release(1);
+            //等的那个人可能正好超时走了，它走之前没抢到本地锁（我还拿着），这里再看一眼，不然全局锁就没人放了
+            //它那边是先减waiting再抢本地锁，我这边是先放本地锁再读waiting，两边总有一边能看到对方
+            if (c.waiting == 0) {
+                releaseOrphaned(c);
+            }
+        } else {
+            releaseGlobal(c);
+        }
+    }
+
+    @Override
+    public Condition newCondition() {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean isLocked() {
+        return global.isLocked();
+    }
+
+    public boolean isHeldByCurrentThread() {
+        return owner == Thread.currentThread();
+    }
+
+    public int getHoldCount() {
+        return owner == Thread.currentThread() ? holds : 0;
+    }
+
+    private Cohort cohortOf(Thread current) {
+        return cohorts[Math.floorMod(mapper.clusterOf(current), cohorts.length)];
+    }
+
+    private void reenter() {
+        if (holds == Integer.MAX_VALUE) {
+            throw new Error("Maximum lock count exceeded");
+        }
+        holds++;
+    }
+
+    private void acquired(Thread current, Cohort c) {
+        cohort = c;
+        owner = current;
+        holds = 1;
+    }
+
+    /**
+     * 拿着本地锁调：全局锁还回去，再放本地锁
+     * ownsGlobal要在放本地锁之前清掉，下一个拿到本地锁的人才不会以为全局锁还在本簇手里
+     */
+    private void releaseGlobal(Cohort c) {
+        c.batch = 0;
+        c.ownsGlobal = false;
+        global.release(1);
+        c.local.release(1);
+    }
+
+    /**
+     * 全局锁留给了本簇，但是本簇可能已经没人来接了：在本地锁上排队的人放弃了（超时/中断），或者放锁的时候看到的那个等的人走了
+     * 本地锁现在没人拿着的话抢过来看一眼，全局锁还在本簇手里就还回去；已经被后面的人还掉了（别的簇可能都拿到了）就什么也不做
+     * 抢不到说明有别人拿着本地锁，全局锁归它管
+     */
+    private void releaseOrphaned(Cohort c) {
+        if (c.local.tryAcquire(1)) {
+            if (c.ownsGlobal) {
+                releaseGlobal(c);
+            } else {
+                c.local.release(1);
+            }
+        }
+    }
+
+    /**
+     * 一个簇的本地状态
+     * ownsGlobal、batch只有拿着本地锁的线程读写，本地锁的acquire/release负责可见性
+     * waiting：在本地锁上排队（或者马上要排）的线程数，放锁的人靠它决定要不要留着全局锁
+     */
+    static final class Cohort {
+
+        private static final VarHandle WAITING;
+
+        static {
+            try {
+                WAITING = MethodHandles.lookup().findVarHandle(Cohort.class, "waiting", int.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        final Mutex local = new Mutex(false);
+        boolean ownsGlobal;
+        int batch;
+        volatile int waiting;
+
+        void enter() {
+            WAITING.getAndAdd(this, 1);
+        }
+
+        void leave() {
+            WAITING.getAndAdd(this, -1);
+        }
+    }
+
+    /**
+     * 不可重入、不记持有者的互斥量，谁都能放
+     */
+    static final class Mutex extends AbstractQueuedSynchronizer {
+
+        private final boolean fair;
+
+        Mutex(boolean fair) {
+            this.fair = fair;
+        }
+
+        @Override
+        protected boolean tryAcquire(int arg) {
+            return (!fair || !hasQueuedPredecessors()) && compareAndSetState(0, 1);
+        }
+
+        @Override
+        protected boolean tryRelease(int arg) {
+            setState(0);
+            return true;
+        }
+
+        boolean isLocked() {
+            return getState() != 0;
+        }
+    }
+
+}
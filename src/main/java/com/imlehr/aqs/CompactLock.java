@@ -0,0 +1,250 @@
+package com.imlehr.aqs;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+
+/**
+ * 一个long大小的可重入锁，给几千万行数据每行一把锁这种场景用
+ * ReentrantLock连外面的壳带Sync对象要80字节（见LockFootprint），这个锁对象只有对象头加一个long，24字节
+ * 排队的线程不挂在锁上，挂在全局的ParkingLot里，只有竞争的时候才有等待节点
+ * <p>
+ * state（long）的布局：
+ * 第0位PARKED：ParkingLot里有人在等这把锁，放锁的时候要去叫醒
+ * 第1到15位：重入次数
+ * 第16位往上：持锁线程的id，0表示没人拿着
+ * <p>
+ * 非公平：被叫醒的线程要和新来的线程重新抢，抢不到就接着睡
+ * 不支持Condition，要等待/通知的话用ReentrantLock
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+public class CompactLock implements Lock {
+
+    private static final long PARKED = 1L;
+    private static final long COUNT_UNIT = 1L << 1;
+    private static final long COUNT_MASK = 0x7FFFL << 1;
+    private static final int OWNER_SHIFT = 16;
+
+    /**
+     * 没人在等的时候先自旋几圈再去ParkingLot，单核上不转
+     */
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 64 : 0;
+
+    private static final VarHandle STATE;
+
+    static {
+        try {
+            STATE = MethodHandles.lookup().findVarHandle(CompactLock.class, "state", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private volatile long state;
+
+    /**
+     * 在桶锁里放锁，这时候别人没法在这把锁上新排队，PARKED按队列里还剩没剩人来设
+     * 不捕获任何东西，jvm只会创建一个实例，竞争时放锁不分配
+     */
+    private static final ParkingLot.UnparkCallback RELEASE =
+            (key, unparked, hasMore) -> ((CompactLock) key).state = hasMore ? PARKED : 0L;
+
+    private static long ownerBits(Thread t) {
+        return t.getId() << OWNER_SHIFT;
+    }
+
+    @Override
+    public void lock() {
+        long me = ownerBits(Thread.currentThread());
+        if (!STATE.compareAndSet(this, 0L, me | COUNT_UNIT)) {
+            try {
+                acquireSlow(me, false, false, 0L);
+            } catch (InterruptedException e) {
+                //不可中断的时候不会抛
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        long me = ownerBits(Thread.currentThread());
+        if (!STATE.compareAndSet(this, 0L, me | COUNT_UNIT)) {
+            acquireSlow(me, true, false, 0L);
+        }
+    }
+
+    @Override
+    public boolean tryLock() {
+        long me = ownerBits(Thread.currentThread());
+        for (; ; ) {
+            long s = state;
+            if ((s >>> OWNER_SHIFT) == 0L) {
+                if (STATE.compareAndSet(this, s, s | me | COUNT_UNIT)) {
+                    return true;
+                }
+            } else if ((s & ~(COUNT_MASK | PARKED)) == me) {
+                if (STATE.compareAndSet(this, s, reentered(s))) {
+                    return true;
+                }
+            } else {
+                return false;
+            }
+        }
+    }
+
+    @Override
+    public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        long me = ownerBits(Thread.currentThread());
+        if (STATE.compareAndSet(this, 0L, me | COUNT_UNIT)) {
+            return true;
+        }
+        long nanos = unit.toNanos(timeout);
+        return acquireSlow(me, true, true, System.nanoTime() + nanos);
+    }
+
+    /**
+     * @param me            ownerBits(当前线程)
+     * @param interruptible 被中断了是抛异常还是记下来接着等
+     * @param timed
+     * @param deadline
+     * @return 超时返回false
+     */
+    private boolean acquireSlow(long me, boolean interruptible, boolean timed, long deadline) throws InterruptedException {
+        boolean interrupted = false;
+        try {
+            for (int spins = 0; ; ) {
+                long s = state;
+                if ((s >>> OWNER_SHIFT) == 0L) {
+                    //PARKED保留，别的线程还在等
+                    if (STATE.compareAndSet(this, s, s | me | COUNT_UNIT)) {
+                        return true;
+                    }
+                    continue;
+                }
+                if ((s & ~(COUNT_MASK | PARKED)) == me) {
+                    if (STATE.compareAndSet(this, s, reentered(s))) {
+                        return true;
+                    }
+                    continue;
+                }
+                if (timed && deadline - System.nanoTime() <= 0L) {
+                    return false;
+                }
+                if ((s & PARKED) == 0L) {
+                    if (spins < SPINS) {
+                        spins++;
+                        Thread.onSpinWait();
+                        continue;
+                    }
+                    if (!STATE.compareAndSet(this, s, s | PARKED)) {
+                        continue;
+                    }
+                }
+                int r = ParkingLot.park(this, this::shouldPark, this::clearParked, timed, deadline);
+                if (r == ParkingLot.INTERRUPTED) {
+                    if (interruptible) {
+                        throw new InterruptedException();
+                    }
+                    interrupted = true;
+                } else if (r == ParkingLot.TIMED_OUT) {
+                    return false;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static long reentered(long s) {
+        if ((s & COUNT_MASK) == COUNT_MASK) {
+            throw new Error("Maximum lock count exceeded");
+        }
+        return s + COUNT_UNIT;
+    }
+
+    /**
+     * 在桶锁里调：锁还被人拿着，而且PARKED还在（放锁的人会来ParkingLot叫醒）才去睡
+     */
+    private boolean shouldPark() {
+        long s = state;
+        return (s & PARKED) != 0L && (s >>> OWNER_SHIFT) != 0L;
+    }
+
+    /**
+     * 在桶锁里调：最后一个等的线程超时/中断走了
+     */
+    private void clearParked() {
+        long s;
+        do {
+            s = state;
+        } while ((s & PARKED) != 0L && !STATE.compareAndSet(this, s, s & ~PARKED));
+    }
+
+    @Override
+    public void unlock() {
+        long me = ownerBits(Thread.currentThread());
+        //快路径：只重入了一次而且没人在等
+        if (STATE.compareAndSet(this, me | COUNT_UNIT, 0L)) {
+            return;
+        }
+        for (; ; ) {
+            long s = state;
+            if ((s & ~(COUNT_MASK | PARKED)) != me) {
+                throw new IllegalMonitorStateException();
+            }
+            if ((s & COUNT_MASK) != COUNT_UNIT) {
+                if (STATE.compareAndSet(this, s, s - COUNT_UNIT)) {
+                    return;
+                }
+            } else if ((s & PARKED) == 0L) {
+                if (STATE.compareAndSet(this, s, 0L)) {
+                    return;
+                }
+            } else {
+                ParkingLot.unparkOne(this, RELEASE);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 不支持，需要Condition的话用ReentrantLock
+     */
+    @Override
+    public Condition newCondition() {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean isLocked() {
+        return (state >>> OWNER_SHIFT) != 0L;
+    }
+
+    public boolean isHeldByCurrentThread() {
+        return (state & ~(COUNT_MASK | PARKED)) == ownerBits(Thread.currentThread());
+    }
+
+    public int getHoldCount() {
+        long s = state;
+        return (s & ~(COUNT_MASK | PARKED)) == ownerBits(Thread.currentThread()) ? (int) ((s & COUNT_MASK) >>> 1) : 0;
+    }
+
+    /**
+     * 有没有线程在ParkingLot里等这把锁
+     */
+    public boolean hasQueuedThreads() {
+        return (state & PARKED) != 0L && ParkingLot.hasParked(this);
+    }
+
+}
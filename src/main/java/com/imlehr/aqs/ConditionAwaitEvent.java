@@ -0,0 +1,50 @@
+package com.imlehr.aqs;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * Condition.await的jfr事件，相当于Object.wait的jdk.JavaMonitorWait
+ * 持续时间包括被唤醒之后重新拿锁的时间，也就是从await进去到从await出来
+ * 阈值和LockWaitEvent一样可以在录制配置里改
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+@Name("com.imlehr.aqs.ConditionAwait")
+@Label("AQS Condition Await")
+@Category({"Java Application", "Locks"})
+@Description("Thread waited on a condition of a com.imlehr.aqs synchronizer")
+@StackTrace(true)
+@Threshold("20 us")
+final class ConditionAwaitEvent extends jdk.jfr.Event {
+
+    static final String SIGNALLED = "signalled";
+    static final String TIMEOUT = "timeout";
+    static final String INTERRUPTED = "interrupted";
+
+    @Label("Lock Class")
+    Class<?> lockClass;
+
+    @Label("Lock Identity")
+    int lockId;
+
+    @Label("Lock Name")
+    String lockName;
+
+    /**
+     * 给的超时时间，不限时的是Long.MIN_VALUE（jfr显示成N/A）
+     */
+    @Label("Timeout")
+    @Timespan(Timespan.NANOSECONDS)
+    long timeout;
+
+    @Label("Outcome")
+    String outcome;
+
+}
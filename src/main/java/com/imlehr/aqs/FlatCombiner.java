@@ -0,0 +1,203 @@
+package com.imlehr.aqs;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.function.Supplier;
+
+/**
+ * ReentrantLock.executeLocked背后的flat combining
+ * 每个线程把要在锁里跑的lambda挂到一个槽里，谁拿到了锁谁就顺手把槽里挂着的都跑掉，结果写回各自的请求里
+ * 没拿到锁的线程只在自己的请求上转，不去抢锁那一行，锁的那个缓存行只在拿锁的那一个线程手里，临界区的数据也是
+ * <p>
+ * 槽是懒加载的，不用executeLocked的锁不多占内存；槽数是核数的两倍，拿锁的人每次都要扫一遍，太多了扫不起，
+ * 同时在等的线程比槽多的时候多出来的那些直接lock()
+ * 槽满了或者等得太久（等不到有人来跑自己的请求）就老老实实lock()排队，拿到之后同样顺手跑掉别人的，所以不会有请求一直挂着没人管
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+final class FlatCombiner {
+
+    /**
+     * 拿到锁的线程一次最多替别人跑多少个，太大的话这个线程自己的延迟没有上限
+     * -Dcom.imlehr.aqs.combineLimit=...
+     */
+    static final int COMBINE_LIMIT = Math.max(1, Integer.getInteger("com.imlehr.aqs.combineLimit", 64));
+
+    /**
+     * 没拿到锁先在自己的请求上转多少圈，单核上转了也等不到，直接让出去
+     */
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 1 << 10 : 0;
+
+    /**
+     * 转完之后再yield几次给拿锁的线程机会，还不行就lock()
+     */
+    private static final int YIELDS = 8;
+
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(Request[].class);
+
+    private final ReentrantLock lock;
+
+    private final Request[] slots;
+
+    FlatCombiner(ReentrantLock lock) {
+        this.lock = lock;
+        this.slots = new Request[Integer.highestOneBit(Math.max(8, Runtime.getRuntime().availableProcessors() * 2) - 1) << 1];
+    }
+
+    <T> T execute(Supplier<T> action) {
+        if (lock.isHeldByCurrentThread()) {
+            //已经拿着锁了（比如action里又调了executeLocked），挂出去只会等自己
+            return action.get();
+        }
+        if (lock.tryLock()) {
+            //锁是空的就不用挂出去了，自己跑完顺手看一眼有没有别人挂着的
+            try {
+                T v = action.get();
+                combine(-1);
+                return v;
+            } finally {
+                lock.unlock();
+            }
+        }
+        Request r = new Request(action);
+        int i = publish(r);
+        if (i < 0) {
+            //槽都满了
+            lock.lock();
+            try {
+                r.run();
+                combine(-1);
+            } finally {
+                lock.unlock();
+            }
+            return r.get();
+        }
+        for (int spins = 0; ; spins++) {
+            if (r.done) {
+                return r.get();
+            }
+            if (spins < SPINS) {
+                //转的时候只偶尔看一下锁，别把锁那一行读来读去
+                if ((spins & 63) != 0 || lock.isLocked()) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+            } else if (spins < SPINS + YIELDS) {
+                if (lock.isLocked()) {
+                    Thread.yield();
+                    continue;
+                }
+            } else {
+                //拿锁的线程跑满了上限也没轮到我，或者一直没人拿锁，排队去
+                lock.lock();
+                try {
+                    runOwn(i, r);
+                    combine(i);
+                } finally {
+                    lock.unlock();
+                }
+                return r.get();
+            }
+            if (lock.tryLock()) {
+                try {
+                    runOwn(i, r);
+                    combine(i);
+                } finally {
+                    lock.unlock();
+                }
+                return r.get();
+            }
+        }
+    }
+
+    /**
+     * 从线程id散列到的位置往后找一个空槽
+     *
+     * @return 槽的下标，满了就是-1
+     */
+    private int publish(Request r) {
+        int mask = slots.length - 1;
+        int h = (int) Thread.currentThread().getId() * 0x9E3779B9;
+        for (int k = 0, i = h >>> 16 & mask; k <= mask; k++, i = i + 1 & mask) {
+            if (SLOTS.getVolatile(slots, i) == null && SLOTS.compareAndSet(slots, i, null, r)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 拿着锁调：自己的请求要是还在槽里就先跑掉
+     * 不在了说明之前拿锁的人已经替我跑过了，它放锁之前写的done现在一定看得到
+     */
+    private void runOwn(int i, Request r) {
+        if (SLOTS.getVolatile(slots, i) == r) {
+            SLOTS.setVolatile(slots, i, null);
+            r.run();
+        }
+    }
+
+    /**
+     * 拿着锁调：把别人挂着的请求跑掉，最多COMBINE_LIMIT个
+     * 只有拿着锁的人会把槽清成null，别人只会把null换成自己的请求，所以读到非null之后直接清就行，不用cas
+     * 从自己的槽后面开始扫，不然上限卡住的时候排在后面的槽老是轮不到
+     *
+     * @param from 自己的槽，没有就是-1
+     */
+    private void combine(int from) {
+        int mask = slots.length - 1;
+        int n = 0;
+        for (int k = 0, i = from + 1 & mask; k <= mask && n < COMBINE_LIMIT; k++, i = i + 1 & mask) {
+            Request o = (Request) SLOTS.getVolatile(slots, i);
+            if (o != null) {
+                SLOTS.setVolatile(slots, i, null);
+                o.run();
+                n++;
+            }
+        }
+    }
+
+    static final class Request {
+
+        private final Supplier<?> action;
+        private Object result;
+        private Throwable failure;
+        /**
+         * volatile写，result/failure跟着一起发布
+         */
+        volatile boolean done;
+
+        Request(Supplier<?> action) {
+            this.action = action;
+        }
+
+        void run() {
+            try {
+                result = action.get();
+            } catch (Throwable t) {
+                failure = t;
+            }
+            done = true;
+        }
+
+        /**
+         * 在请求自己的线程上把结果拿回来，别人的线程上抛的异常在这里原样抛出
+         */
+        @SuppressWarnings("unchecked")
+        <T> T get() {
+            Throwable t = failure;
+            if (t != null) {
+                if (t instanceof RuntimeException) {
+                    throw (RuntimeException) t;
+                }
+                if (t instanceof Error) {
+                    throw (Error) t;
+                }
+                throw new IllegalStateException(t);
+            }
+            return (T) result;
+        }
+    }
+
+}
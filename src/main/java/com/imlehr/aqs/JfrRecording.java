@@ -0,0 +1,55 @@
+package com.imlehr.aqs;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+/**
+ * jfr现在有没有在录，LockWaitEvent和ConditionAwaitEvent先看这个，没在录就连事件对象都不new
+ * 光靠逃逸分析把new出来又马上扔掉的事件删掉是不保证的，跨了begin/commit那几个调用经常删不掉，每次排队、每次await都多一个对象
+ * <p>
+ * 第一次用到的时候往FlightRecorder上挂一个监听，录制开始、停止的时候重新数一遍在跑的录制，读的时候只是一次volatile读
+ * 在录的时候还是new出来问isEnabled()，这个事件可能在录制配置里关掉了
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+final class JfrRecording implements FlightRecorderListener {
+
+    private static volatile boolean running;
+
+    static {
+        //jfr已经初始化过（比如-XX:StartFlightRecording）的话，这里会马上回调recorderInitialized
+        FlightRecorder.addListener(new JfrRecording());
+    }
+
+    private JfrRecording() {
+    }
+
+    static boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void recorderInitialized(FlightRecorder recorder) {
+        update(recorder);
+    }
+
+    @Override
+    public void recordingStateChanged(Recording recording) {
+        update(FlightRecorder.getFlightRecorder());
+    }
+
+    private static void update(FlightRecorder recorder) {
+        boolean any = false;
+        for (Recording r : recorder.getRecordings()) {
+            if (r.getState() == RecordingState.RUNNING) {
+                any = true;
+                break;
+            }
+        }
+        running = any;
+    }
+
+}
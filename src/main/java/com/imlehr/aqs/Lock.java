@@ -11,6 +11,13 @@ public interface Lock {
 
     void lock();
 
+    /**
+     * 和lock一样，但是排队的时候可以被中断，中断了就放弃排队抛异常
+     *
+     * @throws InterruptedException
+     */
+    void lockInterruptibly() throws InterruptedException;
+
     void unlock();
 
     boolean tryLock();
@@ -20,5 +27,4 @@ public interface Lock {
 
     Condition newCondition();
 
-
 }
@@ -0,0 +1,23 @@
+package com.imlehr.aqs;
+
+/**
+ * AsyncLock.lockAsync拿到的锁
+ * 异步拿到的锁不属于任何线程（不能重入，线程直接调Lock.unlock会抛IllegalMonitorStateException），只能通过它来放
+ * 只能放一次，第二次也抛IllegalMonitorStateException
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+public interface LockHandle extends AutoCloseable {
+
+    void unlock();
+
+    /**
+     * 就是unlock，方便try-with-resources
+     */
+    @Override
+    default void close() {
+        unlock();
+    }
+
+}
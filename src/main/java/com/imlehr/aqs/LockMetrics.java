@@ -0,0 +1,410 @@
+package com.imlehr.aqs;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 锁的竞争统计，默认关着，启动参数加-Dcom.imlehr.aqs.metrics=true才打开
+ * <p>
+ * ENABLED是static final，关着的时候AQS里所有的统计分支jit都会直接删掉，只剩一个永远是null的字段
+ * 打开之后也只统计有名字的锁，同名的锁共用一份统计，所以名字应该给那些长期存在的锁，别给每个请求new一个
+ * 同名的几把锁可以同时被不同的线程拿着，所以这里不存任何一次持锁的状态，持锁的开始时间存在锁自己身上（QueuedSynchronizer.holdStart）
+ * 计数都是LongAdder，多个线程同时记也不会在这里抢同一个缓存行，不会变成新的竞争点
+ * 只有排队长度是一个普通的计数器，不过它只在排队的慢路径上改，那里本来就要cas tail
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+public final class LockMetrics implements LockMetricsMXBean {
+
+    public static final boolean ENABLED = Boolean.getBoolean("com.imlehr.aqs.metrics");
+
+    private static final ConcurrentMap<String, LockMetrics> REGISTRY = new ConcurrentHashMap<>();
+
+    private static final VarHandle QUEUED;
+    private static final VarHandle QUEUED_MAX;
+
+    static {
+        try {
+            MethodHandles.Lookup l = MethodHandles.lookup();
+            QUEUED = l.findVarHandle(LockMetrics.class, "queued", int.class);
+            QUEUED_MAX = l.findVarHandle(LockMetrics.class, "queuedMax", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final String name;
+
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder contended = new LongAdder();
+    private final LongAdder parks = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    private volatile int queued;
+    private volatile int queuedMax;
+
+    private final Histogram waitTime = new Histogram();
+    private final Histogram holdTime = new Histogram();
+
+    private LockMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 拿到（没有就注册）某个名字的统计
+     * 关着的时候返回null
+     *
+     * @param name
+     * @return
+     */
+    public static LockMetrics of(String name) {
+        if (!ENABLED) {
+            return null;
+        }
+        return REGISTRY.computeIfAbsent(name, LockMetrics::register);
+    }
+
+    private static LockMetrics register(String name) {
+        LockMetrics m = new LockMetrics(name);
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(m,
+                    new ObjectName("com.imlehr.aqs:type=Lock,name=" + ObjectName.quote(name)));
+        } catch (JMException e) {
+            //jmx注册不上不影响锁本身，统计还可以通过snapshot拿
+        }
+        return m;
+    }
+
+    //----------------下面是AQS和锁实现调用的，都在ENABLED判断里面----------------
+
+    /**
+     * 拿到锁了
+     *
+     * @return 拿到的时间，锁自己存着，彻底释放的时候传回released
+     */
+    long acquired() {
+        acquisitions.increment();
+        return System.nanoTime();
+    }
+
+    /**
+     * @param since 这次持锁的时候acquired的返回值
+     */
+    void released(long since) {
+        holdTime.record(System.nanoTime() - since);
+    }
+
+    /**
+     * 开始排队
+     *
+     * @return 开始的时间，排完队的时候传回来
+     */
+    long enqueued() {
+        int n = (int) QUEUED.getAndAdd(this, 1) + 1;
+        int max;
+        while (n > (max = queuedMax) && !QUEUED_MAX.compareAndSet(this, max, n)) {
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * 排完队了，不管是拿到了还是放弃了
+     *
+     * @param since    enqueued的返回值
+     * @param acquired
+     */
+    void dequeued(long since, boolean acquired) {
+        QUEUED.getAndAdd(this, -1);
+        if (acquired) {
+            contended.increment();
+            waitTime.record(System.nanoTime() - since);
+        }
+    }
+
+    void parked() {
+        parks.increment();
+    }
+
+    void timedOut() {
+        timeouts.increment();
+    }
+
+    /**
+     * 当前的一份快照
+     * 各个计数是分别读的，并发的时候彼此之间不保证完全对得上
+     *
+     * @return
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(name, acquisitions.sum(), contended.sum(), parks.sum(), timeouts.sum(),
+                queuedMax, waitTime.snapshot(), holdTime.snapshot());
+    }
+
+    //----------------LockMetricsMXBean----------------
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getAcquisitions() {
+        return acquisitions.sum();
+    }
+
+    @Override
+    public long getContendedAcquisitions() {
+        return contended.sum();
+    }
+
+    @Override
+    public long getParks() {
+        return parks.sum();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public int getQueueLength() {
+        return queued;
+    }
+
+    @Override
+    public int getQueueLengthHighWaterMark() {
+        return queuedMax;
+    }
+
+    @Override
+    public long getWaitTimeP50Nanos() {
+        return waitTime.snapshot().percentile(50);
+    }
+
+    @Override
+    public long getWaitTimeP99Nanos() {
+        return waitTime.snapshot().percentile(99);
+    }
+
+    @Override
+    public long getWaitTimeMaxNanos() {
+        return waitTime.snapshot().max();
+    }
+
+    @Override
+    public long getHoldTimeP50Nanos() {
+        return holdTime.snapshot().percentile(50);
+    }
+
+    @Override
+    public long getHoldTimeP99Nanos() {
+        return holdTime.snapshot().percentile(99);
+    }
+
+    @Override
+    public long getHoldTimeMaxNanos() {
+        return holdTime.snapshot().max();
+    }
+
+
+    public static final class Snapshot {
+
+        private final String name;
+        private final long acquisitions;
+        private final long contendedAcquisitions;
+        private final long parks;
+        private final long timeouts;
+        private final int queueLengthHighWaterMark;
+        private final Distribution waitTime;
+        private final Distribution holdTime;
+
+        Snapshot(String name, long acquisitions, long contendedAcquisitions, long parks, long timeouts,
+                 int queueLengthHighWaterMark, Distribution waitTime, Distribution holdTime) {
+            this.name = name;
+            this.acquisitions = acquisitions;
+            this.contendedAcquisitions = contendedAcquisitions;
+            this.parks = parks;
+            this.timeouts = timeouts;
+            this.queueLengthHighWaterMark = queueLengthHighWaterMark;
+            this.waitTime = waitTime;
+            this.holdTime = holdTime;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getAcquisitions() {
+            return acquisitions;
+        }
+
+        public long getContendedAcquisitions() {
+            return contendedAcquisitions;
+        }
+
+        public long getParks() {
+            return parks;
+        }
+
+        public long getTimeouts() {
+            return timeouts;
+        }
+
+        public int getQueueLengthHighWaterMark() {
+            return queueLengthHighWaterMark;
+        }
+
+        /**
+         * 排队的线程从入队到拿到锁的时间，放弃了的不算
+         */
+        public Distribution getWaitTime() {
+            return waitTime;
+        }
+
+        /**
+         * 从拿到到彻底释放（重入的都退出来）的时间
+         */
+        public Distribution getHoldTime() {
+            return holdTime;
+        }
+
+        @Override
+        public String toString() {
+            return name + "{acquisitions=" + acquisitions +
+                    ", contended=" + contendedAcquisitions +
+                    ", parks=" + parks +
+                    ", timeouts=" + timeouts +
+                    ", queueHighWaterMark=" + queueLengthHighWaterMark +
+                    ", waitTime=" + waitTime +
+                    ", holdTime=" + holdTime + '}';
+        }
+    }
+
+    /**
+     * 一个直方图某一时刻的样子，单位纳秒
+     */
+    public static final class Distribution {
+
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Distribution(long[] counts, long sum, long max) {
+            this.counts = counts;
+            long c = 0;
+            for (long n : counts) {
+                c += n;
+            }
+            this.count = c;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long count() {
+            return count;
+        }
+
+        public long mean() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        public long max() {
+            return max;
+        }
+
+        /**
+         * 返回所在桶的上界，不会超过记到过的最大值
+         *
+         * @param percentile 0到100
+         * @return
+         */
+        public long percentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(count * Math.min(100.0, Math.max(0.0, percentile)) / 100.0);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && counts[i] > 0) {
+                    return Math.min(max, Histogram.upperBound(i));
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "{count=" + count + ", mean=" + mean() + ", p50=" + percentile(50) +
+                    ", p99=" + percentile(99) + ", max=" + max + '}';
+        }
+    }
+
+    /**
+     * HdrHistogram那种对数线性分桶：每个2的幂区间再平分成4格，相对误差不超过25%，桶的个数固定
+     * 每个桶一个LongAdder，记录的时候不加锁
+     */
+    static final class Histogram {
+
+        private static final int SUB_BITS = 2;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+        private static final int BUCKETS = 64 << SUB_BITS;
+
+        private final LongAdder[] counts = new LongAdder[BUCKETS];
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        Histogram() {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        void record(long value) {
+            if (value < 0) {
+                //nanoTime在某些虚拟机上偶尔会倒退一点
+                value = 0;
+            }
+            counts[index(value)].increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        Distribution snapshot() {
+            long[] c = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                c[i] = counts[i].sum();
+            }
+            return new Distribution(c, sum.sum(), max.get());
+        }
+
+        static int index(long value) {
+            if (value < SUB_COUNT) {
+                return (int) value;
+            }
+            int exp = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+            return ((exp - SUB_BITS + 1) << SUB_BITS) + sub;
+        }
+
+        static long upperBound(int index) {
+            if (index < SUB_COUNT) {
+                return index;
+            }
+            int shift = (index >> SUB_BITS) - 1;
+            long low = (long) (SUB_COUNT + (index & (SUB_COUNT - 1))) << shift;
+            return low + (1L << shift) - 1;
+        }
+    }
+
+}
@@ -0,0 +1,44 @@
+package com.imlehr.aqs;
+
+/**
+ * 每把有名字的锁在jmx里的样子，ObjectName是com.imlehr.aqs:type=Lock,name=锁的名字
+ * 时间都是纳秒，分位数是按桶估出来的，误差在25%以内
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+public interface LockMetricsMXBean {
+
+    String getName();
+
+    /**
+     * 一共拿到了多少次（重入不算）
+     */
+    long getAcquisitions();
+
+    /**
+     * 其中有多少次是排过队的
+     */
+    long getContendedAcquisitions();
+
+    long getParks();
+
+    long getTimeouts();
+
+    int getQueueLength();
+
+    int getQueueLengthHighWaterMark();
+
+    long getWaitTimeP50Nanos();
+
+    long getWaitTimeP99Nanos();
+
+    long getWaitTimeMaxNanos();
+
+    long getHoldTimeP50Nanos();
+
+    long getHoldTimeP99Nanos();
+
+    long getHoldTimeMaxNanos();
+
+}
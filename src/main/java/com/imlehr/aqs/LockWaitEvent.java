@@ -0,0 +1,64 @@
+package com.imlehr.aqs;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * 在同步队列里排队等锁的jfr事件，相当于synchronized的jdk.JavaMonitorEnter
+ * 只在入队之后的慢路径上、而且jfr在录的时候才创建（见JfrRecording），没竞争的时候完全碰不到
+ * 默认只记等了20微秒以上的，录制的时候可以改，比如jfc里
+ * &lt;event name="com.imlehr.aqs.LockWait"&gt;&lt;setting name="threshold"&gt;100 us&lt;/setting&gt;&lt;/event&gt;
+ * 持续时间从入队开始，到拿到锁、超时或者放弃为止，拿到了的那部分也就是锁从上一个人交到自己手里的耗时
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+@Name("com.imlehr.aqs.LockWait")
+@Label("AQS Lock Wait")
+@Category({"Java Application", "Locks"})
+@Description("Thread waited in the queue of a com.imlehr.aqs synchronizer")
+@StackTrace(true)
+@Threshold("20 us")
+final class LockWaitEvent extends jdk.jfr.Event {
+
+    static final String ACQUIRED = "acquired";
+    static final String TIMEOUT = "timeout";
+    static final String CANCELLED = "cancelled";
+
+    @Label("Lock Class")
+    Class<?> lockClass;
+
+    /**
+     * identityHashCode，同一个进程里区分同一类的不同锁
+     */
+    @Label("Lock Identity")
+    int lockId;
+
+    @Label("Lock Name")
+    String lockName;
+
+    /**
+     * 入队那一刻的持有者，共享模式或者刚好被释放了就是null
+     */
+    @Label("Owner At Enqueue")
+    Thread ownerAtEnqueue;
+
+    @Label("Shared")
+    boolean shared;
+
+    /**
+     * 给的超时时间，不限时的是Long.MIN_VALUE（jfr显示成N/A）
+     */
+    @Label("Timeout")
+    @Timespan(Timespan.NANOSECONDS)
+    long timeout;
+
+    @Label("Outcome")
+    String outcome;
+
+}
@@ -0,0 +1,664 @@
+package com.imlehr.aqs;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * MCS队列锁，和ReentrantLock一样可重入、支持Condition，排队是严格先来后到的
+ * <p>
+ * 和AQS的队列的区别：
+ * AQS里排第一的线程要去读写state、head，被叫醒靠unpark，交接的时候所有人都在碰锁上那几个共享字段；
+ * 这里每个等待的线程只在自己节点的state上转，放锁的人直接把下一个节点的state写成GRANTED，交接只碰下一个人的那一行，
+ * 锁对象上只有入队的那一次getAndSet(tail)是大家一起碰的
+ * 节点前后补了128字节，两个线程的节点不会挤在一个缓存行里
+ * <p>
+ * 只有前一个节点已经是GRANTED（前面就是持锁的人）才转，排在更后面的直接park；
+ * 转够了SPINS圈还没轮到也park，这时候节点标成PARKED，放锁的人看到了才unpark
+ * 超时/中断的节点没法从MCS队列中间摘出来，只能标成ABANDONED留在原地，放锁的时候轮到它就替它接着往后交
+ * <p>
+ * 持锁线程的节点一直留在队列里（tail不是null就是有人拿着），放锁的时候才交出去，所以拿锁放锁都要有个节点，
+ * 每个线程留一个放锁换下来的节点下次用，同时拿着好几把锁的时候才会new
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+public class McsLock implements Lock {
+
+    /**
+     * 自旋只读自己节点上的字段，不会拖慢别人，所以可以比AQS转得久一些；单核上转了也等不到，直接park
+     */
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 1 << 12 : 0;
+
+    private static final int ACQUIRED = 0;
+    private static final int ACQUIRED_INTERRUPTED = 1;
+    private static final int TIMED_OUT = 2;
+
+    private static final VarHandle TAIL;
+
+    static {
+        try {
+            TAIL = MethodHandles.lookup().findVarHandle(McsLock.class, "tail", QNode.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private volatile QNode tail;
+
+    /**
+     * 下面三个只有持锁线程读写，别的线程读owner只是为了和自己比，读到旧值也不可能等于自己
+     * holder：持锁线程在队列里的节点，放锁的时候从它往后交
+     */
+    private QNode holder;
+    private Thread owner;
+    private int holds;
+
+    @Override
+    public void lock() {
+        Thread current = Thread.currentThread();
+        if (owner == current) {
+            reenter();
+        } else if (acquire(current)) {
+            selfInterrupt();
+        }
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        Thread current = Thread.currentThread();
+        if (owner == current) {
+            reenter();
+        } else if (acquire(current, true, false, 0L) == ACQUIRED_INTERRUPTED) {
+            //中断和交接撞上了，锁已经是我的了，中断标记留给调用方
+            selfInterrupt();
+        }
+    }
+
+    /**
+     * 队列是空的才拿得到，MCS没法插队
+     */
+    @Override
+    public boolean tryLock() {
+        Thread current = Thread.currentThread();
+        if (owner == current) {
+            reenter();
+            return true;
+        }
+        if (tail != null) {
+            return false;
+        }
+        QNode node = QNode.obtain(current);
+        if (TAIL.compareAndSet(this, null, node)) {
+            node.markGranted();
+            acquired(current, node);
+            return true;
+        }
+        QNode.recycle(node);
+        return false;
+    }
+
+    @Override
+    public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        Thread current = Thread.currentThread();
+        if (owner == current) {
+            reenter();
+            return true;
+        }
+        if (tryLock()) {
+            return true;
+        }
+        long nanos = unit.toNanos(timeout);
+        if (nanos <= 0L) {
+            return false;
+        }
+        int r = acquire(current, true, true, System.nanoTime() + nanos);
+        if (r == ACQUIRED_INTERRUPTED) {
+            selfInterrupt();
+        }
+        return r != TIMED_OUT;
+    }
+
+    @Override
+    public void unlock() {
+        if (owner != Thread.currentThread()) {
+            throw new IllegalMonitorStateException();
+        }
+        if (--holds == 0) {
+            releaseAll();
+        }
+    }
+
+    @Override
+    public Condition newCondition() {
+        return new ConditionObject();
+    }
+
+    public boolean isLocked() {
+        return tail != null;
+    }
+
+    public boolean isHeldByCurrentThread() {
+        return owner == Thread.currentThread();
+    }
+
+    public int getHoldCount() {
+        return owner == Thread.currentThread() ? holds : 0;
+    }
+
+    private void reenter() {
+        if (holds == Integer.MAX_VALUE) {
+            throw new Error("Maximum lock count exceeded");
+        }
+        holds++;
+    }
+
+    private void acquired(Thread current, QNode node) {
+        holder = node;
+        owner = current;
+        holds = 1;
+    }
+
+    private static void selfInterrupt() {
+        Thread.currentThread().interrupt();
+    }
+
+    /**
+     * 不响应中断的排队，Condition醒过来之后重新拿锁也走这个
+     *
+     * @return 排队的时候有没有被中断过
+     */
+    private boolean acquire(Thread current) {
+        try {
+            return acquire(current, false, false, 0L) == ACQUIRED_INTERRUPTED;
+        } catch (InterruptedException e) {
+            //不可中断的时候不会抛
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * 入队，然后在自己的节点上等前面的人交过来
+     *
+     * @param current
+     * @param interruptible 中断了是放弃排队抛异常，还是记下来接着等
+     * @param timed
+     * @param deadline
+     * @return ACQUIRED/ACQUIRED_INTERRUPTED/TIMED_OUT
+     */
+    private int acquire(Thread current, boolean interruptible, boolean timed, long deadline) throws InterruptedException {
+        QNode node = QNode.obtain(current);
+        QNode pred = (QNode) TAIL.getAndSet(this, node);
+        if (pred == null) {
+            node.markGranted();
+            acquired(current, node);
+            return ACQUIRED;
+        }
+        //放锁的人看到next是null会等这一步，中间不要做别的
+        pred.next = node;
+
+        boolean interrupted = false;
+        for (int spins = SPINS; ; ) {
+            int s = node.state;
+            if (s == QNode.GRANTED) {
+                acquired(current, node);
+                return interrupted ? ACQUIRED_INTERRUPTED : ACQUIRED;
+            }
+            if (timed && deadline - System.nanoTime() <= 0L) {
+                if (node.compareAndSetState(s, QNode.ABANDONED)) {
+                    return TIMED_OUT;
+                }
+                //cas失败只可能是刚被交过来了
+                continue;
+            }
+            if (Thread.interrupted()) {
+                if (interruptible && node.compareAndSetState(s, QNode.ABANDONED)) {
+                    throw new InterruptedException();
+                }
+                interrupted = true;
+                continue;
+            }
+            if (spins > 0 && pred.state == QNode.GRANTED) {
+                spins--;
+                Thread.onSpinWait();
+            } else if (s == QNode.WAITING) {
+                //转够了，或者前面的人自己还在排队（转了也轮不到，还白占cpu），标记一下让放锁的人记得unpark，下一圈再确认一次没有刚好交过来
+                node.compareAndSetState(QNode.WAITING, QNode.PARKED);
+            } else if (timed) {
+                LockSupport.parkNanos(this, deadline - System.nanoTime());
+            } else {
+                LockSupport.park(this);
+            }
+        }
+    }
+
+    /**
+     * 彻底放锁，unlock减到0和Condition.await的时候调
+     *
+     * @return 放之前的重入次数
+     */
+    private int releaseAll() {
+        int saved = holds;
+        QNode node = holder;
+        holds = 0;
+        owner = null;
+        holder = null;
+        handOff(node);
+        //交出去之后下一个人也不会再碰这个节点了
+        QNode.recycle(node);
+        return saved;
+    }
+
+    /**
+     * 交给下一个人：后面没人就把tail清掉；后面的人已经放弃了就替它接着往后交
+     *
+     * @param node 持锁线程的节点
+     */
+    private void handOff(QNode node) {
+        for (; ; ) {
+            QNode next = node.next;
+            if (next == null) {
+                if (TAIL.compareAndSet(this, node, null)) {
+                    return;
+                }
+                //有人已经换了tail，但是还没来得及连上next
+                for (int i = 0; (next = node.next) == null; i++) {
+                    if (i < 64) {
+                        Thread.onSpinWait();
+                    } else {
+                        Thread.yield();
+                    }
+                }
+            }
+            int s = next.getAndSetState(QNode.GRANTED);
+            if (s == QNode.PARKED) {
+                LockSupport.unpark(next.thread);
+                return;
+            }
+            if (s == QNode.WAITING) {
+                return;
+            }
+            //ABANDONED，它的线程已经走了，节点不会被复用，接着往后找
+            node = next;
+        }
+    }
+
+
+    /**
+     * 前后各补128字节，相邻两个缓存行（带相邻行预取）
+     */
+    abstract static class QNodePad {
+        byte p000, p001, p002, p003, p004, p005, p006, p007;
+        byte p010, p011, p012, p013, p014, p015, p016, p017;
+        byte p020, p021, p022, p023, p024, p025, p026, p027;
+        byte p030, p031, p032, p033, p034, p035, p036, p037;
+        byte p040, p041, p042, p043, p044, p045, p046, p047;
+        byte p050, p051, p052, p053, p054, p055, p056, p057;
+        byte p060, p061, p062, p063, p064, p065, p066, p067;
+        byte p070, p071, p072, p073, p074, p075, p076, p077;
+        byte p100, p101, p102, p103, p104, p105, p106, p107;
+        byte p110, p111, p112, p113, p114, p115, p116, p117;
+        byte p120, p121, p122, p123, p124, p125, p126, p127;
+        byte p130, p131, p132, p133, p134, p135, p136, p137;
+        byte p140, p141, p142, p143, p144, p145, p146, p147;
+        byte p150, p151, p152, p153, p154, p155, p156, p157;
+        byte p160, p161, p162, p163, p164, p165, p166, p167;
+        byte p170, p171, p172, p173, p174, p175, p176, p177;
+    }
+
+    abstract static class QNodeFields extends QNodePad {
+        volatile int state;
+        volatile QNode next;
+        Thread thread;
+    }
+
+    static final class QNode extends QNodeFields {
+        byte p200, p201, p202, p203, p204, p205, p206, p207;
+        byte p210, p211, p212, p213, p214, p215, p216, p217;
+        byte p220, p221, p222, p223, p224, p225, p226, p227;
+        byte p230, p231, p232, p233, p234, p235, p236, p237;
+        byte p240, p241, p242, p243, p244, p245, p246, p247;
+        byte p250, p251, p252, p253, p254, p255, p256, p257;
+        byte p260, p261, p262, p263, p264, p265, p266, p267;
+        byte p270, p271, p272, p273, p274, p275, p276, p277;
+        byte p300, p301, p302, p303, p304, p305, p306, p307;
+        byte p310, p311, p312, p313, p314, p315, p316, p317;
+        byte p320, p321, p322, p323, p324, p325, p326, p327;
+        byte p330, p331, p332, p333, p334, p335, p336, p337;
+        byte p340, p341, p342, p343, p344, p345, p346, p347;
+        byte p350, p351, p352, p353, p354, p355, p356, p357;
+        byte p360, p361, p362, p363, p364, p365, p366, p367;
+        byte p370, p371, p372, p373, p374, p375, p376, p377;
+
+        /**
+         * WAITING：还在转；PARKED：park了，交过来的时候要unpark；GRANTED：锁交给它了；ABANDONED：超时/中断放弃了
+         */
+        static final int WAITING = 0;
+        static final int PARKED = 1;
+        static final int GRANTED = 2;
+        static final int ABANDONED = 3;
+
+        private static final VarHandle STATE;
+
+        static {
+            try {
+                STATE = MethodHandles.lookup().findVarHandle(QNodeFields.class, "state", int.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        /**
+         * 每个线程留一个放锁换下来的节点，放弃了的节点不回收（放锁的人可能还要顺着它往后找）
+         */
+        private static final ThreadLocal<QNode[]> SPARE = ThreadLocal.withInitial(() -> new QNode[1]);
+
+        /**
+         * 入队的getAndSet(tail)会把这几个普通写一起发布出去
+         */
+        static QNode obtain(Thread current) {
+            QNode[] spare = SPARE.get();
+            QNode n = spare[0];
+            if (n == null) {
+                n = new QNode();
+            } else {
+                spare[0] = null;
+            }
+            n.state = QNode.WAITING;
+            n.next = null;
+            n.thread = current;
+            return n;
+        }
+
+        static void recycle(QNode n) {
+            QNode[] spare = SPARE.get();
+            if (spare[0] == null) {
+                spare[0] = n;
+            }
+        }
+
+        boolean compareAndSetState(int expect, int update) {
+            return STATE.compareAndSet(this, expect, update);
+        }
+
+        int getAndSetState(int update) {
+            return (int) STATE.getAndSet(this, update);
+        }
+
+        /**
+         * 没排队直接拿到锁的节点也标成GRANTED，后面来的人看到前面是持锁的人才会转
+         * 只是给后面的人看的提示，晚一点看到也就是少转几圈，不用volatile写
+         */
+        void markGranted() {
+            STATE.setOpaque(this, GRANTED);
+        }
+    }
+
+
+    /**
+     * 条件队列只在拿着锁的时候动，用普通的单链表就行
+     * 等待的线程被signal之前超时/中断了，自己把状态从WAITING改成CANCELLED；signal也是cas WAITING->SIGNALLED，
+     * 两边谁先谁算，所以不会出现既被signal又当成超时的情况，也不会把signal丢给一个已经走了的线程
+     * 醒过来之后像普通线程一样重新排到MCS队列的最后去拿锁
+     */
+    public class ConditionObject implements Condition {
+
+        private Waiter firstWaiter;
+        private Waiter lastWaiter;
+
+        /**
+         * signal之后才被中断，await正常返回，把中断标记补回去
+         */
+        private static final int REINTERRUPT = 1;
+        /**
+         * signal之前就被中断了，await要抛InterruptedException
+         */
+        private static final int THROW_IE = -1;
+
+        @Override
+        public void await() throws InterruptedException {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            Waiter w = addWaiter();
+            int saved = releaseAll();
+            int interruptMode = 0;
+            while (w.state == Waiter.WAITING) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    interruptMode = w.cancel() ? THROW_IE : REINTERRUPT;
+                    break;
+                }
+            }
+            reacquire(w, saved, interruptMode);
+        }
+
+        @Override
+        public void awaitUninterruptibly() {
+            Waiter w = addWaiter();
+            int saved = releaseAll();
+            boolean interrupted = false;
+            while (w.state == Waiter.WAITING) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    interrupted = true;
+                }
+            }
+            try {
+                reacquire(w, saved, interrupted ? REINTERRUPT : 0);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        @Override
+        public long awaitNanos(long nanosTimeout) throws InterruptedException {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            long deadline = System.nanoTime() + nanosTimeout;
+            Waiter w = addWaiter();
+            int saved = releaseAll();
+            int interruptMode = 0;
+            while (w.state == Waiter.WAITING) {
+                if (deadline - System.nanoTime() <= 0L) {
+                    //cas失败说明刚被signal了，按signal算
+                    w.cancel();
+                    break;
+                }
+                LockSupport.parkNanos(this, deadline - System.nanoTime());
+                if (Thread.interrupted()) {
+                    interruptMode = w.cancel() ? THROW_IE : REINTERRUPT;
+                    break;
+                }
+            }
+            reacquire(w, saved, interruptMode);
+            long remaining = deadline - System.nanoTime();
+            //和jdk一样，没超时的时候不要返回0（0表示超时了），也别溢出
+            return remaining <= nanosTimeout ? remaining : Long.MIN_VALUE;
+        }
+
+        @Override
+        public boolean await(long time, TimeUnit unit) throws InterruptedException {
+            return awaitTimed(System.nanoTime() + unit.toNanos(time), false);
+        }
+
+        @Override
+        public boolean awaitUntil(Date deadline) throws InterruptedException {
+            return awaitTimed(deadline.getTime(), true);
+        }
+
+        /**
+         * @param deadline nanoTime或者currentTimeMillis
+         * @param wallClock deadline是不是currentTimeMillis
+         * @return 超时之前被signal了就是true
+         */
+        private boolean awaitTimed(long deadline, boolean wallClock) throws InterruptedException {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            Waiter w = addWaiter();
+            int saved = releaseAll();
+            int interruptMode = 0;
+            boolean timedOut = false;
+            while (w.state == Waiter.WAITING) {
+                long remaining = wallClock ? deadline - System.currentTimeMillis() : deadline - System.nanoTime();
+                if (remaining <= 0L) {
+                    timedOut = w.cancel();
+                    break;
+                }
+                if (wallClock) {
+                    LockSupport.parkUntil(this, deadline);
+                } else {
+                    LockSupport.parkNanos(this, remaining);
+                }
+                if (Thread.interrupted()) {
+                    interruptMode = w.cancel() ? THROW_IE : REINTERRUPT;
+                    break;
+                }
+            }
+            reacquire(w, saved, interruptMode);
+            return !timedOut;
+        }
+
+        @Override
+        public void signal() {
+            if (owner != Thread.currentThread()) {
+                throw new IllegalMonitorStateException();
+            }
+            for (Waiter w = firstWaiter; w != null; w = firstWaiter) {
+                firstWaiter = w.next;
+                if (firstWaiter == null) {
+                    lastWaiter = null;
+                }
+                w.next = null;
+                if (w.signal()) {
+                    break;
+                }
+            }
+        }
+
+        @Override
+        public void signalAll() {
+            if (owner != Thread.currentThread()) {
+                throw new IllegalMonitorStateException();
+            }
+            Waiter w = firstWaiter;
+            firstWaiter = lastWaiter = null;
+            while (w != null) {
+                Waiter next = w.next;
+                w.next = null;
+                w.signal();
+                w = next;
+            }
+        }
+
+        private Waiter addWaiter() {
+            Thread current = Thread.currentThread();
+            if (owner != current) {
+                throw new IllegalMonitorStateException();
+            }
+            Waiter w = new Waiter(current);
+            if (lastWaiter == null) {
+                firstWaiter = w;
+            } else {
+                lastWaiter.next = w;
+            }
+            lastWaiter = w;
+            return w;
+        }
+
+        /**
+         * 不管怎么醒的，都要拿回锁、恢复重入次数才能返回
+         * 自己取消的节点还挂在条件队列里，拿着锁之后顺手摘掉
+         */
+        private void reacquire(Waiter w, int saved, int interruptMode) throws InterruptedException {
+            Thread current = Thread.currentThread();
+            if (acquire(current) && interruptMode != THROW_IE) {
+                interruptMode = REINTERRUPT;
+            }
+            holds = saved;
+            if (w.state == Waiter.CANCELLED) {
+                unlink(w);
+            }
+            if (interruptMode == THROW_IE) {
+                throw new InterruptedException();
+            } else if (interruptMode == REINTERRUPT) {
+                selfInterrupt();
+            }
+        }
+
+        private void unlink(Waiter w) {
+            Waiter prev = null;
+            for (Waiter p = firstWaiter; p != null; prev = p, p = p.next) {
+                if (p == w) {
+                    if (prev == null) {
+                        firstWaiter = w.next;
+                    } else {
+                        prev.next = w.next;
+                    }
+                    if (lastWaiter == w) {
+                        lastWaiter = prev;
+                    }
+                    w.next = null;
+                    return;
+                }
+            }
+        }
+    }
+
+    static final class Waiter {
+
+        static final int WAITING = 0;
+        static final int SIGNALLED = 1;
+        static final int CANCELLED = 2;
+
+        private static final VarHandle STATE;
+
+        static {
+            try {
+                STATE = MethodHandles.lookup().findVarHandle(Waiter.class, "state", int.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        final Thread thread;
+        volatile int state;
+        Waiter next;
+
+        Waiter(Thread thread) {
+            this.thread = thread;
+        }
+
+        /**
+         * 持锁的人调，成功了才算这次signal送到了
+         */
+        boolean signal() {
+            if (STATE.compareAndSet(this, WAITING, SIGNALLED)) {
+                LockSupport.unpark(thread);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * 等待的线程自己调
+         *
+         * @return false说明已经被signal了
+         */
+        boolean cancel() {
+            return STATE.compareAndSet(this, WAITING, CANCELLED);
+        }
+    }
+
+}
@@ -0,0 +1,215 @@
+package com.imlehr.aqs;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 全局的等待队列表，WebKit的ParkingLot那一套
+ * 锁自己只留一个字，排队的线程都挂在这张表里，按锁对象的identityHashCode分桶
+ * 只有真的有人在等的时候才有WaitNode，不竞争的锁除了自己那个字什么都不占
+ * <p>
+ * 每个桶用synchronized保护，桶里是一个单链表，不同的锁撞到同一个桶里就挂在一起，按key区分
+ * park的时候先在桶锁里调validation确认还需要等（比如锁还被人拿着），unpark的时候在桶锁里调回调更新锁的状态，
+ * 两边都在桶锁里，所以不会出现“刚检查完要等，别人就放锁了”的漏唤醒
+ * <p>
+ * 表的大小是固定的（核数*16，至少256个桶），等待的线程特别多的时候链表会变长，只影响park/unpark的慢路径
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+final class ParkingLot {
+
+    /**
+     * park的结果
+     * UNPARKED：被unparkOne叫醒了，调用方要至少再试一次拿锁，不然这次唤醒就丢了
+     * INVALID：validation没通过，根本没排队
+     * TIMED_OUT/INTERRUPTED：自己从队列里出来了，中断标记已经清掉
+     */
+    static final int UNPARKED = 0;
+    static final int INVALID = 1;
+    static final int TIMED_OUT = 2;
+    static final int INTERRUPTED = 3;
+
+    private static final Bucket[] TABLE;
+
+    static {
+        int n = Integer.highestOneBit(Math.max(256, Runtime.getRuntime().availableProcessors() * 16) - 1) << 1;
+        TABLE = new Bucket[n];
+        for (int i = 0; i < n; i++) {
+            TABLE[i] = new Bucket();
+        }
+    }
+
+    private ParkingLot() {
+    }
+
+    /**
+     * unparkOne在桶锁里调的回调，锁在这里把自己的状态改掉
+     * key作为参数传回去，锁可以用一个静态的回调，放锁的时候不用每次new一个捕获了this的lambda
+     */
+    interface UnparkCallback {
+
+        /**
+         * @param key      unparkOne传进来的那个key
+         * @param unparked 有没有叫醒一个线程
+         * @param hasMore  队列里这个key还有没有别的线程在等
+         */
+        void unparked(Object key, boolean unparked, boolean hasMore);
+    }
+
+    static final class Bucket {
+        WaitNode head;
+        WaitNode tail;
+    }
+
+    static final class WaitNode {
+        final Thread thread;
+        final Object key;
+        WaitNode next;
+        /**
+         * 在桶锁里设置，设置之后节点已经不在队列里了
+         */
+        volatile boolean unparked;
+
+        WaitNode(Thread thread, Object key) {
+            this.thread = thread;
+            this.key = key;
+        }
+    }
+
+    private static Bucket bucketOf(Object key) {
+        int h = System.identityHashCode(key) * 0x9E3779B9;
+        return TABLE[(h >>> 16 ^ h) & (TABLE.length - 1)];
+    }
+
+    /**
+     * 在key上排队等着
+     *
+     * @param key        一般就是锁对象
+     * @param validation 在桶锁里调，返回false就不排队了，直接返回INVALID
+     * @param lastGone   超时/中断自己出队之后队列里没有这个key了，在桶锁里调，锁用它把“有人在等”的标记清掉
+     * @param timed      有没有超时
+     * @param deadline   System.nanoTime()的截止时间，timed的时候才有用
+     * @return 见上面几个常量
+     */
+    static int park(Object key, BooleanSupplier validation, Runnable lastGone, boolean timed, long deadline) {
+        Bucket b = bucketOf(key);
+        WaitNode node = new WaitNode(Thread.currentThread(), key);
+        synchronized (b) {
+            if (!validation.getAsBoolean()) {
+                return INVALID;
+            }
+            if (b.tail == null) {
+                b.head = node;
+            } else {
+                b.tail.next = node;
+            }
+            b.tail = node;
+        }
+        for (; ; ) {
+            if (node.unparked) {
+                //中断标记留着不清，调用方拿到锁之后中断状态还在
+                return UNPARKED;
+            }
+            if (timed) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0L) {
+                    if (leave(b, node, lastGone)) {
+                        return TIMED_OUT;
+                    }
+                    continue;
+                }
+                LockSupport.parkNanos(key, remaining);
+            } else {
+                LockSupport.park(key);
+            }
+            if (Thread.currentThread().isInterrupted() && leave(b, node, lastGone)) {
+                Thread.interrupted();
+                return INTERRUPTED;
+            }
+        }
+    }
+
+    /**
+     * 超时或者中断了，自己从队列里出来
+     *
+     * @return false说明已经被unparkOne摘掉了，这时候算被叫醒
+     */
+    private static boolean leave(Bucket b, WaitNode node, Runnable lastGone) {
+        synchronized (b) {
+            if (node.unparked) {
+                return false;
+            }
+            WaitNode prev = null;
+            for (WaitNode n = b.head; n != node; n = n.next) {
+                prev = n;
+            }
+            unlink(b, prev, node);
+            if (!hasKey(b.head, node.key)) {
+                lastGone.run();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 叫醒key上排第一个的线程
+     *
+     * @param key
+     * @param callback 在桶锁里调，这时候新的线程不能在这个key上排队
+     */
+    static void unparkOne(Object key, UnparkCallback callback) {
+        Bucket b = bucketOf(key);
+        WaitNode woken = null;
+        synchronized (b) {
+            WaitNode prev = null;
+            for (WaitNode n = b.head; n != null; prev = n, n = n.next) {
+                if (n.key == key) {
+                    unlink(b, prev, n);
+                    woken = n;
+                    break;
+                }
+            }
+            //排在前面的都不是这个key，只用往后找
+            callback.unparked(key, woken != null, woken != null && hasKey(woken.next, key));
+            if (woken != null) {
+                woken.unparked = true;
+            }
+        }
+        if (woken != null) {
+            LockSupport.unpark(woken.thread);
+        }
+    }
+
+    /**
+     * 这个key上有没有人在等，估计值
+     */
+    static boolean hasParked(Object key) {
+        Bucket b = bucketOf(key);
+        synchronized (b) {
+            return hasKey(b.head, key);
+        }
+    }
+
+    private static boolean hasKey(WaitNode from, Object key) {
+        for (WaitNode n = from; n != null; n = n.next) {
+            if (n.key == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void unlink(Bucket b, WaitNode prev, WaitNode node) {
+        WaitNode next = node.next;
+        if (prev == null) {
+            b.head = next;
+        } else {
+            prev.next = next;
+        }
+        if (b.tail == node) {
+            b.tail = prev;
+        }
+    }
+
+}
@@ -0,0 +1,2028 @@
+package com.imlehr.aqs;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.VarHandle;
+import java.util.Date;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * AbstractQueuedSynchronizer和AbstractQueuedLongSynchronizer共用的那一套：同步队列、条件队列、共享模式、acquireAsync、统计和jfr事件
+ * 这里面state和arg都按long处理，int的那个只是把int放宽成long传进来，存的值永远在int范围里，来回转不会丢东西
+ * 两个子类只是带类型的门面：对外的acquire/release这些和给子类实现的tryAcquire这些，
+ * 快路径（调一次try*）写在门面里，方便jit只内联快路径，拿不到之后的排队全在这里，不会两份代码慢慢改得不一样
+ * <p>
+ * 这个类是public的，因为ConditionObject、getQueueLength/hasQueuedPredecessors/getMetrics这些公开的方法和
+ * setExclusiveOwnerThread这些给子类用的方法都声明在这里，两个门面是继承下来的，外面的包要能看到它们的声明类；
+ * 构造方法是包内的，包外面只能继承两个门面，不能直接继承这个
+ * 和拆出来之前比，两个门面用的是同一个ConditionObject类（AbstractQueuedSynchronizer.ConditionObject照样能这么写，
+ * 指的就是QueuedSynchronizer.ConditionObject），反射里这些方法的getDeclaringClass()也变成了这个类
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+public abstract class QueuedSynchronizer extends StateFields {
+
+    protected final void setExclusiveOwnerThread(Thread thread) {
+        this.exclusiveOwnerThread = thread;
+    }
+
+    protected final Thread getExclusiveOwnerThread() {
+        return this.exclusiveOwnerThread;
+    }
+
+
+    /**
+     * 剩余时间比这个还短就不park了，直接自旋，park/unpark本身的开销就差不多这么多
+     */
+    static final long SPIN_FOR_TIMEOUT_THRESHOLD = 1000L;
+
+    /**
+     * 自适应自旋的上限（每次是一个Thread.onSpinWait），单核上自旋只会耽误持锁线程，直接不转
+     */
+    static final int MAX_SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 512 : 0;
+
+    static final int MIN_SPINS = 16;
+
+    /**
+     * 按WaitStrategy一直转不park的时候，隔多少圈调一次headWaiterStalled
+     */
+    static final int STALL_ROUNDS_MASK = 1023;
+
+    /**
+     * 下面三个是自旋的统计，只有排在第一个的节点会读写，允许并发写丢一点，不影响正确性，所以都是普通字段
+     * spinEstimate：最近几次自旋成功时转了多少圈的滑动平均，相当于以圈数为单位估计的剩余持锁时间
+     * spinScore：成功+1，失败-2，小于0说明这把锁上自旋不划算
+     * spinProbe：不划算的时候隔一段时间还是试一下，持锁时间变短了可以恢复
+     */
+    private int spinEstimate = MIN_SPINS;
+    private int spinScore;
+    private int spinProbe;
+
+    /**
+     * 排队的时候怎么等，null就是默认的自适应自旋+park
+     */
+    private final WaitStrategy waitStrategy;
+
+    /**
+     * 竞争统计，只有开了LockMetrics.ENABLED而且锁有名字的时候才不是null
+     * 下面用的地方都先判断ENABLED，关着的时候整个分支都被jit删掉
+     */
+    private final LockMetrics metrics;
+
+    /**
+     * 这次持锁是什么时候拿到的，开了统计才写；同名的锁共用一份LockMetrics，所以得存在锁自己身上
+     * 只有持锁的那个人在exclusiveAcquired/exclusiveReleased里读写，锁本身保证了可见性，普通字段就行
+     */
+    private long holdStart;
+
+    /**
+     * 锁的名字，统计和jfr事件里用，可以是null
+     */
+    private final String name;
+
+    /**
+     * @param waitStrategy null就是默认的自适应自旋+park
+     * @param name         统计和jfr事件里用的名字，见LockMetrics
+     */
+    QueuedSynchronizer(WaitStrategy waitStrategy, String name) {
+        this.waitStrategy = waitStrategy;
+        this.name = name;
+        this.metrics = name != null ? LockMetrics.of(name) : null;
+    }
+
+    /**
+     * state和exclusiveOwnerThread在父类StateFields里，默认不和head/tail隔开：每把锁都多占128字节不划算，
+     * 要和相邻的对象隔开的用ReentrantLock的padded模式
+     */
+    private volatile Node head;
+
+    private volatile Node tail;
+
+    static final VarHandle STATE;
+    private static final VarHandle HEAD;
+    private static final VarHandle TAIL;
+
+    static {
+        try {
+            MethodHandles.Lookup l = MethodHandles.lookup();
+            STATE = l.findVarHandle(StateFields.class, "state", long.class);
+            HEAD = l.findVarHandle(QueuedSynchronizer.class, "head", Node.class);
+            TAIL = l.findVarHandle(QueuedSynchronizer.class, "tail", Node.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private boolean compareAndSetHead(Node expect, Node update) {
+        return HEAD.compareAndSet(this, expect, update);
+    }
+
+    private boolean compareAndSetTail(Node expect, Node update) {
+        return TAIL.compareAndSet(this, expect, update);
+    }
+
+    /**
+     * 第一次有人排队的时候才创建那个空的头节点
+     * 抢不到的人直接回去重新读tail就好，tail在head之后才设置，所以只会看到null或者初始化好的队列
+     */
+    private void initializeSyncQueue() {
+        Node h;
+        if (compareAndSetHead(null, h = new Node(null, 0))) {
+            tail = h;
+        }
+    }
+
+
+    /**
+     * 子类（门面）实现：把long的arg转成自己的类型，调对应的tryAcquire这些
+     */
+    abstract boolean tryAcquire0(long arg);
+
+    abstract boolean tryRelease0(long arg);
+
+    abstract long tryAcquireShared0(long arg);
+
+    abstract boolean tryAcquireAsync0(long arg);
+
+    abstract boolean tryReleaseAsync0(long arg);
+
+    /**
+     * 慢路径：入队然后排队等
+     * lock()不响应中断，排队的时候被中断了只是记下来，拿到锁之后再把中断标记补回去
+     *
+     * @param arg
+     */
+    final void acquireSlow(long arg) {
+        long since = waitStart();
+        LockWaitEvent event = beginWaitEvent(false, Long.MIN_VALUE);
+        boolean interrupted;
+        try {
+            interrupted = acquireQueued(addWaiter(Node.EXCLUSIVE), arg);
+        } catch (Throwable t) {
+            waitEnd(since, false);
+            commitWaitEvent(event, LockWaitEvent.CANCELLED);
+            throw t;
+        }
+        waitEnd(since, true);
+        commitWaitEvent(event, LockWaitEvent.ACQUIRED);
+        if (interrupted) {
+            selfInterrupt();
+        }
+    }
+
+    /**
+     * 可以被中断的获取，排队的时候被中断了就立刻出队然后抛异常，不会一直挂在锁上
+     *
+     * @param arg
+     * @throws InterruptedException
+     */
+    final void doAcquireInterruptibly(long arg) throws InterruptedException {
+        long since = waitStart();
+        LockWaitEvent event = beginWaitEvent(false, Long.MIN_VALUE);
+        Node node = addWaiter(Node.EXCLUSIVE);
+        try {
+            for (int round = 0; ; ) {
+                Node p = node.prev;
+                if (p == head && tryAcquire0(arg)) {
+                    setHead(node);
+                    p.clearNextRelaxed();
+                    Node.recycle(p);
+                    waitEnd(since, true);
+                    commitWaitEvent(event, LockWaitEvent.ACQUIRED);
+                    return;
+                }
+                if (readyToPark(p, node, round++)) {
+                    round = 0;
+                    if (parkAndCheckInterrupt()) {
+                        throw new InterruptedException();
+                    }
+                } else if (Thread.interrupted()) {
+                    //自旋的时候没有park帮忙检查中断，自己看一下
+                    throw new InterruptedException();
+                }
+            }
+        } catch (Throwable t) {
+            //中断或者tryAcquire抛异常都走这里，马上把自己从队列里摘掉
+            cancelAcquire(node);
+            waitEnd(since, false);
+            commitWaitEvent(event, LockWaitEvent.CANCELLED);
+            throw t;
+        }
+    }
+
+    /**
+     * park住，醒了之后看看是不是被中断叫醒的（顺便把中断标记清掉）
+     *
+     * @return
+     */
+    private boolean parkAndCheckInterrupt() {
+        parked();
+        LockSupport.park(this);
+        return Thread.interrupted();
+    }
+
+    /**
+     * 把中断标记补回去
+     */
+    static void selfInterrupt() {
+        Thread.currentThread().interrupt();
+    }
+
+    /**
+     * 统计用的名字对应的LockMetrics，没开统计或者没名字就是null
+     *
+     * @return
+     */
+    public final LockMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 子类真正拿到锁的时候调（重入不算），统计次数和持锁时间
+     */
+    protected final void exclusiveAcquired() {
+        LockMetrics m;
+        if (LockMetrics.ENABLED && (m = metrics) != null) {
+            holdStart = m.acquired();
+        }
+    }
+
+    /**
+     * 子类彻底释放的时候调，要在setState之前，不然记的可能是下一个人的开始时间
+     */
+    protected final void exclusiveReleased() {
+        LockMetrics m;
+        if (LockMetrics.ENABLED && (m = metrics) != null) {
+            m.released(holdStart);
+        }
+    }
+
+    private long waitStart() {
+        LockMetrics m;
+        return LockMetrics.ENABLED && (m = metrics) != null ? m.enqueued() : 0L;
+    }
+
+    private void waitEnd(long since, boolean acquired) {
+        LockMetrics m;
+        if (LockMetrics.ENABLED && (m = metrics) != null) {
+            m.dequeued(since, acquired);
+        }
+    }
+
+    private void timedOut(long since) {
+        LockMetrics m;
+        if (LockMetrics.ENABLED && (m = metrics) != null) {
+            m.timedOut();
+            m.dequeued(since, false);
+        }
+    }
+
+    private void parked() {
+        LockMetrics m;
+        if (LockMetrics.ENABLED && (m = metrics) != null) {
+            m.parked();
+        }
+    }
+
+    /**
+     * 开始一个jfr排队事件，jfr没在录或者这个事件没打开就返回null，后面什么都不做
+     * 只在慢路径上调，快路径拿到锁的完全不会走到这里；没在录的时候先看JfrRecording，不new事件对象
+     *
+     * @param shared
+     * @param timeout 不限时传Long.MIN_VALUE
+     * @return
+     */
+    private LockWaitEvent beginWaitEvent(boolean shared, long timeout) {
+        if (!JfrRecording.isRunning()) {
+            return null;
+        }
+        LockWaitEvent event = new LockWaitEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        event.ownerAtEnqueue = exclusiveOwnerThread;
+        event.shared = shared;
+        event.timeout = timeout;
+        return event;
+    }
+
+    /**
+     * 排队结束，没到阈值的shouldCommit会返回false，直接丢掉
+     *
+     * @param event
+     * @param outcome LockWaitEvent里的那几个常量
+     */
+    private void commitWaitEvent(LockWaitEvent event, String outcome) {
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.lockClass = getClass();
+                event.lockId = System.identityHashCode(this);
+                event.lockName = name;
+                event.outcome = outcome;
+                event.commit();
+            }
+        }
+    }
+
+
+    /**
+     * 在一段时间内尝试获取
+     *
+     * @param arg
+     * @param nanosTimeout
+     * @return
+     * @throws InterruptedException
+     */
+    final boolean doAcquireNanos(long arg, long nanosTimeout) throws InterruptedException {
+        if (nanosTimeout <= 0L) {
+            return false;
+        } else {
+            //设置一个等待时间
+            long deadline = System.nanoTime() + nanosTimeout;
+            long since = waitStart();
+            LockWaitEvent event = beginWaitEvent(false, nanosTimeout);
+            //创建一个节点并插入到队列里去
+            Node node = this.addWaiter(Node.EXCLUSIVE);
+
+            try {
+                for (int round = 0; ; ) {
+                    //检查他前一个节点
+                    Node p = node.prev;
+                    //如果他前一个节点是空头结点，那么他就可以走tryAcquire的流程了
+                    if (p == this.head && this.tryAcquire0(arg)) {
+                        //如果获取成功了，那么接下来的部分应该是线程安全了的
+                        //当前node变成头节点
+                        setHead(node);
+                        //把前面那个空头节点的关联取消了使得其会被gc
+                        p.clearNextRelaxed();
+                        Node.recycle(p);
+                        waitEnd(since, true);
+                        commitWaitEvent(event, LockWaitEvent.ACQUIRED);
+                        return true;
+                    }
+
+                    //检查剩余时间
+                    nanosTimeout = deadline - System.nanoTime();
+                    if (nanosTimeout <= 0L) {
+                        //如果时间到了，那么就不用尝试了直接失败
+                        this.cancelAcquire(node);
+                        timedOut(since);
+                        commitWaitEvent(event, LockWaitEvent.TIMEOUT);
+                        return false;
+                    }
+
+                    //park一段时间 醒了之后再去查看
+                    if (readyToPark(p, node, round++) && nanosTimeout > SPIN_FOR_TIMEOUT_THRESHOLD) {
+                        round = 0;
+                        parked();
+                        LockSupport.parkNanos(this, nanosTimeout);
+                    }
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                }
+            } catch (Throwable t) {
+                cancelAcquire(node);
+                waitEnd(since, false);
+                commitWaitEvent(event, LockWaitEvent.CANCELLED);
+                throw t;
+            }
+        }
+    }
+
+    /**
+     * 队列里还在等的线程数（acquireAsync排队的也算），取消了的节点没有等待者，不算
+     * 只是个估计值，遍历的时候队列还在变
+     *
+     * @return
+     */
+    public final int getQueueLength() {
+        int n = 0;
+        for (Node p = tail; p != null; p = p.prev) {
+            if (p.hasWaiter()) {
+                ++n;
+            }
+        }
+        return n;
+    }
+
+    public final boolean hasQueuedThreads() {
+        for (Node p = tail, h = head; p != h && p != null; p = p.prev) {
+            if (p.status() <= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 把一个排队的节点ban出去取消掉
+     * 超时、中断或者tryAcquire抛了异常的时候调用，只有节点自己的线程会调
+     * 取消之后要保证两件事：节点尽快从队列里摘掉（不然队列越来越长），以及不能把该有的唤醒弄丢
+     *
+     * @param node
+     */
+    private void cancelAcquire(Node node) {
+        if (node == null) {
+            return;
+        }
+
+        //线程清空，这样别人遍历的时候（比如getQueueLength）就知道这个节点已经没人了
+        node.clearThreadRelaxed();
+
+        //从这个地方向前找，前面连着的取消节点一起跳过，直到找到一个还活着的前驱
+        //只有自己的线程会改自己的prev，所以这里不用cas
+        Node pred = node.prev;
+        while (pred.status() > 0) {
+            node.prev = pred = pred.prev;
+        }
+
+        //后面cas pred.next要用到，失败了说明别人（另一个取消的或者新入队的）已经处理过了，不用管
+        Node predNext = pred.next;
+
+        //这一步之后其他节点就会跳过我了，用普通写也行，这里用volatile写保证尽早可见
+        node.setStatus(Node.CANCELLED);
+
+        if (node == tail && compareAndSetTail(node, pred)) {
+            //我是最后一个，直接把自己从尾巴上摘掉
+            pred.compareAndSetNext(predNext, null);
+        } else {
+            //pred在我们看的同时可能变成头又被换下来回收掉，所以用signalSuccessor，旧引用上最多多一个SIGNAL
+            if (pred != head && pred.signalSuccessor() && pred.hasWaiter()) {
+                //前驱活着而且答应了会唤醒后面的人，那就把我的后继直接接到前驱后面
+                //pred被复用过的话next被清成了null，之后只会连新入队的节点，不会等于非null的predNext（取消的节点不回收），cas会失败
+                //predNext是null就不抄近路了，后继自己在shouldParkAfterFailedAcquire里会跳过我
+                Node next = node.next;
+                if (predNext != null && next != null && next.status() <= 0) {
+                    pred.compareAndSetNext(predNext, next);
+                }
+            } else {
+                //前驱是头节点，或者前驱自己也刚被取消了，没法保证后继会被叫醒
+                //那就直接叫醒后继，让它自己在shouldParkAfterFailedAcquire里跳过取消的节点重新找前驱
+                //自己已经是CANCELLED，不用清状态
+                wakeSuccessor(node);
+            }
+
+            //help GC，同时next指向自己也让isOnSyncQueue之类的判断知道它出过队
+            node.next = node;
+        }
+    }
+
+
+    /**
+     * 创建一个节点并插入到队列里去
+     *
+     * @param mode Node.EXCLUSIVE或者Node.SHARED
+     * @return
+     */
+    private Node addWaiter(Node mode) {
+        //创建一个节点记录当前线程的情况，有回收来的旧节点就用旧的
+        Node node = Node.obtain(mode, 0);
+        enq(node);
+        return node;
+    }
+
+    /**
+     * 插入到队列尾部，返回原来的尾节点（也就是前驱）
+     * 条件队列转移到同步队列的时候也用这个
+     *
+     * @param node
+     * @return
+     */
+    private Node enq(Node node) {
+        node.enqueuedAt = System.nanoTime();
+        //进行插入 and 特定位置进行轮询
+        //接下来这段会是并发操作
+        for (; ; ) {
+            //指向当前的尾节点
+            Node oldTail = tail;
+            //如果尾节点是空的，则代表需要初始化这个等待队列
+            if (oldTail == null) {
+                initializeSyncQueue();
+                continue;
+            }
+            //设置好两个节点的前后关系，node是你新加的节点，oldTail是你现在取得到的最后的节点
+            //这里不需要volatile写，下面cas tail成功的时候会一起发布出去，失败了下一轮会重新写
+            node.setPrevRelaxed(oldTail);
+            //如果现在尾节点还是之前取得的oldTail的值，那么我们就把尾节点替换为node节点
+            if (compareAndSetTail(oldTail, node)) {
+                //现在node是最后一个节点了，oldTail不是最后的了，所以下一个就是node这个了
+                oldTail.next = node;
+                return oldTail;
+            }
+        }
+    }
+
+    /**
+     * 把一串已经用prev连好的节点first..last一次性接到队尾，只cas一次tail
+     * 链内部的next要等cas成功之后才补上：isOnSyncQueue认为有next的节点一定已经在队列里了
+     *
+     * @param first
+     * @param last
+     * @return 原来的尾节点
+     */
+    private Node enqChain(Node first, Node last) {
+        long now = System.nanoTime();
+        for (Node n = last; ; n = n.prev) {
+            n.enqueuedAt = now;
+            if (n == first) {
+                break;
+            }
+        }
+        for (; ; ) {
+            Node oldTail = tail;
+            if (oldTail == null) {
+                initializeSyncQueue();
+                continue;
+            }
+            first.setPrevRelaxed(oldTail);
+            if (compareAndSetTail(oldTail, last)) {
+                for (Node n = last; n != first; ) {
+                    Node p = n.prev;
+                    p.next = n;
+                    n = p;
+                }
+                oldTail.next = first;
+                return oldTail;
+            }
+        }
+    }
+
+
+    /**
+     * 在队列里排队直到拿到为止，不响应中断
+     *
+     * @param node
+     * @param acquires
+     * @return 排队期间有没有被中断过，由调用方决定怎么处理
+     */
+    final boolean acquireQueued(Node node, long acquires) {
+        try {
+            return doAcquireQueued(node, acquires);
+        } catch (Throwable t) {
+            //tryAcquire抛了异常（比如重入次数溢出），节点不能留在队列里
+            cancelAcquire(node);
+            throw t;
+        }
+    }
+
+    private boolean doAcquireQueued(Node node, long acquires) {
+        boolean interrupted = false;
+        //每次醒过来最多自旋一轮，配了WaitStrategy的话由策略决定怎么等，这里就不自旋了
+        boolean spun = waitStrategy != null;
+        int round = 0;
+        for (; ; ) {
+            //获取前一个节点(源码还考虑了前一个是空的情况，我懒得了，省略了)
+            Node p = node.prev;
+            //如果前一个节点是头节点，说明没有人排队了，则继续试图去tryAcquire试图获取锁
+            //排第一个的话先自旋一会儿，临界区很短的时候很快就能等到，省掉一次park/unpark
+            if (p == this.head) {
+                if (this.tryAcquire0(acquires) || (!spun && spinAcquire(acquires))) {
+                    //如果获取成功了，那么接下来的部分应该是线程安全了的
+                    //当前node变成头节点
+                    setHead(node);
+                    //把前面那个空头节点的关联取消了使得其会被gc
+                    p.clearNextRelaxed();
+                    Node.recycle(p);
+                    return interrupted;
+                }
+                spun = true;
+            }
+
+            //前驱答应唤醒之后才park，被唤醒之后继续执行，直到离开
+            //被中断叫醒的话记一下，继续排队
+            if (readyToPark(p, node, round++)) {
+                if (parkAndCheckInterrupt()) {
+                    interrupted = true;
+                }
+                spun = waitStrategy != null;
+                round = 0;
+            }
+        }
+    }
+
+    /**
+     * 排第一个的节点在park之前自旋等一会儿
+     * 预算是估计的持锁时间（圈数）的两倍，自旋老是失败就降到0，只偶尔探测一下
+     *
+     * @param acquires
+     * @return 自旋期间拿到了没有
+     */
+    private boolean spinAcquire(long acquires) {
+        int budget = spinBudget();
+        for (int i = 1; i <= budget; i++) {
+            Thread.onSpinWait();
+            if (tryAcquire0(acquires)) {
+                //滑动平均：new = old * 7/8 + i/8
+                spinEstimate += (i - spinEstimate) >> 3;
+                if (spinScore < 8) {
+                    spinScore++;
+                }
+                return true;
+            }
+        }
+        if (budget > 0 && spinScore > -8) {
+            spinScore -= 2;
+        }
+        return false;
+    }
+
+    private int spinBudget() {
+        if (spinScore < 0) {
+            //最近自旋基本都白转了，大部分时候直接park，每64次试一下最小预算
+            return (++spinProbe & 63) == 0 ? Math.min(MIN_SPINS, MAX_SPINS) : 0;
+        }
+        return Math.min(MAX_SPINS, Math.max(MIN_SPINS, spinEstimate << 1));
+    }
+
+    /**
+     * 拿到锁的节点变成新的空头节点
+     * 只有拿到锁的线程会调用，thread和prev用普通写就行，head本身的volatile写负责发布
+     *
+     * @param node
+     */
+    private void setHead(Node node) {
+        node.clearThreadRelaxed();
+        node.setPrevRelaxed(null);
+        head = node;
+    }
+
+    /**
+     * 没拿到锁之后，这一轮是原地等还是准备park
+     * 策略说继续转的话就不去设置前驱的SIGNAL，release看到头节点是0就不会unpark，正好省掉一次系统调用
+     * 前驱被取消了还是要走shouldParkAfterFailedAcquire，把取消的节点跳过去，不然永远等不到自己排第一
+     *
+     * @param pred
+     * @param node
+     * @param round 连续第几轮没拿到
+     * @return true表示前驱已经是SIGNAL了，可以park
+     */
+    private boolean readyToPark(Node pred, Node node, int round) {
+        WaitStrategy s = waitStrategy;
+        if (s != null && pred.status() <= 0 && !s.idle(round)) {
+            if ((round & STALL_ROUNDS_MASK) == STALL_ROUNDS_MASK && pred == head) {
+                headWaiterStalled(node);
+            }
+            return false;
+        }
+        if (shouldParkAfterFailedAcquire(pred, node)) {
+            if (pred == head) {
+                headWaiterStalled(node);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 排第一的节点这一轮没拿到、马上要park的时候调，每次醒过来最多一次；
+     * 按WaitStrategy一直不park的话每STALL_ROUNDS_MASK+1圈调一次
+     * 不在tryAcquire和自旋里调，那里每圈都要快
+     * 默认什么都不做，有界不公平的锁在这里看排第一的等了多久，决定要不要关上插队的门
+     *
+     * @param node 排第一的节点，node.enqueuedAt是它进同步队列的时间
+     */
+    void headWaiterStalled(Node node) {
+    }
+
+    private boolean shouldParkAfterFailedAcquire(Node pred, Node node) {
+        int ws = pred.status();
+        if (ws == Node.SIGNAL) {
+            //前驱已经答应会叫醒我了，可以放心park
+            return true;
+        }
+        if (ws > 0) {
+            //前驱被取消了，一直往前跳过取消的节点，顺手把它们从队列里摘掉
+            do {
+                node.prev = pred = pred.prev;
+            } while (pred.status() > 0);
+            pred.next = node;
+        } else {
+            //0或者PROPAGATE，先标记SIGNAL，不过这次不park，回去再try一次，免得刚好错过release
+            pred.signalSuccessor();
+        }
+        return false;
+    }
+
+
+    final boolean release0(long arg) {
+        if (tryRelease0(arg)) {
+            signalAfterRelease();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * tryRelease成功之后调，唤醒后继线程
+     * waitStatus还是0说明后面的人还没把自己标记成要park（或者它在按WaitStrategy自旋），它会再try一次的，不用去唤醒
+     * 读完状态再确认一次h还是头：是头的话就不会被回收，读到的代数是对的，后面带代数cas
+     * 不是头了说明已经有人拿到锁接班了，叫醒下一个是它的事
+     */
+    final void signalAfterRelease() {
+        Node h = head;
+        if (h != null) {
+            int w = h.waitStatus;
+            if (Node.status(w) != 0 && h == head) {
+                unparkSuccessor(h, w);
+            }
+        }
+    }
+
+    /**
+     * 唤醒后继是慢路径，不放在release里面
+     *
+     * @param node 确认过还是头节点的时候读的
+     * @param word 那时候读到的waitStatus，带着代数
+     */
+    private void unparkSuccessor(Node node, int word) {
+
+        //先把SIGNAL清掉，后继醒来要是还拿不到会自己再设置回去
+        //node在这之后被换下来复用了的话代数不一样，cas失败，不会清掉别人的SIGNAL
+        if (Node.status(word) < 0) {
+            node.compareAndSetWord(word, 0);
+        }
+        wakeSuccessor(node);
+    }
+
+    /**
+     * node可能已经是旧引用了，next/prev指到了别的地方，那样最多叫醒一个无关的线程（park本来就允许假醒）
+     * 真正该醒的那个已经拿到锁了，不会漏
+     *
+     * @param node
+     */
+    private void wakeSuccessor(Node node) {
+        Node s = firstLiveAfter(node);
+        if (s instanceof AsyncWaiter) {
+            //acquireAsync排队的节点没有线程可以unpark，把它的续体丢到executor上跑
+            ((AsyncWaiter<?>) s).wake();
+        } else if (s != null) {
+            LockSupport.unpark(s.thread);
+        }
+    }
+
+    /**
+     * node后面第一个没取消的节点，没有就是null
+     * next只是个捷径：入队的时候是先cas tail再连next的，所以next是null不代表后面没人
+     * 先顺着next跳过取消的节点，next只会绕过取消的节点，不会跳过活着的，一般走几步就到了；
+     * next断了（还没连上，或者碰到了指向自己的取消节点）才从tail往前找
+     * 原来是后继一取消就从tail往前扫一整遍，排着上百万个虚拟线程的时候每次都是O(n)
+     *
+     * @param node
+     * @return
+     */
+    private Node firstLiveAfter(Node node) {
+        Node s = node.next;
+        while (s != null && s.status() > 0) {
+            Node n = s.next;
+            s = n == s ? null : n;
+        }
+        if (s == null) {
+            for (Node p = tail; p != node && p != null; p = p.prev) {
+                if (p.status() <= 0) {
+                    s = p;
+                }
+            }
+        }
+        return s;
+    }
+
+
+    /**
+     * 不占线程的独占获取，拿到了future完成成result，AsyncLock.lockAsync用的就是这个
+     * 排队的节点（AsyncWaiter）和线程的节点在同一个队列里，只是挂的不是线程而是一个续体，
+     * 轮到它的时候不unpark，而是把续体丢到executor上跑一轮“排第一就试一下，拿不到就等前驱叫”
+     * 拿到之后锁不属于任何线程，用releaseAsync放
+     * 调用方cancel掉future就退出排队；拿到了才发现future被cancel了就直接放掉
+     *
+     * @param arg
+     * @param result   拿到之后future的值
+     * @param executor 叫醒之后的尝试和future的完成在这上面跑，超时的回调也是
+     * @param timed    限时的话超时了future完成成null
+     * @return
+     */
+    final <T> CompletableFuture<T> doAcquireAsync(long arg, T result, Executor executor, boolean timed, long nanosTimeout) {
+        Objects.requireNonNull(executor);
+        //快路径在调用线程上直接试，拿到了不用过executor
+        if (tryAcquireAsync0(arg)) {
+            return CompletableFuture.completedFuture(result);
+        }
+        if (timed && nanosTimeout <= 0L) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<T> future = new CompletableFuture<>();
+        AsyncWaiter<T> node = new AsyncWaiter<>(this, arg, result, future, executor, waitStart());
+        enq(node);
+        future.whenComplete((r, t) -> {
+            if (future.isCancelled()) {
+                node.expire();
+            }
+        });
+        if (timed) {
+            //拿到了也撤不掉，到点之后跑一下空的，节点要留到那时候才能被gc
+            CompletableFuture.delayedExecutor(nanosTimeout, TimeUnit.NANOSECONDS, executor).execute(node::expire);
+        }
+        //wakes初始是1，第一轮就在调用线程上跑：入队之后锁可能刚好放了，前驱也还没答应叫醒
+        node.run();
+        return future;
+    }
+
+    /**
+     * AsyncWaiter被叫醒之后跑的一轮，相当于doAcquireQueued里的一圈，只是拿不到的时候不park，直接返回等下次被叫醒
+     * 同一个节点同一时刻只有一个线程在跑这个，见AsyncWaiter.run
+     *
+     * @param node
+     * @return 节点是不是已经结束了（拿到了或者出队了）
+     */
+    private boolean asyncStep(AsyncWaiter<?> node) {
+        for (; ; ) {
+            if (node.expired) {
+                node.done = true;
+                cancelAcquire(node);
+                if (node.future.isCancelled()) {
+                    waitEnd(node.since, false);
+                } else {
+                    timedOut(node.since);
+                    node.future.complete(null);
+                }
+                return true;
+            }
+            Node p = node.prev;
+            if (p == head) {
+                //公平锁的hasQueuedPredecessors拿排第一的节点的thread和当前线程比，试的这一下当前线程替节点站个位
+                node.setThreadRelaxed(Thread.currentThread());
+                boolean acquired;
+                try {
+                    acquired = tryAcquireAsync0(node.arg);
+                } catch (Throwable t) {
+                    node.done = true;
+                    cancelAcquire(node);
+                    waitEnd(node.since, false);
+                    node.future.completeExceptionally(t);
+                    return true;
+                }
+                if (acquired) {
+                    node.done = true;
+                    setHead(node);
+                    p.clearNextRelaxed();
+                    Node.recycle(p);
+                    waitEnd(node.since, true);
+                    if (!node.complete()) {
+                        //排队的时候future被cancel了，没人会来放这把锁
+                        releaseAsync0(node.arg);
+                    }
+                    return true;
+                }
+                node.clearThreadRelaxed();
+            }
+            if (shouldParkAfterFailedAcquire(p, node)) {
+                if (p == head) {
+                    headWaiterStalled(node);
+                }
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 放掉acquireAsync拿到的锁，和release一样，只是走tryReleaseAsync，哪个线程调都行
+     *
+     * @param arg
+     * @return
+     */
+    final boolean releaseAsync0(long arg) {
+        if (tryReleaseAsync0(arg)) {
+            signalAfterRelease();
+            return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * 共享模式的获取，比如信号量、CountDownLatch、读锁
+     * 和独占的区别就是一个人拿到了之后，如果还有剩余，要顺带把后面共享的人也叫醒
+     *
+     * @param arg
+     */
+    final void doAcquireShared(long arg) {
+        long since = waitStart();
+        LockWaitEvent event = beginWaitEvent(true, Long.MIN_VALUE);
+        Node node = addWaiter(Node.SHARED);
+        boolean interrupted = false;
+        try {
+            for (int round = 0; ; ) {
+                Node p = node.prev;
+                if (p == head) {
+                    long r = tryAcquireShared0(arg);
+                    if (r >= 0) {
+                        //拿到了，自己当头节点，还有剩余的话接着叫醒后面的
+                        setHeadAndPropagate(node, r);
+                        p.clearNextRelaxed();
+                        Node.recycle(p);
+                        waitEnd(since, true);
+                        commitWaitEvent(event, LockWaitEvent.ACQUIRED);
+                        if (interrupted) {
+                            selfInterrupt();
+                        }
+                        return;
+                    }
+                }
+                if (readyToPark(p, node, round++)) {
+                    round = 0;
+                    if (parkAndCheckInterrupt()) {
+                        interrupted = true;
+                    }
+                }
+            }
+        } catch (Throwable t) {
+            cancelAcquire(node);
+            waitEnd(since, false);
+            commitWaitEvent(event, LockWaitEvent.CANCELLED);
+            throw t;
+        }
+    }
+
+    final void doAcquireSharedInterruptibly(long arg) throws InterruptedException {
+        long since = waitStart();
+        LockWaitEvent event = beginWaitEvent(true, Long.MIN_VALUE);
+        Node node = addWaiter(Node.SHARED);
+        try {
+            for (int round = 0; ; ) {
+                Node p = node.prev;
+                if (p == head) {
+                    long r = tryAcquireShared0(arg);
+                    if (r >= 0) {
+                        setHeadAndPropagate(node, r);
+                        p.clearNextRelaxed();
+                        Node.recycle(p);
+                        waitEnd(since, true);
+                        commitWaitEvent(event, LockWaitEvent.ACQUIRED);
+                        return;
+                    }
+                }
+                if (readyToPark(p, node, round++)) {
+                    round = 0;
+                    if (parkAndCheckInterrupt()) {
+                        throw new InterruptedException();
+                    }
+                } else if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } catch (Throwable t) {
+            cancelAcquire(node);
+            waitEnd(since, false);
+            commitWaitEvent(event, LockWaitEvent.CANCELLED);
+            throw t;
+        }
+    }
+
+    final boolean doAcquireSharedNanos(long arg, long nanosTimeout) throws InterruptedException {
+        if (nanosTimeout <= 0L) {
+            return false;
+        }
+        long deadline = System.nanoTime() + nanosTimeout;
+        long since = waitStart();
+        LockWaitEvent event = beginWaitEvent(true, nanosTimeout);
+        Node node = addWaiter(Node.SHARED);
+        try {
+            for (int round = 0; ; ) {
+                Node p = node.prev;
+                if (p == head) {
+                    long r = tryAcquireShared0(arg);
+                    if (r >= 0) {
+                        setHeadAndPropagate(node, r);
+                        p.clearNextRelaxed();
+                        Node.recycle(p);
+                        waitEnd(since, true);
+                        commitWaitEvent(event, LockWaitEvent.ACQUIRED);
+                        return true;
+                    }
+                }
+                nanosTimeout = deadline - System.nanoTime();
+                if (nanosTimeout <= 0L) {
+                    cancelAcquire(node);
+                    timedOut(since);
+                    commitWaitEvent(event, LockWaitEvent.TIMEOUT);
+                    return false;
+                }
+                if (readyToPark(p, node, round++) && nanosTimeout > SPIN_FOR_TIMEOUT_THRESHOLD) {
+                    round = 0;
+                    parked();
+                    LockSupport.parkNanos(this, nanosTimeout);
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } catch (Throwable t) {
+            cancelAcquire(node);
+            waitEnd(since, false);
+            commitWaitEvent(event, LockWaitEvent.CANCELLED);
+            throw t;
+        }
+    }
+
+    /**
+     * 自己变成头节点，然后看要不要继续往后传播
+     * propagate > 0说明还有剩余；另外新旧头节点的waitStatus是负的（SIGNAL或者PROPAGATE）也要传播，
+     * 因为可能有并发的releaseShared把PROPAGATE设在了旧的头上，那次唤醒得由我们接着往下传
+     * 这里宁可多唤醒一次也不能漏，多醒的人拿不到会自己再park
+     *
+     * @param node
+     * @param propagate
+     */
+    private void setHeadAndPropagate(Node node, long propagate) {
+        Node h = head;
+        setHead(node);
+        if (propagate > 0 || h == null || h.status() < 0 ||
+                (h = head) == null || h.status() < 0) {
+            Node s = node.next;
+            if (s == null || s.isShared()) {
+                doReleaseShared();
+            }
+        }
+    }
+
+    /**
+     * 共享模式的唤醒
+     * 头节点是SIGNAL就清掉然后唤醒后继；是0的话说明后继还没来得及设置SIGNAL，就改成PROPAGATE，
+     * 这样后继在setHeadAndPropagate里能看到有人释放过，继续往下传
+     * 被叫醒的共享节点拿到之后变成新的头，也会走到这里，于是就一个接一个地连锁唤醒下去，而不是每次release只醒一个
+     * 最后头节点没变过才退出，变了说明有人接班了，要帮着再处理一下新的头
+     */
+    final void doReleaseShared() {
+        for (; ; ) {
+            Node h = head;
+            if (h != null && h != tail) {
+                int w = h.waitStatus;
+                if (h != head) {
+                    //和release一样，确认h还是头，读到的代数才作数
+                    continue;
+                }
+                int ws = Node.status(w);
+                if (ws == Node.SIGNAL) {
+                    if (!h.compareAndSetWord(w, 0)) {
+                        continue;
+                    }
+                    wakeSuccessor(h);
+                } else if (ws == 0 && !h.compareAndSetWord(w, Node.PROPAGATE)) {
+                    continue;
+                }
+            }
+            if (h == head) {
+                break;
+            }
+        }
+    }
+
+
+    /**
+     * 直接暴力释放
+     * 失败了（比如根本没拿着锁就去await）节点就作废了，标记成取消，后面会被unlinkCancelledWaiters清理掉
+     */
+    final long fullyRelease(Node node) {
+        try {
+            long savedState = state;
+            if (release0(savedState)) {
+                return savedState;
+            } else {
+                throw new IllegalMonitorStateException();
+            }
+        } catch (Throwable t) {
+            node.setStatus(Node.CANCELLED);
+            throw t;
+        }
+    }
+
+
+    /**
+     * 一个检查前面是否有人排队的方法
+     * 公平锁每次tryAcquire都要调，所以找第一个排队的节点和唤醒用的是同一个firstLiveAfter，不会动不动就扫整个队列
+     *
+     * @return
+     */
+    public final boolean hasQueuedPredecessors() {
+        Node h;
+        if ((h = this.head) != null) {
+            Node s = firstLiveAfter(h);
+            if (s != null && s.thread != Thread.currentThread()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 排第一个的节点进同步队列多久了，没人排队就是-1
+     * 有界不公平的锁靠它决定什么时候不让插队，要读一次时钟，只在没抢到锁、或者已经不让插队的慢路径上调
+     *
+     * @return 纳秒
+     */
+    protected final long headWaiterQueuedNanos() {
+        Node h = head, s;
+        if (h == null || (s = firstLiveAfter(h)) == null) {
+            return -1L;
+        }
+        return System.nanoTime() - s.enqueuedAt;
+    }
+
+    /**
+     * 队列里排第一个的看起来是不是在等独占（比如写锁）
+     * 非公平的读锁用这个判断要不要让一让，免得写线程被源源不断的读线程饿死
+     * 只看head.next，看不到也没关系，只是一个启发式的判断
+     *
+     * @return
+     */
+    final boolean apparentlyFirstQueuedIsExclusive() {
+        Node h, s;
+        return (h = head) != null &&
+                (s = h.next) != null &&
+                !s.isShared() &&
+                s.hasWaiter();
+    }
+
+    /**
+     * @author Lehr
+     * @create: 2020-09-19
+     */
+    static class Node {
+
+
+        public volatile Node prev;
+        public volatile Node next;
+
+        private static final VarHandle WAITSTATUS;
+        private static final VarHandle PREV;
+        private static final VarHandle NEXT;
+        private static final VarHandle THREAD;
+
+        static {
+            try {
+                MethodHandles.Lookup l = MethodHandles.lookup();
+                WAITSTATUS = l.findVarHandle(Node.class, "waitStatus", int.class);
+                PREV = l.findVarHandle(Node.class, "prev", Node.class);
+                NEXT = l.findVarHandle(Node.class, "next", Node.class);
+                THREAD = l.findVarHandle(Node.class, "thread", Thread.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        //由于超时或中断，节点已被取消
+        static final int CANCELLED = 1;
+        //表示下一个节点是通过park堵塞的，需要通过unpark唤醒
+        static final int SIGNAL = -1;
+        //表示线程在等待条件变量（先获取锁，加入到条件等待队列，然后释放锁，等待条件变量满足条件；只有重新获取锁之后才能返回）
+        static final int CONDITION = -2;
+        //表示后续结点会传播唤醒的操作，共享模式下起作用
+        static final int PROPAGATE = -3;
+
+        /**
+         * 原来每个节点里还要再new一个AtomicInteger，现在直接是字段本身
+         * 低8位是上面那几个状态，读的时候走status()；高24位是代数，节点每被复用一次加一
+         * 别的线程手里可能还拿着这个节点上一辈子的旧引用（比如release读到的旧head），
+         * 带着代数cas的话，节点换了一辈子cas就一定失败，不会把新主人的SIGNAL清掉（ABA）
+         */
+        volatile int waitStatus;
+
+        /**
+         * 进同步队列的时间（System.nanoTime），见headWaiterQueuedNanos
+         * 普通写，入队cas tail的时候一起发布出去；从条件队列转过来的节点按转过来的时间算
+         */
+        long enqueuedAt;
+
+        private static final int STATUS_MASK = 0xFF;
+        private static final int GEN_UNIT = 1 << 8;
+
+        /**
+         * 每个线程手里留一个回收来的节点，下次排队（addWaiter/addConditionWaiter）直接拿来用，省掉new Node
+         * 只回收变成头节点之后又被下一个拿到锁的人换下来的旧头，取消的节点不回收
+         * 稳定下来之后排队和await/signal来回都不new东西，还会分配的只有：每个线程第一次排队；超时、中断取消之后的下一次排队
+         * （取消的节点没回收，手里是空的）；虚拟线程和AsyncWaiter；jfr在录的时候的LockWaitEvent/ConditionAwaitEvent（见JfrRecording）
+         */
+        private static final ThreadLocal<Node[]> SPARE = ThreadLocal.withInitial(() -> new Node[1]);
+
+        /**
+         * Thread::isVirtual，21以下没有这个方法就是null
+         * 虚拟线程不留备用节点：一百万个虚拟线程每个都要建一张ThreadLocalMap，比节点本身大好几倍，而且虚拟线程一般用完就扔，留着也复用不上
+         */
+        private static final MethodHandle IS_VIRTUAL = isVirtualHandle();
+
+        private static MethodHandle isVirtualHandle() {
+            try {
+                return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+            } catch (ReflectiveOperationException e) {
+                return null;
+            }
+        }
+
+        static boolean isVirtual(Thread t) {
+            if (IS_VIRTUAL == null) {
+                return false;
+            }
+            try {
+                return (boolean) IS_VIRTUAL.invokeExact(t);
+            } catch (Throwable e) {
+                throw new AssertionError(e);
+            }
+        }
+
+
+        //其实我觉得nextWaiter和next一起用也可以啊？反正我看源码分开写了我也分开写了
+        //豁然开朗：原来这个是在IsOnSyncQueue的那个方法做快速检测做的
+        //在同步队列里的时候这个字段拿来标记模式，SHARED表示共享，null表示独占，条件队列里才是真的下一个
+        Node nextWaiter;
+
+        /**
+         * 共享模式的标记节点，本身不会入队
+         */
+        static final Node SHARED = new Node(null, 0);
+        /**
+         * 独占模式就是null
+         */
+        static final Node EXCLUSIVE = null;
+
+        public volatile Thread thread;
+
+        /**
+         * 构造的时候节点还没发布出去，没必要付volatile写的代价，入队的cas会把这些一起发布
+         */
+        public Node() {
+            THREAD.set(this, Thread.currentThread());
+        }
+
+        final boolean isShared() {
+            return nextWaiter == SHARED;
+        }
+
+        /**
+         * 还有没有人在等这个节点：线程节点看thread，出队（拿到了/取消了）的时候清掉；AsyncWaiter自己记
+         */
+        boolean hasWaiter() {
+            return thread != null;
+        }
+
+        Node(Thread thread, int waitStatus) { // Used by Condition
+            WAITSTATUS.set(this, waitStatus & STATUS_MASK);
+            THREAD.set(this, thread);
+        }
+
+        /**
+         * 给当前线程拿一个节点，有回收的就复用
+         *
+         * @param mode       Node.EXCLUSIVE/Node.SHARED，条件队列里是null
+         * @param waitStatus 初始状态
+         * @return
+         */
+        static Node obtain(Node mode, int waitStatus) {
+            Thread current = Thread.currentThread();
+            Node[] spare = isVirtual(current) ? null : SPARE.get();
+            Node n = spare != null ? spare[0] : null;
+            if (n == null) {
+                n = new Node(current, waitStatus);
+                n.nextWaiter = mode;
+                return n;
+            }
+            spare[0] = null;
+            n.nextWaiter = mode;
+            NEXT.set(n, null);
+            PREV.set(n, null);
+            THREAD.set(n, current);
+            //代数加一，旧引用的cas从这里开始全部失败；volatile写，看到新代数的人也一定看得到之前setHead里清掉的prev
+            n.waitStatus = (n.waitStatus + GEN_UNIT) & ~STATUS_MASK | waitStatus & STATUS_MASK;
+            return n;
+        }
+
+        /**
+         * 刚被换下来的旧头节点留给当前线程下次用
+         * 调用的时候节点已经不在任何队列里了：prev/thread在setHead里清掉了，next由调用方清掉，条件队列在await里摘干净了
+         */
+        static void recycle(Node n) {
+            //AsyncWaiter挂着future和executor，不当普通节点复用
+            if (n instanceof AsyncWaiter || isVirtual(Thread.currentThread())) {
+                return;
+            }
+            Node[] spare = SPARE.get();
+            if (spare[0] == null) {
+                spare[0] = n;
+            }
+        }
+
+        static int status(int word) {
+            return (byte) word;
+        }
+
+        final int status() {
+            return (byte) waitStatus;
+        }
+
+        /**
+         * 只比较状态，代数保持不变
+         * 只能用在节点不可能被复用的地方：自己的节点、自己的前驱、拿着锁操作的条件队列
+         */
+        final boolean compareAndSetWaitStatus(int expect, int update) {
+            int w = waitStatus;
+            return status(w) == expect &&
+                    WAITSTATUS.compareAndSet(this, w, w & ~STATUS_MASK | update & STATUS_MASK);
+        }
+
+        /**
+         * 带代数的cas，word是之前读到的完整waitStatus，节点在这期间被复用过就失败
+         */
+        final boolean compareAndSetWord(int word, int update) {
+            return WAITSTATUS.compareAndSet(this, word, word & ~STATUS_MASK | update & STATUS_MASK);
+        }
+
+        /**
+         * 标记成SIGNAL（后面有人等着被叫醒），已经是SIGNAL也算成功
+         * 拿的可能是旧引用，节点也许已经被复用成了别的队列里的节点，所以只从0/PROPAGATE改：
+         * 多一个SIGNAL顶多多叫醒一次，不会动CONDITION和CANCELLED
+         *
+         * @return 现在是不是SIGNAL
+         */
+        final boolean signalSuccessor() {
+            int w = waitStatus;
+            int ws = status(w);
+            return ws == SIGNAL || ((ws == 0 || ws == PROPAGATE) && compareAndSetWord(w, SIGNAL));
+        }
+
+        /**
+         * 只有节点自己的线程（或者拿着锁的时候）会调，代数不变
+         */
+        final void setStatus(int ws) {
+            waitStatus = waitStatus & ~STATUS_MASK | ws & STATUS_MASK;
+        }
+
+        final boolean compareAndSetNext(Node expect, Node update) {
+            return NEXT.compareAndSet(this, expect, update);
+        }
+
+        final void setWaitStatusRelaxed(int ws) {
+            WAITSTATUS.set(this, (int) WAITSTATUS.get(this) & ~STATUS_MASK | ws & STATUS_MASK);
+        }
+
+        final void setPrevRelaxed(Node p) {
+            PREV.set(this, p);
+        }
+
+        final void clearNextRelaxed() {
+            NEXT.set(this, null);
+        }
+
+        final void clearThreadRelaxed() {
+            THREAD.set(this, null);
+        }
+
+        final void setThreadRelaxed(Thread t) {
+            THREAD.set(this, t);
+        }
+
+    }
+
+
+    /**
+     * acquireAsync排队用的节点，thread平时是null，挂的是要完成的future和跑续体的executor
+     * 叫醒它就是wake()：往executor里丢一次run()
+     * wakes计数保证同一个节点同一时刻只有一个run()在跑，跑的中间又被叫醒的话跑完这一轮接着跑，和unpark的许可一样不会丢
+     * 对队列来说run()就是这个节点自己的线程，cancelAcquire、跳过取消的前驱这些只能节点自己做的事都在run()里做
+     */
+    static final class AsyncWaiter<T> extends Node implements Runnable {
+
+        private static final VarHandle WAKES;
+
+        static {
+            try {
+                WAKES = MethodHandles.lookup().findVarHandle(AsyncWaiter.class, "wakes", int.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final QueuedSynchronizer sync;
+        final long arg;
+        private final T result;
+        final CompletableFuture<T> future;
+        private final Executor executor;
+        final long since;
+
+        /**
+         * 还没处理的叫醒次数，从0加到1的那个人负责提交run()
+         * 创建的人自己先跑第一轮，所以从1开始；结束之后不再减，之后的wake()都不会再提交
+         */
+        private volatile int wakes = 1;
+
+        /**
+         * 超时了或者future被cancel了，下一轮出队
+         */
+        volatile boolean expired;
+
+        /**
+         * 拿到了或者出队了，只在run()里写
+         */
+        volatile boolean done;
+
+        AsyncWaiter(QueuedSynchronizer sync, long arg, T result, CompletableFuture<T> future, Executor executor, long since) {
+            super(null, 0);
+            this.sync = sync;
+            this.arg = arg;
+            this.result = result;
+            this.future = future;
+            this.executor = executor;
+            this.since = since;
+        }
+
+        @Override
+        boolean hasWaiter() {
+            return !done;
+        }
+
+        boolean complete() {
+            return future.complete(result);
+        }
+
+        void expire() {
+            expired = true;
+            wake();
+        }
+
+        void wake() {
+            if ((int) WAKES.getAndAdd(this, 1) == 0) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    //executor关了也不能把唤醒丢掉，就地跑
+                    run();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int n = wakes;
+            do {
+                if (sync.asyncStep(this)) {
+                    return;
+                }
+            } while ((n = (int) WAKES.getAndAdd(this, -n) - n) != 0);
+        }
+    }
+
+
+    public class ConditionObject implements Condition {
+
+        /**
+         * 用来维持队列的
+         */
+        private Node firstWaiter;
+        /**
+         * Last node of condition queue.
+         */
+        private Node lastWaiter;
+
+
+        /**
+         * Moves the longest-waiting thread, if one exists, from the
+         * wait queue for this condition to the wait queue for the
+         * owning lock.
+         * 唤醒在Condition里等待最长的节点也就是首节点
+         * 然后把这个节点在唤醒之前移动到同步队列
+         *
+         * @throws IllegalMonitorStateException if {@link #isHeldExclusively}
+         *                                      returns {@code false}
+         */
+        @Override
+        public final void signal() {
+            //检查当前线程是否获取到了锁，而await是在fullyRelease里处理的
+            if (!isHeldExclusively()) {
+                throw new IllegalMonitorStateException();
+            }
+            //找到第一个等待的
+            Node first = firstWaiter;
+            //如果不是空的，激活！
+            if (first != null) {
+                doSignal(first);
+            }
+
+        }
+
+        //todo https://juejin.im/post/6844903602419400718#heading-3
+        private void doSignal(Node first) {
+            //这个地方按理说应该也不会有并发问题？
+            do {
+                //如果没人了，清空队列  头元素变成下一个！
+                if ((firstWaiter = first.nextWaiter) == null) {
+                    lastWaiter = null;
+                }
+
+                //移出condition队列，则去掉nextWaiter的这个引用标记！！！
+                first.nextWaiter = null;
+
+            } while (!transferForSignal(first) &&
+                    (first = firstWaiter) != null);
+        }
+
+
+        final boolean transferForSignal(Node node) {
+            /*
+             * If cannot change waitStatus, the node has been cancelled.
+             */
+            if (!node.compareAndSetWaitStatus(Node.CONDITION, 0)) {
+                return false;
+            }
+
+
+            /*
+             * Splice onto queue and try to set waitStatus of predecessor to
+             * indicate that thread is (probably) waiting. If cancelled or
+             * attempt to set waitStatus fails, wake up to resync (in which
+             * case the waitStatus can be transiently and harmlessly wrong).
+             */
+            Node p = enq(node);
+
+            //node醒了的话可能已经拿到锁把p换下来回收了，p这时候是旧引用，signalSuccessor不会碰复用后的CONDITION
+            if (p.status() > 0 || !p.signalSuccessor()) {
+                LockSupport.unpark(node.thread);
+            }
+
+            return true;
+        }
+
+        public boolean isHeldExclusively() {
+            return exclusiveOwnerThread == Thread.currentThread();
+        }
+
+
+        /**
+         * 大概意思也就是，这个应该是同步队列里虚拟的首个位置的那个
+         * 我们要把他放入到Conditon的阻塞队列里来，然后同步队列里唤醒下一个Node
+         * 这个过程是线程安全的，因为是必须先Lock.lock获得了锁才能执行的
+         * 不然会报错的
+         *
+         * @throws InterruptedException
+         */
+        @Override
+        public final void await() throws InterruptedException {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+
+            //现在我们已经把这个node放到了condition队列的尾部了
+            Node node = addConditionWaiter();
+            ConditionAwaitEvent event = beginAwaitEvent(Long.MIN_VALUE);
+
+            //获取到之前加锁的state，释放锁，这个时候会唤醒同步队列的下一个节点
+            long savedState = fullyRelease(node);
+
+            int interruptMode = 0;
+            //检查这个节点是否被移到了同步队列里，这才是出口
+            while (!isOnSyncQueue(node)) {
+                //似乎这个blocker就只是用来排错的...
+                LockSupport.park(this);
+                //被中断了也要出来，自己转移到同步队列上去
+                if ((interruptMode = checkInterruptWhileWaiting(node)) != 0) {
+                    break;
+                }
+            }
+
+            //已经到了同步队列，于是乎就去尝试获取锁，之前aqs这套操作
+            //不管怎么样await返回的时候一定是重新拿着锁的
+            if (acquireQueued(node, savedState) && interruptMode != THROW_IE) {
+                interruptMode = REINTERRUPT;
+            }
+            commitAwaitEvent(event, awaitOutcome(false, interruptMode));
+            //被中断出来的节点没经过doSignal，还挂在条件队列里，顺手清理条件队列
+            //排在最后的话nextWaiter是null，也要清：节点以后会被回收复用，不能还被条件队列引用着
+            if (node.nextWaiter != null || lastWaiter == node) {
+                unlinkCancelledWaiters();
+            }
+            if (interruptMode != 0) {
+                reportInterruptAfterWait(interruptMode);
+            }
+        }
+
+        /**
+         * 在signal之后才被中断的，await正常返回，只是把中断标记补回去
+         */
+        private static final int REINTERRUPT = 1;
+        /**
+         * 在signal之前就被中断了，await要抛InterruptedException
+         */
+        private static final int THROW_IE = -1;
+
+        /**
+         * 没被中断返回0，被中断了要看是signal之前还是之后
+         *
+         * @param node
+         * @return
+         */
+        private int checkInterruptWhileWaiting(Node node) {
+            return Thread.interrupted() ?
+                    (transferAfterCancelledWait(node) ? THROW_IE : REINTERRUPT) :
+                    0;
+        }
+
+        /**
+         * 等待被中断或者超时以后，把节点自己转移到同步队列（拿回锁之后才能返回）
+         * cas成功说明是在signal之前取消的；失败说明signal已经在转移了，等它转移完就行，这种情况很短，yield一下
+         *
+         * @param node
+         * @return 是不是在signal之前取消的
+         */
+        final boolean transferAfterCancelledWait(Node node) {
+            if (node.compareAndSetWaitStatus(Node.CONDITION, 0)) {
+                enq(node);
+                return true;
+            }
+            while (!isOnSyncQueue(node)) {
+                Thread.yield();
+            }
+            return false;
+        }
+
+        private void reportInterruptAfterWait(int interruptMode) throws InterruptedException {
+            if (interruptMode == THROW_IE) {
+                throw new InterruptedException();
+            } else if (interruptMode == REINTERRUPT) {
+                selfInterrupt();
+            }
+        }
+
+        /**
+         * 检查这个节点是否被移到了同步队列里
+         */
+        final boolean isOnSyncQueue(Node node) {
+            //如果还在condition队列里，爆炸
+            if (node.status() == Node.CONDITION || node.prev == null) {
+                return false;
+            }
+
+            // If has successor, it must be on queue
+            if (node.next != null) {
+                return true;
+            }
+
+            //前驱的next指着自己也说明上队了：enq和enqChain都是cas tail成功之后才连next
+            //signalAll一次转过来的一长串节点，后面的next还没连完的时候靠这个，不用从tail往前扫
+            Node p = node.prev;
+            if (p != null && p.next == node) {
+                return true;
+            }
+
+            /*
+             * node.prev can be non-null, but not yet on queue because
+             * the CAS to place it on queue can fail. So we have to
+             * traverse from tail to make sure it actually made it.  It
+             * will always be near the tail in calls to this method, and
+             * unless the CAS failed (which is unlikely), it will be
+             * there, so we hardly ever traverse much.
+             */
+            return findNodeFromTail(node);
+        }
+
+        /**
+         * Returns true if node is on sync queue by searching backwards from tail.
+         * Called only when needed by isOnSyncQueue.
+         *
+         * @return true if present
+         * 从同步队列的队尾开始遍历寻找
+         */
+        private boolean findNodeFromTail(Node node) {
+            Node t = tail;
+            for (; ; ) {
+                if (t == node) {
+                    return true;
+                }
+
+                if (t == null) {
+                    return false;
+                }
+
+                t = t.prev;
+            }
+        }
+
+
+        /**
+         * 因为同步队列里的首个节点实际上并不存在，所以这里我们直接new一个节点表示当前的线程
+         * 然后加入到conditon的队列里就好了
+         * 被中断或者超时的节点waitStatus不再是CONDITION，但还挂在条件队列里，
+         * 发现尾巴是这种节点就先清理一遍
+         * <p>
+         * 和同步队列不太一样的地方就是，他没有头结点，而同步队列是有个空头节点
+         */
+        private Node addConditionWaiter() {
+            if (!isHeldExclusively()) {
+                throw new IllegalMonitorStateException();
+            }
+            Node t = lastWaiter;
+            if (t != null && t.status() != Node.CONDITION) {
+                unlinkCancelledWaiters();
+                t = lastWaiter;
+            }
+
+            //创建一个新节点（或者复用回收来的），状态代表是在条件变量里被阻塞了的
+            Node node = Node.obtain(null, Node.CONDITION);
+
+            //如果没有人在这里排队
+            if (t == null) {
+                //那么第一个节点就是他了（不用考虑线程安全，因为有Lock保护）
+                firstWaiter = node;
+            } else {
+                //要不然，他就是最后一个
+                t.nextWaiter = node;
+            }
+
+            //记录最后一个节点指针变换
+            lastWaiter = node;
+            //done!
+            return node;
+        }
+
+        /**
+         * 把条件队列里已经不是CONDITION状态的节点（被中断/超时的）摘掉
+         * 只在拿着锁的时候调用，不用考虑并发
+         */
+        private void unlinkCancelledWaiters() {
+            Node t = firstWaiter;
+            Node trail = null;
+            while (t != null) {
+                Node next = t.nextWaiter;
+                if (t.status() != Node.CONDITION) {
+                    t.nextWaiter = null;
+                    if (trail == null) {
+                        firstWaiter = next;
+                    } else {
+                        trail.nextWaiter = next;
+                    }
+                    if (next == null) {
+                        lastWaiter = trail;
+                    }
+                } else {
+                    trail = t;
+                }
+                t = next;
+            }
+        }
+
+
+        /**
+         * 和await一样，只是中断不会让它提前返回，返回前把中断标记补回去
+         */
+        @Override
+        public final void awaitUninterruptibly() {
+            Node node = addConditionWaiter();
+            ConditionAwaitEvent event = beginAwaitEvent(Long.MIN_VALUE);
+            long savedState = fullyRelease(node);
+            boolean interrupted = false;
+            while (!isOnSyncQueue(node)) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    interrupted = true;
+                }
+            }
+            boolean reinterrupt = acquireQueued(node, savedState) || interrupted;
+            commitAwaitEvent(event, ConditionAwaitEvent.SIGNALLED);
+            if (reinterrupt) {
+                selfInterrupt();
+            }
+        }
+
+        /**
+         * 超时等待，返回剩余的纳秒数，<=0表示是超时出来的
+         * 超时了节点自己走transferAfterCancelledWait转到同步队列去拿锁，
+         * 条件队列里剩下的那个壳子会被unlinkCancelledWaiters（或者下一次addConditionWaiter）清理掉
+         *
+         * @param nanosTimeout
+         * @return
+         * @throws InterruptedException
+         */
+        @Override
+        public final long awaitNanos(long nanosTimeout) throws InterruptedException {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            //提前算好deadline，防止溢出
+            long initialNanos = nanosTimeout;
+            long deadline = deadlineOf(nanosTimeout);
+            Node node = addConditionWaiter();
+            ConditionAwaitEvent event = beginAwaitEvent(initialNanos);
+            long savedState = fullyRelease(node);
+            boolean timedout = false;
+            int interruptMode = 0;
+            while (!isOnSyncQueue(node)) {
+                if (nanosTimeout <= 0L) {
+                    timedout = transferAfterCancelledWait(node);
+                    break;
+                }
+                if (nanosTimeout > SPIN_FOR_TIMEOUT_THRESHOLD) {
+                    LockSupport.parkNanos(this, nanosTimeout);
+                }
+                if ((interruptMode = checkInterruptWhileWaiting(node)) != 0) {
+                    break;
+                }
+                nanosTimeout = deadline - System.nanoTime();
+            }
+            if (acquireQueued(node, savedState) && interruptMode != THROW_IE) {
+                interruptMode = REINTERRUPT;
+            }
+            commitAwaitEvent(event, awaitOutcome(timedout, interruptMode));
+            if (node.nextWaiter != null || lastWaiter == node) {
+                unlinkCancelledWaiters();
+            }
+            if (interruptMode != 0) {
+                reportInterruptAfterWait(interruptMode);
+            }
+            long remaining = deadline - System.nanoTime();
+            //剩余时间比一开始给的还多，说明nanoTime算溢出了
+            return (remaining <= initialNanos) ? remaining : Long.MIN_VALUE;
+        }
+
+        /**
+         * @return 超时之前被唤醒返回true，超时返回false
+         */
+        @Override
+        public final boolean await(long time, TimeUnit unit) throws InterruptedException {
+            return awaitTimed(unit.toNanos(time));
+        }
+
+        @Override
+        public final boolean awaitUntil(Date deadline) throws InterruptedException {
+            long abstime = deadline.getTime();
+            //Date是墙上时间，只能用currentTimeMillis去比，所以park的时候是按毫秒算的
+            return awaitTimed(TimeUnit.MILLISECONDS.toNanos(abstime - System.currentTimeMillis()));
+        }
+
+        /**
+         * await(time, unit)和awaitUntil共用，和awaitNanos的区别只是要返回是不是超时
+         */
+        private boolean awaitTimed(long nanosTimeout) throws InterruptedException {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            long deadline = deadlineOf(nanosTimeout);
+            Node node = addConditionWaiter();
+            ConditionAwaitEvent event = beginAwaitEvent(nanosTimeout);
+            long savedState = fullyRelease(node);
+            boolean timedout = false;
+            int interruptMode = 0;
+            while (!isOnSyncQueue(node)) {
+                if (nanosTimeout <= 0L) {
+                    //cas失败说明signal已经抢先一步在转移了，那就不算超时
+                    timedout = transferAfterCancelledWait(node);
+                    break;
+                }
+                if (nanosTimeout > SPIN_FOR_TIMEOUT_THRESHOLD) {
+                    LockSupport.parkNanos(this, nanosTimeout);
+                }
+                if ((interruptMode = checkInterruptWhileWaiting(node)) != 0) {
+                    break;
+                }
+                nanosTimeout = deadline - System.nanoTime();
+            }
+            if (acquireQueued(node, savedState) && interruptMode != THROW_IE) {
+                interruptMode = REINTERRUPT;
+            }
+            commitAwaitEvent(event, awaitOutcome(timedout, interruptMode));
+            if (node.nextWaiter != null || lastWaiter == node) {
+                unlinkCancelledWaiters();
+            }
+            if (interruptMode != 0) {
+                reportInterruptAfterWait(interruptMode);
+            }
+            return !timedout;
+        }
+
+        /**
+         * 和LockWaitEvent一样，jfr没开的时候返回null
+         * 在addConditionWaiter之后才开始，不是持锁线程调await的话那里就抛异常了，不会留下事件
+         */
+        private ConditionAwaitEvent beginAwaitEvent(long timeout) {
+            if (!JfrRecording.isRunning()) {
+                return null;
+            }
+            ConditionAwaitEvent event = new ConditionAwaitEvent();
+            if (!event.isEnabled()) {
+                return null;
+            }
+            event.begin();
+            event.timeout = timeout;
+            return event;
+        }
+
+        private void commitAwaitEvent(ConditionAwaitEvent event, String outcome) {
+            if (event != null) {
+                event.end();
+                if (event.shouldCommit()) {
+                    QueuedSynchronizer sync = QueuedSynchronizer.this;
+                    event.lockClass = sync.getClass();
+                    event.lockId = System.identityHashCode(sync);
+                    event.lockName = sync.name;
+                    event.outcome = outcome;
+                    event.commit();
+                }
+            }
+        }
+
+        private String awaitOutcome(boolean timedout, int interruptMode) {
+            if (interruptMode == THROW_IE) {
+                return ConditionAwaitEvent.INTERRUPTED;
+            }
+            return timedout ? ConditionAwaitEvent.TIMEOUT : ConditionAwaitEvent.SIGNALLED;
+        }
+
+        private long deadlineOf(long nanosTimeout) {
+            long now = System.nanoTime();
+            //超时时间太大的话加上去会溢出
+            return nanosTimeout > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + nanosTimeout;
+        }
+
+        /**
+         * 把整个条件队列都转移到同步队列
+         */
+        @Override
+        public final void signalAll() {
+            if (!isHeldExclusively()) {
+                throw new IllegalMonitorStateException();
+            }
+            Node first = firstWaiter;
+            if (first != null) {
+                doSignalAll(first);
+            }
+        }
+
+        /**
+         * 不是一个一个transferForSignal（每个节点都要cas一次tail），
+         * 而是先在本地把还活着的节点用prev串成一条链，最后只cas一次tail整条接上去
+         * 链里每个节点的后面都有人，所以直接标成SIGNAL，省得后继醒来再cas一遍
+         * 这时候链还没发布，节点对应的线程就算醒了（超时/中断）也只会在transferAfterCancelledWait里等着上队，不会碰这些字段
+         *
+         * @param first
+         */
+        private void doSignalAll(Node first) {
+            lastWaiter = firstWaiter = null;
+            Node chainHead = null;
+            Node chainTail = null;
+            for (Node n = first; n != null; ) {
+                Node next = n.nextWaiter;
+                n.nextWaiter = null;
+                //cas失败说明这个节点已经超时或者被中断取消了，跳过
+                if (n.compareAndSetWaitStatus(Node.CONDITION, 0)) {
+                    if (chainTail == null) {
+                        chainHead = n;
+                    } else {
+                        chainTail.setWaitStatusRelaxed(Node.SIGNAL);
+                        n.setPrevRelaxed(chainTail);
+                    }
+                    chainTail = n;
+                }
+                n = next;
+            }
+            if (chainHead == null) {
+                return;
+            }
+
+            //和transferForSignal一样：前驱取消了或者没设上SIGNAL，就直接叫醒链头让它自己去同步
+            Node p = enqChain(chainHead, chainTail);
+            if (p.status() > 0 || !p.signalSuccessor()) {
+                LockSupport.unpark(chainHead.thread);
+            }
+        }
+    }
+
+
+}
+
+
+/**
+ * 原来是AtomicInteger/AtomicReference包一层，每次cas都要多跳一次指针，还多一个对象
+ * 现在都是普通的volatile字段，cas走QueuedSynchronizer里的VarHandle
+ * <p>
+ * 单独放在最上面的父类里：jvm总是先排父类的字段再排子类的，state总是紧跟在对象头后面
+ */
+abstract class StateFields {
+
+    /**
+     * AbstractQueuedSynchronizer和AbstractQueuedLongSynchronizer共用这一个字段，int的那个只往里面存int范围的值
+     * 64位的cas和32位的一样便宜，state这一行本来就是一个人占着，多4个字节无所谓
+     */
+    volatile long state;
+
+    /**
+     * 实际上是exclusiveOnwerThread是在更高一层的抽象里的
+     * AbstractOwnableSynchronizer
+     * 持锁线程拿锁的时候和state一起写，放在一个缓存行里正好
+     */
+    Thread exclusiveOwnerThread;
+}
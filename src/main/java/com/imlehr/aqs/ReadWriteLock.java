@@ -0,0 +1,15 @@
+package com.imlehr.aqs;
+
+/**
+ * 一对读锁和写锁，读锁可以很多线程同时拿，写锁只能一个线程拿，而且和读锁互斥
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+public interface ReadWriteLock {
+
+    Lock readLock();
+
+    Lock writeLock();
+
+}
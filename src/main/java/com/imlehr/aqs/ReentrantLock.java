@@ -1,27 +1,109 @@
 package com.imlehr.aqs;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
+import java.util.function.Supplier;
 
 /**
  * @author Lehr
  * @create: 2020-09-19
  */
-public class ReentrantLock implements Lock{
+public class ReentrantLock implements AsyncLock {
+
+    private static final VarHandle COMBINER;
+
+    static {
+        try {
+            COMBINER = MethodHandles.lookup().findVarHandle(ReentrantLock.class, "combiner", FlatCombiner.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
 
     private final Sync sync;
 
+    /**
+     * executeLocked第一次用的时候才建
+     */
+    private volatile FlatCombiner combiner;
+
     public ReentrantLock() {
-        this.sync = new ReentrantLock.NonfairSync();
+        this.sync = new ReentrantLock.NonfairSync(null, null);
     }
 
     public ReentrantLock(boolean fair) {
-        this.sync = (ReentrantLock.Sync)(fair ? new ReentrantLock.FairSync() : new NonfairSync());
+        this(fair, null);
+    }
+
+    /**
+     * 指定排队的线程怎么等，比如绑核的机器上用WaitStrategy.BUSY_SPIN，省掉park/unpark
+     * @param fair
+     * @param waitStrategy null就是默认的自适应自旋+park
+     */
+    public ReentrantLock(boolean fair, WaitStrategy waitStrategy) {
+        this(fair, waitStrategy, null);
+    }
+
+    /**
+     * 带名字的锁，开了-Dcom.imlehr.aqs.metrics=true的时候会按名字统计竞争情况，见LockMetrics
+     * @param fair
+     * @param waitStrategy
+     * @param name 同名的锁共用一份统计
+     */
+    public ReentrantLock(boolean fair, WaitStrategy waitStrategy, String name) {
+        this(fair, waitStrategy, name, false);
+    }
+
+    /**
+     * 分段锁数组那种一次new一大堆锁的场景用padded，每把锁后面多占128字节，
+     * 相邻两把锁的字段不会落在同一个缓存行里，一个线程拿放自己那把锁不会拖慢隔壁那把
+     * 一般的单个锁用不着，白白多占内存
+     * @param fair
+     * @param waitStrategy
+     * @param name
+     * @param padded 锁后面要不要补齐到单独的缓存行
+     */
+    public ReentrantLock(boolean fair, WaitStrategy waitStrategy, String name, boolean padded) {
+        if (padded) {
+            this.sync = fair ? new PaddedFairSync(waitStrategy, name) : new PaddedNonfairSync(waitStrategy, name);
+        } else {
+            this.sync = fair ? new FairSync(waitStrategy, name) : new NonfairSync(waitStrategy, name);
+        }
+    }
+
+    /**
+     * 有界不公平：平时和非公平一样可以插队，吞吐基本一样；
+     * 排第一的线程在队列里等了超过handoffAfter还没抢到，就关上插队的门，放锁之后只有排第一的能拿（和公平锁一样一个一个交），
+     * 直到拿到锁的那个等的时间短于handoffAfter（或者没人排队了）再把门打开
+     * 非公平锁在持续有人来抢的时候排队的线程可能饿上几百毫秒，公平锁每次都交接吞吐又太差，这个在两者中间：尾延迟有个大概的上限
+     * tryLock()和非公平一样总是可以插队
+     *
+     * @param handoffAfter 排第一的线程等多久之后不让插队
+     * @param unit
+     */
+    public ReentrantLock(long handoffAfter, TimeUnit unit) {
+        this(handoffAfter, unit, null, null);
+    }
+
+    public ReentrantLock(long handoffAfter, TimeUnit unit, WaitStrategy waitStrategy, String name) {
+        if (handoffAfter < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.sync = new BoundedSync(unit.toNanos(handoffAfter), waitStrategy, name);
     }
 
     @Override
     public void lock() {
-        sync.acquire(1);
+        sync.lock();
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        sync.acquireInterruptibly(1);
     }
 
     /**
@@ -40,7 +122,7 @@ public class ReentrantLock implements Lock{
 
     @Override
     public void unlock() {
-        sync.release(1);
+        sync.unlock();
     }
 
     @Override
@@ -48,8 +130,86 @@ public class ReentrantLock implements Lock{
         return sync.newCondition();
     }
 
+    /**
+     * 异步拿到的锁不能重入，也不能在上面await（Condition是按线程来的）
+     *
+     * @param executor
+     * @return
+     */
+    @Override
+    public CompletableFuture<LockHandle> lockAsync(Executor executor) {
+        return sync.acquireAsync(1, new AsyncHandle(sync), executor);
+    }
+
+    @Override
+    public CompletableFuture<LockHandle> tryLockAsync(long timeout, TimeUnit unit, Executor executor) {
+        return sync.tryAcquireAsyncNanos(1, new AsyncHandle(sync), unit.toNanos(timeout), executor);
+    }
+
+    /**
+     * 在锁里跑action，返回它的结果，和lock(); try { return action.get(); } finally { unlock(); }一个意思
+     * 但是竞争的时候不一定是自己跑：请求先挂出去，当时拿着锁的线程会顺手把挂着的一批都跑掉再放锁（flat combining），
+     * 锁和临界区的数据一直在拿锁的那个核上，不用每个线程都把它们的缓存行抢过来一遍，也没有排队的交接
+     * 所以action里不要依赖当前线程（ThreadLocal、持锁线程、中断状态这些），action抛的异常会在调用的线程上原样抛出
+     * 挂出去的请求不排队，公平锁在这里也不保证先来后到
+     * 一次最多替别人跑多少个见FlatCombiner.COMBINE_LIMIT
+     *
+     * @param action
+     * @return
+     */
+    public <T> T executeLocked(Supplier<T> action) {
+        FlatCombiner c = combiner;
+        if (c == null) {
+            c = new FlatCombiner(this);
+            if (!COMBINER.compareAndSet(this, null, c)) {
+                c = combiner;
+            }
+        }
+        return c.execute(action);
+    }
+
+    public final boolean isLocked() {
+        return sync.isLocked();
+    }
+
+    public final boolean isHeldByCurrentThread() {
+        return sync.isHeldByCurrentThread();
+    }
+
+    /**
+     * 还在排队的线程数，估计值
+     * @return
+     */
+    public final int getQueueLength() {
+        return sync.getQueueLength();
+    }
+
+    public final boolean hasQueuedThreads() {
+        return sync.hasQueuedThreads();
+    }
+
+    /**
+     * 竞争统计，没开统计或者锁没名字就是null
+     * @return
+     */
+    public final LockMetrics getMetrics() {
+        return sync.getMetrics();
+    }
+
+
+    static class FairSync extends ReentrantLock.Sync {
 
-    static final class FairSync extends ReentrantLock.Sync {
+        FairSync(WaitStrategy waitStrategy, String name) {
+            super(waitStrategy, name);
+        }
+
+        /**
+         * 公平锁不能抢，有人排队就得去后面，所以直接走acquire
+         */
+        @Override
+        final void lock() {
+            acquire(1);
+        }
 
         /**
          * 这个是个公平的实现
@@ -63,6 +223,7 @@ public class ReentrantLock implements Lock{
             if (c == 0) {
                 if (!hasQueuedPredecessors() && compareAndSetState(0, acquires)) {
                     setExclusiveOwnerThread(current);
+                    exclusiveAcquired();
                     return true;
                 }
             } else if (current == this.getExclusiveOwnerThread()) {
@@ -77,9 +238,41 @@ public class ReentrantLock implements Lock{
 
             return false;
         }
+
+        /**
+         * 和tryAcquire一样要先看有没有人排在前面；排队的节点自己来试的时候hasQueuedPredecessors会把它当成第一个
+         * @param acquires
+         * @return
+         */
+        @Override
+        protected final boolean tryAcquireAsync(int acquires) {
+            if (getState() == 0 && !hasQueuedPredecessors() && compareAndSetState(0, acquires)) {
+                exclusiveAcquired();
+                return true;
+            }
+            return false;
+        }
     }
 
-    static final class NonfairSync extends ReentrantLock.Sync {
+    static class NonfairSync extends ReentrantLock.Sync {
+
+        NonfairSync(WaitStrategy waitStrategy, String name) {
+            super(waitStrategy, name);
+        }
+
+        /**
+         * 快路径：一次cas直接抢，抢不到再走acquire那一套
+         * 重入和排队都在acquire里处理，这里保持足够小好让jit内联进调用方
+         */
+        @Override
+        final void lock() {
+            if (compareAndSetState(0, 1)) {
+                setExclusiveOwnerThread(Thread.currentThread());
+                exclusiveAcquired();
+            } else {
+                acquire(1);
+            }
+        }
 
         /**
          * 默认走不公平的
@@ -90,11 +283,175 @@ public class ReentrantLock implements Lock{
         protected final boolean tryAcquire(int acquires) {
             return this.nonfairTryAcquire(acquires);
         }
+
+        @Override
+        protected final boolean tryAcquireAsync(int acquires) {
+            if (getState() == 0 && compareAndSetState(0, acquires)) {
+                exclusiveAcquired();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 有界不公平，见ReentrantLock(long, TimeUnit)
+     * 门是开是关只看handoff：排第一的线程没抢到、要park之前看自己等了多久，超过上限就关门；
+     * 关着门的时候谁拿到了锁都看一眼现在排第一的等了多久（拿到的是排队的线程的话就是它自己），短于上限就开门
+     * 关门不是放锁的线程直接把锁交给排第一的：放锁照样把state写成0，只是没有排在第一的线程tryAcquire一律失败，
+     * 效果一样，拿锁出队还是走AQS原来那一套
+     */
+    static final class BoundedSync extends Sync {
+
+        private final long handoffNanos;
+
+        /**
+         * true的时候不让插队
+         */
+        private volatile boolean handoff;
+
+        BoundedSync(long handoffNanos, WaitStrategy waitStrategy, String name) {
+            super(waitStrategy, name);
+            this.handoffNanos = handoffNanos;
+        }
+
+        /**
+         * 门开着的时候和非公平一样先cas抢一次
+         */
+        @Override
+        void lock() {
+            if (!handoff && compareAndSetState(0, 1)) {
+                setExclusiveOwnerThread(Thread.currentThread());
+                exclusiveAcquired();
+            } else {
+                acquire(1);
+            }
+        }
+
+        @Override
+        protected boolean tryAcquire(int acquires) {
+            Thread current = Thread.currentThread();
+            int c = getState();
+            if (c == 0) {
+                boolean gated = handoff;
+                if ((!gated || !hasQueuedPredecessors()) && compareAndSetState(0, acquires)) {
+                    setExclusiveOwnerThread(current);
+                    exclusiveAcquired();
+                    if (gated && headWaiterQueuedNanos() < handoffNanos) {
+                        handoff = false;
+                    }
+                    return true;
+                }
+            } else if (current == getExclusiveOwnerThread()) {
+                int nextc = c + acquires;
+                if (nextc < 0) {
+                    throw new Error("Maximum lock count exceeded");
+                }
+                setState(nextc);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        protected boolean tryAcquireAsync(int acquires) {
+            boolean gated = handoff;
+            if (getState() == 0 && (!gated || !hasQueuedPredecessors()) && compareAndSetState(0, acquires)) {
+                exclusiveAcquired();
+                if (gated && headWaiterQueuedNanos() < handoffNanos) {
+                    handoff = false;
+                }
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * 关门只在排第一的线程要park的时候看一次，不放在tryAcquire里：排第一的自旋的时候每圈都会调tryAcquire，不能每圈都读一次时钟
+         */
+        @Override
+        void headWaiterStalled(Node node) {
+            if (!handoff && System.nanoTime() - node.enqueuedAt >= handoffNanos) {
+                handoff = true;
+            }
+        }
+    }
+
+    /**
+     * 子类的字段排在最后，在末尾补128字节，和内存里紧挨着的下一个对象隔开
+     * 前面那一侧：state紧跟在对象头后面，分段锁数组里的锁都padded的话，上一把锁末尾的128字节正好把它隔开
+     * state和head/tail还在同一行，那是同一把锁上排队的人和持锁的人之间的事，padded只管相邻的锁互不干扰
+     */
+    static final class PaddedFairSync extends FairSync {
+        long p00, p01, p02, p03, p04, p05, p06, p07;
+        long p10, p11, p12, p13, p14, p15, p16, p17;
+
+        PaddedFairSync(WaitStrategy waitStrategy, String name) {
+            super(waitStrategy, name);
+        }
+    }
+
+    static final class PaddedNonfairSync extends NonfairSync {
+        long p00, p01, p02, p03, p04, p05, p06, p07;
+        long p10, p11, p12, p13, p14, p15, p16, p17;
+
+        PaddedNonfairSync(WaitStrategy waitStrategy, String name) {
+            super(waitStrategy, name);
+        }
+    }
+
+
+    /**
+     * lockAsync拿到的锁，锁还没拿到的时候就建好了，超时了就直接扔掉
+     */
+    static final class AsyncHandle implements LockHandle {
+
+        private static final VarHandle RELEASED;
+
+        static {
+            try {
+                RELEASED = MethodHandles.lookup().findVarHandle(AsyncHandle.class, "released", boolean.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final Sync sync;
+
+        private volatile boolean released;
+
+        AsyncHandle(Sync sync) {
+            this.sync = sync;
+        }
+
+        @Override
+        public void unlock() {
+            if (!RELEASED.compareAndSet(this, false, true)) {
+                throw new IllegalMonitorStateException();
+            }
+            sync.releaseAsync(1);
+        }
     }
 
 
     abstract static class Sync extends AbstractQueuedSynchronizer {
 
+        Sync(WaitStrategy waitStrategy, String name) {
+            super(waitStrategy, name);
+        }
+
+        /**
+         * 公平和非公平的快路径不一样，交给子类
+         */
+        abstract void lock();
+
+        /**
+         * 释放只有tryRelease里的一次volatile写，有人在等才会进unparkSuccessor
+         */
+        final void unlock() {
+            release(1);
+        }
+
         /**
          * 给提供一个不公平的方法
          * @param acquires
@@ -109,6 +466,7 @@ public class ReentrantLock implements Lock{
                     //然后现在已经线程安全了
                     //设置当前持锁队线程
                     setExclusiveOwnerThread(current);
+                    exclusiveAcquired();
                     return true;
                 }
                 //如果是拿到了锁的这个线程第二次重入，则重新计数
@@ -148,12 +506,37 @@ public class ReentrantLock implements Lock{
                     free = true;
                     //自由了！
                     setExclusiveOwnerThread(null);
+                    exclusiveReleased();
                 }
                 setState(c);
                 return free;
             }
         }
 
+        /**
+         * 异步拿到的锁exclusiveOwnerThread一直是null，线程调tryRelease会抛IllegalMonitorStateException，只能走这里
+         * 能不能放由AsyncHandle保证只放一次
+         * @param releases
+         * @return
+         */
+        @Override
+        protected final boolean tryReleaseAsync(int releases) {
+            if (getState() != releases || getExclusiveOwnerThread() != null) {
+                throw new IllegalMonitorStateException();
+            }
+            exclusiveReleased();
+            setState(0);
+            return true;
+        }
+
+        final boolean isLocked() {
+            return getState() != 0;
+        }
+
+        final boolean isHeldByCurrentThread() {
+            return getExclusiveOwnerThread() == Thread.currentThread();
+        }
+
         public Condition newCondition() {
             //源码这里传入了个this搞不懂是什么操作....
             return new ConditionObject();
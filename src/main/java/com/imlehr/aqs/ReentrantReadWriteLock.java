@@ -0,0 +1,558 @@
+package com.imlehr.aqs;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+
+/**
+ * 可重入的读写锁，照着juc的ReentrantReadWriteLock搭在我们自己的AQS上
+ * state拆成两半：高16位是读锁被拿了多少次（所有线程加起来），低16位是写锁的重入次数
+ * 写锁就是独占模式，读锁是共享模式
+ * 拿着写锁可以再拿读锁，然后放掉写锁，这就是降级；反过来拿着读锁去拿写锁（升级）会死锁，不支持
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+public class ReentrantReadWriteLock implements ReadWriteLock {
+
+    private final ReadLock readerLock;
+
+    private final WriteLock writerLock;
+
+    final Sync sync;
+
+    public ReentrantReadWriteLock() {
+        this(false);
+    }
+
+    public ReentrantReadWriteLock(boolean fair) {
+        this(fair, null, null);
+    }
+
+    /**
+     * @param fair
+     * @param waitStrategy 见WaitStrategy，null就是默认的
+     * @param name         统计和jfr事件里用的名字，见LockMetrics
+     */
+    public ReentrantReadWriteLock(boolean fair, WaitStrategy waitStrategy, String name) {
+        sync = fair ? new FairSync(waitStrategy, name) : new NonfairSync(waitStrategy, name);
+        readerLock = new ReadLock(this);
+        writerLock = new WriteLock(this);
+    }
+
+    @Override
+    public ReentrantReadWriteLock.WriteLock writeLock() {
+        return writerLock;
+    }
+
+    @Override
+    public ReentrantReadWriteLock.ReadLock readLock() {
+        return readerLock;
+    }
+
+    /**
+     * 读锁一共被拿了多少次，估计值
+     *
+     * @return
+     */
+    public int getReadLockCount() {
+        return sync.getReadLockCount();
+    }
+
+    public boolean isWriteLocked() {
+        return sync.isWriteLocked();
+    }
+
+    public boolean isWriteLockedByCurrentThread() {
+        return sync.isHeldExclusively();
+    }
+
+    public int getWriteHoldCount() {
+        return sync.getWriteHoldCount();
+    }
+
+    /**
+     * 当前线程自己拿了几次读锁
+     *
+     * @return
+     */
+    public int getReadHoldCount() {
+        return sync.getReadHoldCount();
+    }
+
+    public final int getQueueLength() {
+        return sync.getQueueLength();
+    }
+
+    public final boolean hasQueuedThreads() {
+        return sync.hasQueuedThreads();
+    }
+
+    public final LockMetrics getMetrics() {
+        return sync.getMetrics();
+    }
+
+
+    abstract static class Sync extends AbstractQueuedSynchronizer {
+
+        static final int SHARED_SHIFT = 16;
+        static final int SHARED_UNIT = (1 << SHARED_SHIFT);
+        static final int MAX_COUNT = (1 << SHARED_SHIFT) - 1;
+        static final int EXCLUSIVE_MASK = (1 << SHARED_SHIFT) - 1;
+
+        /**
+         * 读锁被拿的总次数
+         */
+        static int sharedCount(int c) {
+            return c >>> SHARED_SHIFT;
+        }
+
+        /**
+         * 写锁的重入次数
+         */
+        static int exclusiveCount(int c) {
+            return c & EXCLUSIVE_MASK;
+        }
+
+        /**
+         * 每个线程自己拿了几次读锁，放在ThreadLocal里
+         * 存线程id而不是Thread，这样不会因为这个对象把线程拖住不能回收
+         */
+        static final class HoldCounter {
+            int count;
+            final long tid = Thread.currentThread().getId();
+        }
+
+        static final class ThreadLocalHoldCounter extends ThreadLocal<HoldCounter> {
+            @Override
+            public HoldCounter initialValue() {
+                return new HoldCounter();
+            }
+        }
+
+        /**
+         * 当前线程的读锁计数，读锁放到0的时候从ThreadLocal里删掉
+         */
+        private transient ThreadLocalHoldCounter readHolds;
+
+        /**
+         * 最后一个成功拿到读锁的线程的计数，大部分时候下一个来释放的就是它，省一次ThreadLocal查找
+         * 不是volatile，只是个缓存，读到旧的也就是多查一次ThreadLocal
+         */
+        private transient HoldCounter cachedHoldCounter;
+
+        /**
+         * 第一个把读锁从0拿到1的线程和它的计数，这两个不进ThreadLocal
+         * 没有竞争的读锁（一直是同一个线程在拿）根本不用碰ThreadLocal
+         * firstReader只有它自己在读锁数从0变1的时候设置、释放到0的时候清空，别的线程只会拿它跟自己比
+         */
+        private transient Thread firstReader;
+        private transient int firstReaderHoldCount;
+
+        Sync(WaitStrategy waitStrategy, String name) {
+            super(waitStrategy, name);
+            readHolds = new ThreadLocalHoldCounter();
+            //volatile写，保证上面的readHolds对别的线程可见
+            setState(getState());
+        }
+
+        /**
+         * 读锁拿之前要不要先去排队，公平和非公平的规则不一样
+         */
+        abstract boolean readerShouldBlock();
+
+        abstract boolean writerShouldBlock();
+
+        @Override
+        protected final boolean tryRelease(int releases) {
+            if (!isHeldExclusively()) {
+                throw new IllegalMonitorStateException();
+            }
+            int nextc = getState() - releases;
+            boolean free = exclusiveCount(nextc) == 0;
+            if (free) {
+                setExclusiveOwnerThread(null);
+                exclusiveReleased();
+            }
+            setState(nextc);
+            return free;
+        }
+
+        @Override
+        protected final boolean tryAcquire(int acquires) {
+            //1. 有读锁，或者写锁被别人拿着，失败
+            //2. 重入次数溢出，抛异常
+            //3. 否则看要不要排队，不用就cas一下
+            Thread current = Thread.currentThread();
+            int c = getState();
+            int w = exclusiveCount(c);
+            if (c != 0) {
+                //c != 0 而 w == 0 说明有读锁，就算是自己拿着的读锁也不能升级
+                if (w == 0 || current != getExclusiveOwnerThread()) {
+                    return false;
+                }
+                if (w + exclusiveCount(acquires) > MAX_COUNT) {
+                    throw new Error("Maximum lock count exceeded");
+                }
+                //重入，只有自己在改，不用cas
+                setState(c + acquires);
+                return true;
+            }
+            if (writerShouldBlock() || !compareAndSetState(c, c + acquires)) {
+                return false;
+            }
+            setExclusiveOwnerThread(current);
+            exclusiveAcquired();
+            return true;
+        }
+
+        @Override
+        protected final boolean tryReleaseShared(int unused) {
+            Thread current = Thread.currentThread();
+            if (firstReader == current) {
+                if (firstReaderHoldCount == 1) {
+                    firstReader = null;
+                } else {
+                    firstReaderHoldCount--;
+                }
+            } else {
+                HoldCounter rh = cachedHoldCounter;
+                if (rh == null || rh.tid != current.getId()) {
+                    rh = readHolds.get();
+                }
+                int count = rh.count;
+                if (count <= 1) {
+                    readHolds.remove();
+                    if (count <= 0) {
+                        throw new IllegalMonitorStateException();
+                    }
+                }
+                --rh.count;
+            }
+            for (; ; ) {
+                int c = getState();
+                int nextc = c - SHARED_UNIT;
+                if (compareAndSetState(c, nextc)) {
+                    //读锁全放完了才有可能让等着的写线程进来，只放了一部分的话唤醒也没用
+                    return nextc == 0;
+                }
+            }
+        }
+
+        @Override
+        protected final int tryAcquireShared(int unused) {
+            //1. 写锁被别人拿着，失败（自己拿着写锁可以再拿读锁，这就是降级）
+            //2. 不用排队的话cas一下读锁计数，成功了顺便记一下这个线程拿了几次
+            //3. 上面不行（要排队、cas失败、或者计数满了）就走fullTryAcquireShared慢慢试
+            Thread current = Thread.currentThread();
+            int c = getState();
+            if (exclusiveCount(c) != 0 && getExclusiveOwnerThread() != current) {
+                return -1;
+            }
+            int r = sharedCount(c);
+            if (!readerShouldBlock() && r < MAX_COUNT && compareAndSetState(c, c + SHARED_UNIT)) {
+                if (r == 0) {
+                    firstReader = current;
+                    firstReaderHoldCount = 1;
+                } else if (firstReader == current) {
+                    firstReaderHoldCount++;
+                } else {
+                    HoldCounter rh = cachedHoldCounter;
+                    if (rh == null || rh.tid != current.getId()) {
+                        cachedHoldCounter = rh = readHolds.get();
+                    } else if (rh.count == 0) {
+                        //之前放到0的时候从ThreadLocal里删掉了，缓存还指着它，放回去
+                        readHolds.set(rh);
+                    }
+                    rh.count++;
+                }
+                return 1;
+            }
+            return fullTryAcquireShared(current);
+        }
+
+        /**
+         * tryAcquireShared的完整版，处理cas失败和重入读
+         * readerShouldBlock说要排队的时候，已经拿着读锁的线程重入是不能排队的，不然可能和等在后面的写线程互相等死
+         */
+        final int fullTryAcquireShared(Thread current) {
+            HoldCounter rh = null;
+            for (; ; ) {
+                int c = getState();
+                if (exclusiveCount(c) != 0) {
+                    if (getExclusiveOwnerThread() != current) {
+                        return -1;
+                    }
+                    //拿着写锁的话不管排不排队，直接往下走（降级）
+                } else if (readerShouldBlock()) {
+                    //要排队，除非自己是重入
+                    if (firstReader == current) {
+                        //重入，往下走
+                    } else {
+                        if (rh == null) {
+                            rh = cachedHoldCounter;
+                            if (rh == null || rh.tid != current.getId()) {
+                                rh = readHolds.get();
+                                if (rh.count == 0) {
+                                    readHolds.remove();
+                                }
+                            }
+                        }
+                        if (rh.count == 0) {
+                            return -1;
+                        }
+                    }
+                }
+                if (sharedCount(c) == MAX_COUNT) {
+                    throw new Error("Maximum lock count exceeded");
+                }
+                if (compareAndSetState(c, c + SHARED_UNIT)) {
+                    if (sharedCount(c) == 0) {
+                        firstReader = current;
+                        firstReaderHoldCount = 1;
+                    } else if (firstReader == current) {
+                        firstReaderHoldCount++;
+                    } else {
+                        if (rh == null) {
+                            rh = cachedHoldCounter;
+                        }
+                        if (rh == null || rh.tid != current.getId()) {
+                            rh = readHolds.get();
+                        } else if (rh.count == 0) {
+                            readHolds.set(rh);
+                        }
+                        rh.count++;
+                        cachedHoldCounter = rh;
+                    }
+                    return 1;
+                }
+            }
+        }
+
+        /**
+         * 写锁的tryLock，不管公平不公平都直接抢，和tryAcquire的区别就是不看writerShouldBlock
+         */
+        final boolean tryWriteLock() {
+            Thread current = Thread.currentThread();
+            int c = getState();
+            if (c != 0) {
+                int w = exclusiveCount(c);
+                if (w == 0 || current != getExclusiveOwnerThread()) {
+                    return false;
+                }
+                if (w == MAX_COUNT) {
+                    throw new Error("Maximum lock count exceeded");
+                }
+            }
+            if (!compareAndSetState(c, c + 1)) {
+                return false;
+            }
+            if (c == 0) {
+                setExclusiveOwnerThread(current);
+                exclusiveAcquired();
+            }
+            return true;
+        }
+
+        /**
+         * 读锁的tryLock，同样不看readerShouldBlock
+         */
+        final boolean tryReadLock() {
+            Thread current = Thread.currentThread();
+            for (; ; ) {
+                int c = getState();
+                if (exclusiveCount(c) != 0 && getExclusiveOwnerThread() != current) {
+                    return false;
+                }
+                int r = sharedCount(c);
+                if (r == MAX_COUNT) {
+                    throw new Error("Maximum lock count exceeded");
+                }
+                if (compareAndSetState(c, c + SHARED_UNIT)) {
+                    if (r == 0) {
+                        firstReader = current;
+                        firstReaderHoldCount = 1;
+                    } else if (firstReader == current) {
+                        firstReaderHoldCount++;
+                    } else {
+                        HoldCounter rh = cachedHoldCounter;
+                        if (rh == null || rh.tid != current.getId()) {
+                            cachedHoldCounter = rh = readHolds.get();
+                        } else if (rh.count == 0) {
+                            readHolds.set(rh);
+                        }
+                        rh.count++;
+                    }
+                    return true;
+                }
+            }
+        }
+
+        final boolean isHeldExclusively() {
+            //读owner之前不用先读state，自己是owner的话肯定是自己写的
+            return getExclusiveOwnerThread() == Thread.currentThread();
+        }
+
+        final ConditionObject newCondition() {
+            return new ConditionObject();
+        }
+
+        final int getReadLockCount() {
+            return sharedCount(getState());
+        }
+
+        final boolean isWriteLocked() {
+            return exclusiveCount(getState()) != 0;
+        }
+
+        final int getWriteHoldCount() {
+            return isHeldExclusively() ? exclusiveCount(getState()) : 0;
+        }
+
+        final int getReadHoldCount() {
+            if (getReadLockCount() == 0) {
+                return 0;
+            }
+            Thread current = Thread.currentThread();
+            if (firstReader == current) {
+                return firstReaderHoldCount;
+            }
+            HoldCounter rh = cachedHoldCounter;
+            if (rh != null && rh.tid == current.getId()) {
+                return rh.count;
+            }
+            int count = readHolds.get().count;
+            if (count == 0) {
+                readHolds.remove();
+            }
+            return count;
+        }
+    }
+
+    static final class NonfairSync extends Sync {
+
+        NonfairSync(WaitStrategy waitStrategy, String name) {
+            super(waitStrategy, name);
+        }
+
+        @Override
+        boolean writerShouldBlock() {
+            //写线程总是可以抢
+            return false;
+        }
+
+        @Override
+        boolean readerShouldBlock() {
+            //队列第一个是写线程的话读线程让一让，不然一直有读线程进来，写线程永远拿不到
+            //只看第一个，后面有写线程在等的话还是会抢，所以只是尽量
+            return apparentlyFirstQueuedIsExclusive();
+        }
+    }
+
+    static final class FairSync extends Sync {
+
+        FairSync(WaitStrategy waitStrategy, String name) {
+            super(waitStrategy, name);
+        }
+
+        @Override
+        boolean writerShouldBlock() {
+            return hasQueuedPredecessors();
+        }
+
+        @Override
+        boolean readerShouldBlock() {
+            return hasQueuedPredecessors();
+        }
+    }
+
+
+    public static class ReadLock implements Lock {
+
+        private final Sync sync;
+
+        protected ReadLock(ReentrantReadWriteLock lock) {
+            sync = lock.sync;
+        }
+
+        @Override
+        public void lock() {
+            sync.acquireShared(1);
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            sync.acquireSharedInterruptibly(1);
+        }
+
+        @Override
+        public boolean tryLock() {
+            return sync.tryReadLock();
+        }
+
+        @Override
+        public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+            return sync.tryAcquireSharedNanos(1, unit.toNanos(timeout));
+        }
+
+        @Override
+        public void unlock() {
+            sync.releaseShared(1);
+        }
+
+        /**
+         * 读锁不能有条件变量，await要把锁彻底放掉，可别的读线程还拿着，没有意义
+         */
+        @Override
+        public Condition newCondition() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    public static class WriteLock implements Lock {
+
+        private final Sync sync;
+
+        protected WriteLock(ReentrantReadWriteLock lock) {
+            sync = lock.sync;
+        }
+
+        @Override
+        public void lock() {
+            sync.acquire(1);
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            sync.acquireInterruptibly(1);
+        }
+
+        @Override
+        public boolean tryLock() {
+            return sync.tryWriteLock();
+        }
+
+        @Override
+        public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+            return sync.tryAcquireNanos(1, unit.toNanos(timeout));
+        }
+
+        @Override
+        public void unlock() {
+            sync.release(1);
+        }
+
+        @Override
+        public Condition newCondition() {
+            return sync.newCondition();
+        }
+
+        public boolean isHeldByCurrentThread() {
+            return sync.isHeldExclusively();
+        }
+
+        public int getHoldCount() {
+            return sync.getWriteHoldCount();
+        }
+    }
+
+}
@@ -0,0 +1,522 @@
+package com.imlehr.aqs;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 带版本号的读写锁，思路照着juc的StampedLock，不过排队用的就是我们自己的AQS：写锁走独占，读锁走共享
+ * 最主要的是乐观读：tryOptimisticRead只读一下state，不写任何东西，读完数据之后用validate看看期间有没有写过
+ * 适合几个字段的小结构，读线程之间完全不抢缓存行
+ * <p>
+ * state（int）的布局：
+ * 低7位是读锁的数量，满了（RFULL）之后多出来的记在readerOverflow里
+ * 第8位（WBIT）是写锁
+ * 剩下24位是版本号，每次放写锁都会加一
+ * 放写锁的时候直接在state上再加一个WBIT，写锁位清掉的同时进位到版本号里
+ * <p>
+ * 返回的stamp是long：低32位是state，第33位固定是1，这样不管state是多少，成功的stamp都不会是0（0表示失败）
+ * 版本号只有24位，一次乐观读期间要是正好写了2^24次，validate会误判成没写过，
+ * 乐观读本来就是读几个字段的事，实际碰不到
+ * <p>
+ * 不可重入，也没有owner，拿着stamp的任何线程都可以放锁；不支持Condition
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+public class StampedLock {
+
+    private final Sync sync;
+
+    public StampedLock() {
+        this(null, null);
+    }
+
+    /**
+     * @param waitStrategy 见WaitStrategy，null就是默认的
+     * @param name         统计和jfr事件里用的名字
+     */
+    public StampedLock(WaitStrategy waitStrategy, String name) {
+        sync = new Sync(waitStrategy, name);
+    }
+
+    //----------------写锁----------------
+
+    /**
+     * 拿写锁，拿不到就排队
+     *
+     * @return 写锁的stamp，放锁和转换的时候要用
+     */
+    public long writeLock() {
+        sync.acquire(1);
+        return sync.stamp();
+    }
+
+    public long writeLockInterruptibly() throws InterruptedException {
+        sync.acquireInterruptibly(1);
+        return sync.stamp();
+    }
+
+    /**
+     * @return 拿不到返回0
+     */
+    public long tryWriteLock() {
+        return sync.tryAcquire(1) ? sync.stamp() : 0L;
+    }
+
+    public long tryWriteLock(long time, TimeUnit unit) throws InterruptedException {
+        return sync.tryAcquireNanos(1, unit.toNanos(time)) ? sync.stamp() : 0L;
+    }
+
+    public void unlockWrite(long stamp) {
+        int s = (int) stamp;
+        if (!isStamp(stamp) || sync.getState() != s || (s & Sync.WBIT) == 0) {
+            throw new IllegalMonitorStateException();
+        }
+        sync.release(Sync.UNLOCK_WRITE);
+    }
+
+    //----------------读锁----------------
+
+    /**
+     * 悲观的读锁，有写锁的时候（或者排第一个的是写线程的时候）要排队
+     *
+     * @return
+     */
+    public long readLock() {
+        sync.acquireShared(1);
+        return sync.stamp();
+    }
+
+    public long readLockInterruptibly() throws InterruptedException {
+        sync.acquireSharedInterruptibly(1);
+        return sync.stamp();
+    }
+
+    public long tryReadLock() {
+        return sync.tryAcquireShared(1) >= 0 ? sync.stamp() : 0L;
+    }
+
+    public long tryReadLock(long time, TimeUnit unit) throws InterruptedException {
+        return sync.tryAcquireSharedNanos(1, unit.toNanos(time)) ? sync.stamp() : 0L;
+    }
+
+    public void unlockRead(long stamp) {
+        if (!isStamp(stamp)) {
+            throw new IllegalMonitorStateException();
+        }
+        sync.releaseShared((int) stamp);
+    }
+
+    /**
+     * 不管是读锁还是写锁都能放
+     *
+     * @param stamp
+     */
+    public void unlock(long stamp) {
+        if ((stamp & Sync.WBIT) != 0) {
+            unlockWrite(stamp);
+        } else {
+            unlockRead(stamp);
+        }
+    }
+
+    //----------------乐观读----------------
+
+    /**
+     * 乐观读，只读state，不写
+     *
+     * @return 有写锁的时候返回0，这时候validate一定失败
+     */
+    public long tryOptimisticRead() {
+        int s = sync.getState();
+        return (s & Sync.WBIT) == 0 ? stampOf(s & Sync.SBITS) : 0L;
+    }
+
+    /**
+     * 从拿到stamp到现在有没有人拿过写锁
+     * 前面的acquireFence保证读数据的操作不会被重排到读state的后面，不然可能读到写了一半的数据还验证通过
+     *
+     * @param stamp
+     * @return
+     */
+    public boolean validate(long stamp) {
+        VarHandle.acquireFence();
+        return isStamp(stamp) && ((int) stamp & Sync.SBITS) == (sync.getState() & Sync.SBITS);
+    }
+
+    //----------------转换----------------
+
+    /**
+     * 转成写锁：已经是写锁就原样返回；乐观读而且现在没人拿锁就直接拿；
+     * 读锁而且只有自己一个读线程就原地升级。不行就返回0，原来的stamp还是有效的
+     *
+     * @param stamp
+     * @return
+     */
+    public long tryConvertToWriteLock(long stamp) {
+        if (!isStamp(stamp)) {
+            return 0L;
+        }
+        int st = (int) stamp;
+        int a = st & Sync.ABITS;
+        for (; ; ) {
+            int s = sync.getState();
+            if ((st & Sync.SBITS) != (s & Sync.SBITS)) {
+                break;
+            }
+            int m = s & Sync.ABITS;
+            if (m == 0) {
+                if (a != 0) {
+                    break;
+                }
+                if (sync.compareAndSetStateFrom(s, s + Sync.WBIT)) {
+                    return stampOf(s + Sync.WBIT);
+                }
+            } else if (m == Sync.WBIT) {
+                if (a != m) {
+                    break;
+                }
+                return stamp;
+            } else if (m == Sync.RUNIT && a != 0) {
+                if (sync.compareAndSetStateFrom(s, s - Sync.RUNIT + Sync.WBIT)) {
+                    return stampOf(s - Sync.RUNIT + Sync.WBIT);
+                }
+            } else {
+                break;
+            }
+        }
+        return 0L;
+    }
+
+    /**
+     * 转成读锁：写锁的话放掉写锁同时拿一个读锁（排队的读线程会被叫醒）；乐观读的话试着拿一个读锁；已经是读锁原样返回
+     *
+     * @param stamp
+     * @return
+     */
+    public long tryConvertToReadLock(long stamp) {
+        if (!isStamp(stamp)) {
+            return 0L;
+        }
+        int st = (int) stamp;
+        int a = st & Sync.ABITS;
+        for (; ; ) {
+            int s = sync.getState();
+            if ((st & Sync.SBITS) != (s & Sync.SBITS)) {
+                break;
+            }
+            int m = s & Sync.ABITS;
+            if (m == 0) {
+                if (a != 0) {
+                    break;
+                }
+                if (sync.tryIncReaders(s)) {
+                    return stampOf(s & Sync.SBITS | Sync.RUNIT);
+                }
+            } else if (m == Sync.WBIT) {
+                if (a != m) {
+                    break;
+                }
+                sync.release(Sync.WRITE_TO_READ);
+                return stampOf(Sync.unlockedWrite(s) + Sync.RUNIT);
+            } else if (a != 0 && a < Sync.WBIT) {
+                return stamp;
+            } else {
+                break;
+            }
+        }
+        return 0L;
+    }
+
+    /**
+     * 转成乐观读：拿着锁的话把锁放掉，返回一个乐观读的stamp；本来就是乐观读的话验证一下
+     *
+     * @param stamp
+     * @return 转不了（stamp已经失效）返回0
+     */
+    public long tryConvertToOptimisticRead(long stamp) {
+        if (!isStamp(stamp)) {
+            return 0L;
+        }
+        int st = (int) stamp;
+        int a = st & Sync.ABITS;
+        VarHandle.acquireFence();
+        for (; ; ) {
+            int s = sync.getState();
+            if ((st & Sync.SBITS) != (s & Sync.SBITS)) {
+                break;
+            }
+            int m = s & Sync.ABITS;
+            if (m == 0) {
+                if (a != 0) {
+                    break;
+                }
+                return stampOf(s);
+            } else if (m == Sync.WBIT) {
+                if (a != m) {
+                    break;
+                }
+                sync.release(Sync.UNLOCK_WRITE);
+                return stampOf(Sync.unlockedWrite(s) & Sync.SBITS);
+            } else if (a == 0 || a >= Sync.WBIT) {
+                break;
+            } else {
+                //拿着读锁，版本号在放之前不会变
+                sync.releaseShared(st);
+                return stampOf(s & Sync.SBITS);
+            }
+        }
+        return 0L;
+    }
+
+    /**
+     * 不管stamp直接放掉写锁，出了异常之后恢复用的
+     *
+     * @return 本来就没有写锁返回false
+     */
+    public boolean tryUnlockWrite() {
+        if ((sync.getState() & Sync.WBIT) == 0) {
+            return false;
+        }
+        sync.release(Sync.UNLOCK_WRITE);
+        return true;
+    }
+
+    /**
+     * 不管stamp放掉一个读锁
+     *
+     * @return 本来就没有读锁返回false
+     */
+    public boolean tryUnlockRead() {
+        for (; ; ) {
+            int s = sync.getState();
+            int m = s & Sync.ABITS;
+            if (m == 0 || m >= Sync.WBIT) {
+                return false;
+            }
+            try {
+                sync.releaseShared(s);
+                return true;
+            } catch (IllegalMonitorStateException e) {
+                //读完state之后刚好最后一个读线程走了，写锁进来把版本号改了，重新看一下
+            }
+        }
+    }
+
+    //----------------查询----------------
+
+    public boolean isWriteLocked() {
+        return (sync.getState() & Sync.WBIT) != 0;
+    }
+
+    public boolean isReadLocked() {
+        int m = sync.getState() & Sync.ABITS;
+        return m != 0 && m < Sync.WBIT;
+    }
+
+    public int getReadLockCount() {
+        return sync.readLockCount();
+    }
+
+    public static boolean isWriteLockStamp(long stamp) {
+        return isStamp(stamp) && ((int) stamp & Sync.ABITS) == Sync.WBIT;
+    }
+
+    public static boolean isReadLockStamp(long stamp) {
+        int a = (int) stamp & Sync.ABITS;
+        return isStamp(stamp) && a != 0 && a < Sync.WBIT;
+    }
+
+    public static boolean isOptimisticReadStamp(long stamp) {
+        return isStamp(stamp) && ((int) stamp & Sync.ABITS) == 0;
+    }
+
+    public final int getQueueLength() {
+        return sync.getQueueLength();
+    }
+
+    public final LockMetrics getMetrics() {
+        return sync.getMetrics();
+    }
+
+    /**
+     * 第33位标记这是一个成功拿到的stamp
+     */
+    private static final long STAMP_BIT = 1L << 32;
+
+    private static long stampOf(int s) {
+        return (s & 0xFFFFFFFFL) | STAMP_BIT;
+    }
+
+    private static boolean isStamp(long stamp) {
+        return (stamp & STAMP_BIT) != 0;
+    }
+
+
+    static final class Sync extends AbstractQueuedSynchronizer {
+
+        static final int LG_READERS = 7;
+
+        static final int RUNIT = 1;
+        static final int WBIT = 1 << LG_READERS;
+        static final int RBITS = WBIT - 1;
+        static final int RFULL = RBITS - 1;
+        static final int ABITS = RBITS | WBIT;
+        static final int SBITS = ~RBITS;
+
+        /**
+         * 初始状态，版本号从1开始；版本号转了一圈回到0的时候也跳回这里
+         */
+        static final int ORIGIN = WBIT << 1;
+
+        /**
+         * release(arg)的arg：普通地放写锁，或者放写锁的同时拿一个读锁
+         */
+        static final int UNLOCK_WRITE = 0;
+        static final int WRITE_TO_READ = 1;
+
+        /**
+         * 读锁数量超过RFULL的部分，改它的时候先把state的读锁位全置1（RBITS）当一个小自旋锁
+         */
+        private int readerOverflow;
+
+        Sync(WaitStrategy waitStrategy, String name) {
+            super(waitStrategy, name);
+            setState(ORIGIN);
+        }
+
+        static int unlockedWrite(int s) {
+            s += WBIT;
+            return s == 0 ? ORIGIN : s;
+        }
+
+        long stamp() {
+            return stampOf(getState());
+        }
+
+        boolean compareAndSetStateFrom(int expect, int update) {
+            return compareAndSetState(expect, update);
+        }
+
+        /**
+         * 写锁：没有读也没有写的时候cas一下，不管有没有人排队，和非公平锁一样可以抢
+         */
+        @Override
+        protected boolean tryAcquire(int unused) {
+            int s = getState();
+            return (s & ABITS) == 0 && compareAndSetState(s, s + WBIT);
+        }
+
+        /**
+         * 只有拿着写锁的人会调，期间别人都不会改state，所以不用cas
+         */
+        @Override
+        protected boolean tryRelease(int mode) {
+            int s = getState();
+            int next = unlockedWrite(s);
+            if (mode == WRITE_TO_READ) {
+                next += RUNIT;
+            }
+            setState(next);
+            return true;
+        }
+
+        /**
+         * 读锁：没有写锁的时候读锁数+1
+         * 排第一个的是写线程的话新来的读线程先让一让，不然写线程可能一直被读线程挡着
+         */
+        @Override
+        protected int tryAcquireShared(int unused) {
+            for (; ; ) {
+                int s = getState();
+                if ((s & WBIT) != 0 || apparentlyFirstQueuedIsExclusive()) {
+                    return -1;
+                }
+                if (tryIncReaders(s)) {
+                    return 1;
+                }
+            }
+        }
+
+        /**
+         * @param stampBits 读锁stamp的低32位，用来检查是不是同一个版本
+         * @return 最后一个读锁放掉了才需要叫醒后面的写线程
+         */
+        @Override
+        protected boolean tryReleaseShared(int stampBits) {
+            for (; ; ) {
+                int s = getState();
+                int m = s & ABITS;
+                if ((stampBits & SBITS) != (s & SBITS) || (stampBits & ABITS) == 0 ||
+                        m == 0 || m >= WBIT) {
+                    throw new IllegalMonitorStateException();
+                }
+                if (m < RFULL) {
+                    if (compareAndSetState(s, s - RUNIT)) {
+                        return m == RUNIT;
+                    }
+                } else if (tryDecReaderOverflow(s)) {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * 在s的基础上加一个读锁，没有写锁才行
+         *
+         * @return cas失败或者别人正拿着overflow的小锁就返回false，调用方重新读state再试
+         */
+        boolean tryIncReaders(int s) {
+            int m = s & ABITS;
+            if (m < RFULL) {
+                return compareAndSetState(s, s + RUNIT);
+            }
+            if (m == RFULL) {
+                if (compareAndSetState(s, s | RBITS)) {
+                    ++readerOverflow;
+                    setState(s);
+                    return true;
+                }
+                return false;
+            }
+            //RBITS：别人正在改readerOverflow
+            Thread.onSpinWait();
+            return false;
+        }
+
+        /**
+         * 读锁数已经是RFULL了，优先从readerOverflow里减
+         *
+         * @return 减成功了没有（不管是从overflow还是从state减的）
+         */
+        private boolean tryDecReaderOverflow(int s) {
+            if ((s & ABITS) == RFULL) {
+                if (compareAndSetState(s, s | RBITS)) {
+                    int r = readerOverflow;
+                    int next;
+                    if (r > 0) {
+                        readerOverflow = r - 1;
+                        next = s;
+                    } else {
+                        next = s - RUNIT;
+                    }
+                    setState(next);
+                    return true;
+                }
+            } else {
+                Thread.onSpinWait();
+            }
+            return false;
+        }
+
+        int readLockCount() {
+            int s, r;
+            do {
+                s = getState();
+                r = s & RBITS;
+            } while (r == RBITS);
+            return r == RFULL ? RFULL + readerOverflow : r;
+        }
+    }
+
+}
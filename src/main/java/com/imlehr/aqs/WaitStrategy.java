@@ -0,0 +1,69 @@
+package com.imlehr.aqs;
+
+/**
+ * 排队的线程没拿到锁的时候怎么等，构造锁的时候选
+ * 不配的话就是默认的：排第一个的自适应自旋一会儿，然后park
+ * <p>
+ * 只要策略说继续转，等待的线程就不会去把前驱设成SIGNAL，释放锁的时候看到头节点是0就直接跳过unpark，
+ * 所以自旋的线程既不用park也不用别人来unpark，一来一回那几十微秒都省了
+ * 代价是一直占着cpu，适合线程绑了核、核比线程多的机器，普通机器上用默认的就好
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+public interface WaitStrategy {
+
+    /**
+     * 这一轮没拿到锁，要等一下
+     *
+     * @param round 连续第几轮（从0开始），park醒来之后重新从0数
+     * @return true表示不转了要去park（会先设置前驱的SIGNAL，再试一次才真的park），
+     * false表示已经在这里等过一下了，回去重新试
+     */
+    boolean idle(int round);
+
+    /**
+     * 一直原地转，永远不park
+     */
+    WaitStrategy BUSY_SPIN = round -> {
+        Thread.onSpinWait();
+        return false;
+    };
+
+    /**
+     * 先转一会儿，之后每轮让出一次cpu，也不park，核比线程少的时候比纯自旋好一点
+     */
+    WaitStrategy SPIN_YIELD = round -> {
+        if (round < 100) {
+            Thread.onSpinWait();
+        } else {
+            Thread.yield();
+        }
+        return false;
+    };
+
+    /**
+     * 拿不到马上park，不自旋
+     */
+    WaitStrategy PARK = round -> true;
+
+    /**
+     * 先转spins轮，还拿不到就park
+     *
+     * @param spins
+     * @return
+     */
+    static WaitStrategy spinThenPark(int spins) {
+        if (spins < 0) {
+            throw new IllegalArgumentException();
+        }
+        return round -> {
+            if (round < spins) {
+                Thread.onSpinWait();
+                return false;
+            }
+            return true;
+        };
+    }
+
+}
@@ -0,0 +1,334 @@
+package com.imlehr.test;
+
+import com.imlehr.aqs.BiasedLock;
+import com.imlehr.aqs.ReentrantLock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * BiasedLock的回归检查，要带-Dcom.imlehr.aqs.biasedLocking=true跑，不然从来不预订，这里第一步就会失败
+ * <p>
+ * 预订的线程在锁外面的时候撤销马上就成，在锁里面的时候撤销的人要等它出来；
+ * tryLock()碰到活着的、还没确认的预订直接返回false，不做handshake，预订的线程放锁确认了之后再tryLock()能拿到；
+ * 限时tryLock等预订的线程超时要把底下的锁放掉；预订的线程已经结束了，靠isAlive()不用handshake就能撤销；
+ * 最后几个线程混着抢，检查互斥
+ * -Dduration=毫秒 改混着抢多久
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+public class BiasedLockTest {
+
+    private static final long DURATION_MS = Long.getLong("duration", 2000);
+
+    private static final long STUCK_MS = 10_000;
+
+
+    public static void main(String[] args) throws Exception {
+        revokeOutside();
+        revokeInside();
+        tryLockWithoutHandshake();
+        timedTryLockReleasesInner();
+        deadOwner();
+        stress();
+        System.out.println("dooooneeeee!");
+    }
+
+
+    /**
+     * 预订的线程拿一次放一次把锁预订下来，inside的话再从快路径进去，然后等着main让它走
+     */
+    private static final class Owner extends Thread {
+
+        final BiasedLock lock;
+        final boolean inside;
+        final CountDownLatch ready = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch left = new CountDownLatch(1);
+        final CountDownLatch exit = new CountDownLatch(1);
+        final AtomicBoolean holding = new AtomicBoolean();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Owner(BiasedLock lock, boolean inside) {
+            super("reservation-owner");
+            this.lock = lock;
+            this.inside = inside;
+            setDaemon(true);
+            setUncaughtExceptionHandler((t, e) -> failure.compareAndSet(null, e));
+        }
+
+        @Override
+        public void run() {
+            try {
+                lock.lock();
+                lock.unlock();
+                check(lock.isReserved(), "lock not reserved, run with -Dcom.imlehr.aqs.biasedLocking=true");
+                if (inside) {
+                    lock.lock();
+                    check(lock.getHoldCount() == 1, "reserved lock() did not count the hold");
+                    holding.set(true);
+                }
+            } finally {
+                //失败了也让main往下走，在begin()里抛出来
+                ready.countDown();
+            }
+            awaitUninterruptibly(release);
+            if (inside) {
+                holding.set(false);
+                lock.unlock();
+            }
+            left.countDown();
+            awaitUninterruptibly(exit);
+        }
+
+        private static void awaitUninterruptibly(CountDownLatch latch) {
+            boolean done = false;
+            while (!done) {
+                try {
+                    latch.await();
+                    done = true;
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }
+
+        Owner begin() throws InterruptedException {
+            start();
+            ready.await();
+            if (failure.get() != null) {
+                throw new AssertionError("owner failed", failure.get());
+            }
+            return this;
+        }
+
+        /**
+         * 让它放锁出去，但线程还活着
+         */
+        void leave() throws InterruptedException {
+            release.countDown();
+            check(left.await(STUCK_MS, TimeUnit.MILLISECONDS), "owner stuck");
+            if (failure.get() != null) {
+                throw new AssertionError("owner failed", failure.get());
+            }
+        }
+
+        void finish() throws InterruptedException {
+            release.countDown();
+            exit.countDown();
+            join(STUCK_MS);
+            check(!isAlive(), "owner stuck");
+            if (failure.get() != null) {
+                throw new AssertionError("owner failed", failure.get());
+            }
+        }
+    }
+
+    /**
+     * 预订的线程活着、在锁外面：handshake之后看到holds是0，马上撤销成功
+     */
+    private static void revokeOutside() throws InterruptedException {
+        BiasedLock lock = new BiasedLock();
+        Owner owner = new Owner(lock, false).begin();
+        lock.lock();
+        check(!lock.isReserved(), "reservation survived a revoke");
+        check(lock.getHoldCount() == 1, "revoker hold count " + lock.getHoldCount());
+        lock.unlock();
+        owner.finish();
+        check(!lock.isLocked(), "lock left in use");
+    }
+
+    /**
+     * 预订的线程在锁里：撤销的人拿到底下的锁之后要park着等它出来，它放锁的时候把撤销的人叫醒
+     */
+    private static void revokeInside() throws InterruptedException {
+        BiasedLock lock = new BiasedLock();
+        Owner owner = new Owner(lock, true).begin();
+        AtomicBoolean got = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread revoker = new Thread(() -> {
+            lock.lock();
+            try {
+                check(!owner.holding.get(), "revoker got in while the owner was inside");
+                got.set(true);
+            } finally {
+                lock.unlock();
+            }
+        }, "revoker");
+        revoker.setDaemon(true);
+        revoker.setUncaughtExceptionHandler((t, e) -> failure.compareAndSet(null, e));
+        revoker.start();
+        awaitParked(revoker);
+        check(!got.get(), "revoker did not wait for the owner");
+        check(!lock.isReserved(), "revoke in progress but the lock still looks reserved");
+
+        owner.finish();
+        revoker.join(STUCK_MS);
+        check(!revoker.isAlive(), "revoker not woken when the owner left");
+        if (failure.get() != null) {
+            throw new AssertionError("revoke-inside check failed", failure.get());
+        }
+        check(got.get(), "revoker never got the lock");
+        check(!lock.isLocked(), "lock left in use");
+    }
+
+    /**
+     * 预订的线程活着、在锁外面，tryLock()也返回false：它要是做了handshake就能看到holds是0、拿得到
+     * 预订的线程在锁里的时候tryLock()也是false，它放锁确认了之后tryLock()不用再等就拿到了
+     */
+    private static void tryLockWithoutHandshake() throws InterruptedException {
+        ReentrantLock inner = new ReentrantLock();
+        BiasedLock lock = new BiasedLock(inner);
+        Owner owner = new Owner(lock, false).begin();
+        check(!lock.tryLock(), "tryLock() handshaked with a live owner");
+        check(!inner.isLocked(), "failed tryLock() left the inner lock held");
+        check(!lock.isReserved(), "tryLock() did not mark the reservation as revoking");
+        //普通的lock()做handshake，撤销得掉
+        lock.lock();
+        lock.unlock();
+        owner.finish();
+
+        inner = new ReentrantLock();
+        lock = new BiasedLock(inner);
+        owner = new Owner(lock, true).begin();
+        check(!lock.tryLock(), "tryLock() succeeded while the owner was inside");
+        check(!inner.isLocked(), "failed tryLock() left the inner lock held");
+        //owner放锁的时候看到revoking，确认自己出去了；它还活着，tryLock()靠的是它的确认
+        owner.leave();
+        check(owner.isAlive(), "owner exited early");
+        check(lock.tryLock(), "tryLock() failed after the owner acknowledged");
+        check(lock.getHoldCount() == 1, "hold count after tryLock() " + lock.getHoldCount());
+        lock.unlock();
+        owner.finish();
+    }
+
+    /**
+     * 预订的线程一直在锁里，限时tryLock等它超时，返回false的时候底下的锁要已经放掉了
+     */
+    private static void timedTryLockReleasesInner() throws InterruptedException {
+        ReentrantLock inner = new ReentrantLock();
+        BiasedLock lock = new BiasedLock(inner);
+        Owner owner = new Owner(lock, true).begin();
+        long start = System.nanoTime();
+        check(!lock.tryLock(50, TimeUnit.MILLISECONDS), "timed tryLock succeeded while the owner was inside");
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        check(waited >= 40 && waited < STUCK_MS, "timed tryLock waited " + waited + "ms for 50ms");
+        check(!inner.isLocked(), "timed-out revoke left the inner lock held");
+        check(owner.holding.get() && lock.isLocked(), "owner lost the lock");
+
+        owner.finish();
+        check(lock.tryLock(50, TimeUnit.MILLISECONDS), "timed tryLock failed after the owner left");
+        lock.unlock();
+    }
+
+    /**
+     * 预订的线程已经结束了：isAlive()是false，不用handshake，tryLock()马上就能撤销
+     */
+    private static void deadOwner() throws InterruptedException {
+        BiasedLock lock = new BiasedLock();
+        Owner owner = new Owner(lock, false).begin();
+        owner.finish();
+        check(lock.isReserved(), "reservation gone before anyone revoked it");
+        check(lock.tryLock(), "tryLock() failed on a dead owner's reservation");
+        check(!lock.isReserved(), "dead owner's reservation not revoked");
+        lock.unlock();
+    }
+
+    /**
+     * 一个线程大部分时间自己拿（会被预订），另外两个时不时来抢，检查互斥
+     */
+    private static void stress() throws InterruptedException {
+        BiasedLock lock = new BiasedLock();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DURATION_MS);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicLong reserved = new AtomicLong();
+        int[] inside = {0};
+        long[] count = {0};
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(() -> {
+            while (System.nanoTime() - deadline < 0 && failure.get() == null) {
+                if (lock.isReserved()) {
+                    reserved.incrementAndGet();
+                }
+                lock.lock();
+                try {
+                    check(inside[0]++ == 0, "two holders inside a BiasedLock");
+                    count[0]++;
+                    inside[0]--;
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }, "hot"));
+        for (int i = 0; i < 2; i++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                while (System.nanoTime() - deadline < 0 && failure.get() == null) {
+                    boolean got;
+                    try {
+                        switch (r.nextInt(3)) {
+                            case 0:
+                                lock.lock();
+                                got = true;
+                                break;
+                            case 1:
+                                got = lock.tryLock();
+                                break;
+                            default:
+                                got = lock.tryLock(r.nextInt(200), TimeUnit.MICROSECONDS);
+                                break;
+                        }
+                    } catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    }
+                    if (got) {
+                        try {
+                            check(inside[0]++ == 0, "two holders inside a BiasedLock");
+                            count[0]++;
+                            inside[0]--;
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                    LockSupport.parkNanos(r.nextInt(1_000_000));
+                }
+            }, "cold-" + i));
+        }
+        for (Thread t : threads) {
+            t.setDaemon(true);
+            t.setUncaughtExceptionHandler((th, e) -> failure.compareAndSet(null, e));
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join(DURATION_MS + STUCK_MS);
+            check(!t.isAlive(), t.getName() + " stuck");
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("stress failed", failure.get());
+        }
+        check(!lock.isLocked(), "lock left in use");
+        System.out.printf("stress: acquisitions=%d (%d seen reserved)%n", count[0], reserved.get());
+    }
+
+    private static void awaitParked(Thread t) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STUCK_MS);
+        while (t.getState() != Thread.State.WAITING && t.getState() != Thread.State.TIMED_WAITING) {
+            check(System.nanoTime() - deadline < 0, t.getName() + " never parked");
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+    }
+
+    private static void check(boolean ok, String message) {
+        if (!ok) {
+            throw new AssertionError(message);
+        }
+    }
+
+}
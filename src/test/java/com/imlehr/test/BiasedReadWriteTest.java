@@ -0,0 +1,322 @@
+package com.imlehr.test;
+
+import com.imlehr.aqs.BiasedReadWriteLock;
+import com.imlehr.aqs.Lock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * BiasedReadWriteLock的回归检查
+ * 读线程大多走槽表的快路径，写线程拿锁的时候撤销偏向，检查写线程进来的时候槽上没有读线程、读线程进来的时候没有写线程；
+ * 另外单独检查：撤销之后过了禁止期慢路径的读线程会重新打开偏向；WriteCondition从await回来会再撤销一次；
+ * 拿着快路径读锁的线程去tryLock写锁要返回false（不能等自己的槽），限时tryLock按超时返回，lockInterruptibly等读线程的时候能被中断，
+ * 失败之后写锁要放掉、偏向要恢复
+ * 槽的个数跟着核数走，单核上只有4个槽，再加-XX:ActiveProcessorCount=16跑一遍，读线程就散在更多的槽上
+ * -Dduration=毫秒 改混着抢多久
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+public class BiasedReadWriteTest {
+
+    private static final long DURATION_MS = Long.getLong("duration", 2000);
+
+    private static final long STUCK_MS = 10_000;
+
+    private static final int READERS = 6;
+
+    private static final int WRITERS = 2;
+
+
+    public static void main(String[] args) throws Exception {
+        for (boolean fair : new boolean[]{false, true}) {
+            stress(fair ? "fair" : "nonfair", new BiasedReadWriteLock(fair));
+        }
+        rebias();
+        conditionRevokes();
+        tryLockWhileReading();
+        interruptedRevoke();
+        System.out.println("dooooneeeee!");
+    }
+
+
+    /**
+     * 写线程大部分时间不在，偏向一会儿开一会儿关，读线程在快慢两条路径之间来回切
+     */
+    private static void stress(String name, BiasedReadWriteLock lock) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DURATION_MS);
+        AtomicInteger reading = new AtomicInteger();
+        AtomicInteger writing = new AtomicInteger();
+        AtomicLong reads = new AtomicLong();
+        AtomicLong writes = new AtomicLong();
+        AtomicLong biased = new AtomicLong();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Lock read = lock.readLock();
+        Lock write = lock.writeLock();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                while (System.nanoTime() - deadline < 0 && failure.get() == null) {
+                    boolean reenter = r.nextInt(8) == 0;
+                    if (lock.isReadBiased()) {
+                        biased.incrementAndGet();
+                    }
+                    read.lock();
+                    try {
+                        if (reenter) {
+                            read.lock();
+                        }
+                        reading.incrementAndGet();
+                        if (writing.get() != 0) {
+                            throw new AssertionError(name + ": reader inside with a writer");
+                        }
+                        reads.incrementAndGet();
+                        reading.decrementAndGet();
+                    } finally {
+                        if (reenter) {
+                            read.unlock();
+                        }
+                        read.unlock();
+                    }
+                }
+            }, name + "-reader-" + i));
+        }
+        for (int i = 0; i < WRITERS; i++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                while (System.nanoTime() - deadline < 0 && failure.get() == null) {
+                    boolean got;
+                    try {
+                        switch (r.nextInt(4)) {
+                            case 0:
+                                write.lock();
+                                got = true;
+                                break;
+                            case 1:
+                                got = write.tryLock();
+                                break;
+                            case 2:
+                                got = write.tryLock(r.nextInt(200), TimeUnit.MICROSECONDS);
+                                break;
+                            default:
+                                write.lockInterruptibly();
+                                got = true;
+                                break;
+                        }
+                    } catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    }
+                    if (got) {
+                        try {
+                            if (writing.incrementAndGet() != 1 || reading.get() != 0) {
+                                throw new AssertionError(name + ": writer not alone, writers=" + writing.get()
+                                        + " readers=" + reading.get());
+                            }
+                            if (lock.isReadBiased()) {
+                                throw new AssertionError(name + ": writer inside with read bias on");
+                            }
+                            writes.incrementAndGet();
+                            writing.decrementAndGet();
+                        } finally {
+                            write.unlock();
+                        }
+                    }
+                    //让读线程有机会把偏向重新打开
+                    LockSupport.parkNanos(r.nextInt(500_000));
+                }
+            }, name + "-writer-" + i));
+        }
+        for (Thread t : threads) {
+            t.setDaemon(true);
+            t.setUncaughtExceptionHandler((th, e) -> failure.compareAndSet(null, e));
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join(DURATION_MS + STUCK_MS);
+            if (t.isAlive()) {
+                throw new AssertionError(t.getName() + " stuck");
+            }
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(name + " failed", failure.get());
+        }
+        System.out.printf("%s: reads=%d (%d while biased) writes=%d%n", name, reads.get(), biased.get(), writes.get());
+    }
+
+    /**
+     * 撤销之后偏向是关着的，过了禁止期，下一个走慢路径的读线程把它打开
+     */
+    private static void rebias() throws InterruptedException {
+        BiasedReadWriteLock lock = new BiasedReadWriteLock();
+        check(lock.isReadBiased(), "a new lock should start read-biased");
+        lock.writeLock().lock();
+        check(!lock.isReadBiased(), "write lock did not revoke the bias");
+        lock.writeLock().unlock();
+        check(!lock.isReadBiased(), "bias came back without a reader");
+        //撤销的时候没有读线程，禁止期只有几微秒
+        TimeUnit.MILLISECONDS.sleep(20);
+        lock.readLock().lock();
+        lock.readLock().unlock();
+        check(lock.isReadBiased(), "slow-path reader did not re-bias after the inhibit window");
+    }
+
+    /**
+     * await的时候写锁放掉了，慢路径的读线程重新打开了偏向，另一个读线程又从快路径进来了
+     * await超时回来要再撤销，等这个读线程走了才能回来
+     */
+    private static void conditionRevokes() throws InterruptedException {
+        BiasedReadWriteLock lock = new BiasedReadWriteLock();
+        Condition cond = lock.writeLock().newCondition();
+        AtomicInteger reading = new AtomicInteger();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch waiting = new CountDownLatch(1);
+        Thread writer = new Thread(() -> {
+            lock.writeLock().lock();
+            try {
+                waiting.countDown();
+                cond.awaitNanos(TimeUnit.MILLISECONDS.toNanos(200));
+                check(!lock.isReadBiased(), "await returned with read bias on");
+                check(reading.get() == 0, "await returned while a slot reader was inside");
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }, "condition-writer");
+        writer.setDaemon(true);
+        writer.setUncaughtExceptionHandler((t, e) -> failure.compareAndSet(null, e));
+        writer.start();
+        waiting.await();
+
+        //writer拿锁的时候撤销了偏向，这里等禁止期过去，慢路径拿一次读锁把偏向打开
+        TimeUnit.MILLISECONDS.sleep(20);
+        lock.readLock().lock();
+        lock.readLock().unlock();
+        check(lock.isReadBiased(), "reader did not re-bias while the writer was awaiting");
+
+        Thread reader = new Thread(() -> {
+            lock.readLock().lock();
+            reading.incrementAndGet();
+            try {
+                //一直待到writer超时回来之后
+                TimeUnit.MILLISECONDS.sleep(400);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            } finally {
+                reading.decrementAndGet();
+                lock.readLock().unlock();
+            }
+        }, "slot-reader");
+        reader.setDaemon(true);
+        reader.setUncaughtExceptionHandler((t, e) -> failure.compareAndSet(null, e));
+        reader.start();
+        reader.join(STUCK_MS);
+        writer.join(STUCK_MS);
+        check(!reader.isAlive() && !writer.isAlive(), "condition check stuck");
+        if (failure.get() != null) {
+            throw new AssertionError("condition check failed", failure.get());
+        }
+    }
+
+    /**
+     * 拿着快路径读锁的线程自己去tryLock写锁：槽上等的就是自己，不能卡住
+     */
+    private static void tryLockWhileReading() throws InterruptedException {
+        BiasedReadWriteLock lock = new BiasedReadWriteLock();
+        lock.readLock().lock();
+        check(lock.isReadBiased(), "reader took the slow path on a fresh lock");
+        check(!lock.writeLock().tryLock(), "tryLock() succeeded while holding a read slot");
+        check(lock.isReadBiased(), "failed tryLock() did not restore the bias");
+
+        long start = System.nanoTime();
+        check(!lock.writeLock().tryLock(50, TimeUnit.MILLISECONDS), "timed tryLock succeeded while holding a read slot");
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        check(waited >= 40 && waited < STUCK_MS, "timed tryLock waited " + waited + "ms for 50ms");
+        check(lock.isReadBiased(), "timed-out tryLock did not restore the bias");
+
+        //读锁还能正常重入、放掉，写锁没有留在手里
+        lock.readLock().lock();
+        lock.readLock().unlock();
+        lock.readLock().unlock();
+        Thread other = new Thread(() -> {
+            check(lock.writeLock().tryLock(), "write lock left held after a failed tryLock");
+            lock.writeLock().unlock();
+        }, "other-writer");
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        other.setUncaughtExceptionHandler((t, e) -> failure.compareAndSet(null, e));
+        other.start();
+        other.join();
+        if (failure.get() != null) {
+            throw new AssertionError("tryLock check failed", failure.get());
+        }
+        check(lock.writeLock().tryLock(), "tryLock failed with no readers");
+        lock.writeLock().unlock();
+    }
+
+    /**
+     * lockInterruptibly拿到底下的写锁之后在等槽上的读线程，这时候被中断要放掉写锁抛出来
+     */
+    private static void interruptedRevoke() throws InterruptedException {
+        BiasedReadWriteLock lock = new BiasedReadWriteLock();
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread reader = new Thread(() -> {
+            lock.readLock().lock();
+            try {
+                reading.countDown();
+                release.await();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }, "slot-reader");
+        reader.setDaemon(true);
+        reader.start();
+        reading.await();
+
+        AtomicReference<Object> outcome = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            try {
+                lock.writeLock().lockInterruptibly();
+                outcome.set("acquired");
+                lock.writeLock().unlock();
+            } catch (InterruptedException e) {
+                outcome.set(e);
+            }
+        }, "interrupted-writer");
+        writer.setDaemon(true);
+        writer.start();
+        //等它拿到底下的写锁进到撤销里
+        TimeUnit.MILLISECONDS.sleep(50);
+        writer.interrupt();
+        writer.join(STUCK_MS);
+        check(!writer.isAlive(), "writer ignored the interrupt while revoking");
+        check(outcome.get() instanceof InterruptedException, "writer ended with " + outcome.get());
+        check(lock.isReadBiased(), "interrupted revoke did not restore the bias");
+
+        //写锁放掉了的话，读线程还能重入，放掉之后写锁能拿到
+        release.countDown();
+        reader.join(STUCK_MS);
+        check(!reader.isAlive(), "reader stuck");
+        check(lock.writeLock().tryLock(), "write lock left held after an interrupted revoke");
+        lock.writeLock().unlock();
+    }
+
+    private static void check(boolean ok, String message) {
+        if (!ok) {
+            throw new AssertionError(message);
+        }
+    }
+
+}
@@ -0,0 +1,236 @@
+package com.imlehr.test;
+
+import com.imlehr.aqs.ClusterMapper;
+import com.imlehr.aqs.CohortLock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * CohortLock的回归检查，簇用ClusterMapper.explicit()指定，不依赖机器的拓扑
+ * <p>
+ * 全局锁留在簇里交给本簇下一个等的人，这个人却超时/被中断走了：没人来接，全局锁要由放锁的人或者走掉的人还回去（releaseOrphaned），
+ * 不然别的簇永远拿不到。这里一轮一轮地让本簇的等待者在放锁前后随机地超时或者被中断，每轮结束锁都必须是空的；
+ * 然后0号簇几个线程一直抢（超时、中断混在里面），1号簇一个线程一次次来拿，每次都要拿得到，
+ * 而且它在全局锁上排着的时候，0号簇最多再连续拿batchLimit+1次
+ * -Dduration=毫秒 改混着抢多久
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+public class CohortLockTest {
+
+    private static final long DURATION_MS = Long.getLong("duration", 2000);
+
+    private static final long STUCK_MS = 10_000;
+
+    private static final int BATCH_LIMIT = 4;
+
+    private static final int ROUNDS = 2000;
+
+
+    public static void main(String[] args) throws Exception {
+        orphanedRelease(false);
+        orphanedRelease(true);
+        crossCluster();
+        System.out.println("dooooneeeee!");
+    }
+
+
+    /**
+     * 持锁的和等的都在0号簇：等的那个在本地锁上排着（放锁的人会把全局锁留给它），
+     * 放锁前后随机的时间它超时（或者被中断）走掉，两边谁先谁后都有可能
+     * 一轮结束两个线程都走了，锁一定是空的，1号簇的线程马上能拿到
+     */
+    private static void orphanedRelease(boolean interrupt) throws InterruptedException {
+        ClusterMapper.Explicit mapper = ClusterMapper.explicit();
+        CohortLock lock = new CohortLock(mapper, 2, BATCH_LIMIT);
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        int got = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            lock.lock();
+            long timeout = r.nextInt(200);
+            boolean[] acquired = {false};
+            Thread waiter = new Thread(() -> {
+                try {
+                    if (interrupt) {
+                        lock.lockInterruptibly();
+                        acquired[0] = true;
+                    } else {
+                        acquired[0] = lock.tryLock(timeout, TimeUnit.MICROSECONDS);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (acquired[0]) {
+                    lock.unlock();
+                }
+            }, "cluster0-waiter");
+            waiter.setDaemon(true);
+            waiter.setUncaughtExceptionHandler((t, e) -> failure.compareAndSet(null, e));
+            waiter.start();
+            //等它排上去再放，放的时间前后抖一下
+            spin(r.nextInt(300));
+            if (interrupt) {
+                if (r.nextBoolean()) {
+                    waiter.interrupt();
+                    lock.unlock();
+                } else {
+                    lock.unlock();
+                    waiter.interrupt();
+                }
+            } else {
+                lock.unlock();
+            }
+            waiter.join(STUCK_MS);
+            check(!waiter.isAlive(), "waiter stuck in round " + round);
+            if (acquired[0]) {
+                got++;
+            }
+            check(!lock.isLocked(), (interrupt ? "interrupted" : "timed-out")
+                    + " waiter left the global lock orphaned in round " + round);
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("orphan check failed", failure.get());
+        }
+
+        //全局锁真的还回去了的话，别的簇的线程能拿到
+        Thread other = new Thread(() -> {
+            check(lock.tryLock(), "other cluster locked out");
+            lock.unlock();
+        }, "cluster1");
+        mapper.assign(other, 1);
+        other.setUncaughtExceptionHandler((t, e) -> failure.compareAndSet(null, e));
+        other.start();
+        other.join(STUCK_MS);
+        if (failure.get() != null) {
+            throw new AssertionError("orphan check failed", failure.get());
+        }
+        System.out.printf("orphan(%s): waiter got the lock %d of %d rounds%n",
+                interrupt ? "interrupt" : "timeout", got, ROUNDS);
+    }
+
+    private static void spin(long micros) {
+        long until = System.nanoTime() + micros * 1000L;
+        while (System.nanoTime() - until < 0) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * 0号簇三个线程不停地抢，1号簇一个线程一次次来拿
+     * 1号簇的线程park在全局锁上的时候（它自己簇里没人和它抢本地锁），0号簇最多还能连续拿batchLimit+1次：
+     * 当前这一次，加上这一批剩下的交接
+     */
+    private static void crossCluster() throws InterruptedException {
+        ClusterMapper.Explicit mapper = ClusterMapper.explicit();
+        CohortLock lock = new CohortLock(mapper, 2, BATCH_LIMIT);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DURATION_MS);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicLong gaveUp = new AtomicLong();
+        int[] inside = {0};
+        int[] sinceQueued = {0};
+        int[] maxRun = {0};
+        long[] otherGot = {0};
+        long[] localGot = {0};
+        Thread[] other = new Thread[1];
+
+        List<Thread> locals = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Thread t = new Thread(() -> {
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                while (System.nanoTime() - deadline < 0 && failure.get() == null) {
+                    boolean got = true;
+                    try {
+                        switch (r.nextInt(3)) {
+                            case 0:
+                                lock.lock();
+                                break;
+                            case 1:
+                                got = lock.tryLock(r.nextInt(50), TimeUnit.MICROSECONDS);
+                                break;
+                            default:
+                                lock.lockInterruptibly();
+                                break;
+                        }
+                    } catch (InterruptedException e) {
+                        got = false;
+                    }
+                    if (!got) {
+                        gaveUp.incrementAndGet();
+                        continue;
+                    }
+                    try {
+                        check(inside[0]++ == 0, "two holders inside a CohortLock");
+                        localGot[0]++;
+                        if (other[0].getState() == Thread.State.WAITING) {
+                            int run = ++sinceQueued[0];
+                            maxRun[0] = Math.max(maxRun[0], run);
+                            check(run <= BATCH_LIMIT + 1, "cluster 0 took the lock " + run
+                                    + " times while cluster 1 was queued, batchLimit=" + BATCH_LIMIT);
+                        }
+                        inside[0]--;
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+                Thread.interrupted();
+            }, "cluster0-" + i);
+            mapper.assign(t, 0);
+            locals.add(t);
+        }
+        other[0] = new Thread(() -> {
+            while (System.nanoTime() - deadline < 0 && failure.get() == null) {
+                lock.lock();
+                try {
+                    check(inside[0]++ == 0, "two holders inside a CohortLock");
+                    otherGot[0]++;
+                    sinceQueued[0] = 0;
+                    inside[0]--;
+                } finally {
+                    lock.unlock();
+                }
+                LockSupport.parkNanos(ThreadLocalRandom.current().nextInt(200_000));
+            }
+        }, "cluster1");
+        mapper.assign(other[0], 1);
+        List<Thread> threads = new ArrayList<>(locals);
+        threads.add(other[0]);
+        threads.add(new Thread(() -> {
+            ThreadLocalRandom r = ThreadLocalRandom.current();
+            while (locals.stream().anyMatch(Thread::isAlive)) {
+                locals.get(r.nextInt(locals.size())).interrupt();
+                LockSupport.parkNanos(r.nextInt(300_000));
+            }
+        }, "interrupter"));
+        for (Thread t : threads) {
+            t.setDaemon(true);
+            t.setUncaughtExceptionHandler((th, e) -> failure.compareAndSet(null, e));
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join(DURATION_MS + STUCK_MS);
+            check(!t.isAlive(), t.getName() + " stuck");
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("cross-cluster check failed", failure.get());
+        }
+        check(otherGot[0] > 0, "cluster 1 never got the lock");
+        check(!lock.isLocked(), "lock left in use");
+        System.out.printf("cross-cluster: cluster0=%d cluster1=%d gaveUp=%d longest run while cluster1 queued=%d%n",
+                localGot[0], otherGot[0], gaveUp.get(), maxRun[0]);
+    }
+
+    private static void check(boolean ok, String message) {
+        if (!ok) {
+            throw new AssertionError(message);
+        }
+    }
+
+}
@@ -0,0 +1,355 @@
+package com.imlehr.test;
+
+import com.imlehr.aqs.CompactLock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * CompactLock和ParkingLot的回归检查：
+ * 几个线程用lock/tryLock/限时tryLock/被随机中断的lockInterruptibly抢同一把锁，临界区里同时只有一个人；
+ * 重入次数只有15位，第32768次重入要抛Error，而且不能把state弄坏；
+ * 超时、中断的等待者要从ParkingLot的桶里摘掉，PARKED跟着清掉；很多把锁撞在同一个桶里的时候，
+ * 一部分等待者超时走了，剩下的放锁的时候一个都不能漏叫
+ * -Dduration=毫秒 改混着抢多久
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+public class CompactLockTest {
+
+    private static final long DURATION_MS = Long.getLong("duration", 2000);
+
+    private static final long STUCK_MS = 10_000;
+
+    /**
+     * 比ParkingLot的桶多，保证有好几把锁落在同一个桶里
+     */
+    private static final int SHARED_BUCKET_LOCKS = 1024;
+
+
+    public static void main(String[] args) throws Exception {
+        exclusion();
+        reentrancyLimit();
+        timeoutLeavesBucket();
+        interruptLeavesBucket();
+        sharedBuckets();
+        System.out.println("dooooneeeee!");
+    }
+
+
+    private static void exclusion() throws InterruptedException {
+        CompactLock lock = new CompactLock();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DURATION_MS);
+        int[] inside = {0};
+        long[] count = {0};
+        AtomicLong expected = new AtomicLong();
+        AtomicLong gaveUp = new AtomicLong();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            workers.add(new Thread(() -> {
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                while (System.nanoTime() - deadline < 0 && failure.get() == null) {
+                    boolean got = true;
+                    try {
+                        switch (r.nextInt(4)) {
+                            case 0:
+                                lock.lock();
+                                break;
+                            case 1:
+                                got = lock.tryLock();
+                                break;
+                            case 2:
+                                got = lock.tryLock(r.nextInt(100), TimeUnit.MICROSECONDS);
+                                break;
+                            default:
+                                lock.lockInterruptibly();
+                                break;
+                        }
+                    } catch (InterruptedException e) {
+                        got = false;
+                    }
+                    if (!got) {
+                        gaveUp.incrementAndGet();
+                        continue;
+                    }
+                    try {
+                        if (inside[0]++ != 0) {
+                            throw new AssertionError("two holders inside a CompactLock");
+                        }
+                        if ((count[0]++ & 7) == 0) {
+                            lock.lock();
+                            check(lock.getHoldCount() == 2, "hold count " + lock.getHoldCount());
+                            lock.unlock();
+                        }
+                        if (r.nextInt(16) == 0) {
+                            Thread.yield();
+                        }
+                        inside[0]--;
+                    } finally {
+                        lock.unlock();
+                    }
+                    expected.incrementAndGet();
+                }
+                Thread.interrupted();
+            }, "compact-" + i));
+        }
+        List<Thread> contenders = new ArrayList<>(workers);
+        Thread interrupter = new Thread(() -> {
+            ThreadLocalRandom r = ThreadLocalRandom.current();
+            while (contenders.stream().anyMatch(Thread::isAlive)) {
+                contenders.get(r.nextInt(contenders.size())).interrupt();
+                LockSupport.parkNanos(r.nextInt(500_000));
+            }
+        }, "interrupter");
+        workers.add(interrupter);
+        for (Thread t : workers) {
+            t.setDaemon(true);
+            t.setUncaughtExceptionHandler((th, e) -> failure.compareAndSet(null, e));
+            t.start();
+        }
+        for (Thread t : workers) {
+            t.join(DURATION_MS + STUCK_MS);
+            check(!t.isAlive(), t.getName() + " stuck");
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("exclusion check failed", failure.get());
+        }
+        lock.lock();
+        try {
+            check(count[0] == expected.get(), "count " + count[0] + " expected " + expected.get());
+        } finally {
+            lock.unlock();
+        }
+        check(!lock.isLocked() && !lock.hasQueuedThreads(), "lock left in use");
+        System.out.printf("exclusion: ops=%d gaveUp=%d%n", count[0], gaveUp.get());
+    }
+
+    /**
+     * 重入次数占state的第1到15位，最多32767次
+     */
+    private static void reentrancyLimit() throws InterruptedException {
+        CompactLock lock = new CompactLock();
+        int max = (1 << 15) - 1;
+        for (int i = 0; i < max; i++) {
+            lock.lock();
+        }
+        check(lock.getHoldCount() == max, "hold count " + lock.getHoldCount());
+        expectOverflow(lock::lock, "lock()");
+        expectOverflow(lock::tryLock, "tryLock()");
+        expectOverflow(() -> {
+            try {
+                lock.tryLock(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }, "tryLock(timeout)");
+        check(lock.getHoldCount() == max && lock.isHeldByCurrentThread(), "overflow changed the hold count to "
+                + lock.getHoldCount());
+
+        //别的线程看来锁还被拿着
+        Thread other = new Thread(() -> check(!lock.tryLock(), "other thread got a lock held 32767 times"));
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        other.setUncaughtExceptionHandler((t, e) -> failure.compareAndSet(null, e));
+        other.start();
+        other.join();
+        if (failure.get() != null) {
+            throw new AssertionError("reentrancy check failed", failure.get());
+        }
+        for (int i = 0; i < max; i++) {
+            lock.unlock();
+        }
+        check(!lock.isLocked(), "lock still held after releasing every hold");
+        try {
+            lock.unlock();
+            throw new AssertionError("unlock of a free lock accepted");
+        } catch (IllegalMonitorStateException expected) {
+        }
+    }
+
+    private static void expectOverflow(Runnable r, String what) {
+        try {
+            r.run();
+        } catch (Error e) {
+            if (e instanceof AssertionError) {
+                throw e;
+            }
+            return;
+        }
+        throw new AssertionError(what + " went past the 15-bit reentrancy limit");
+    }
+
+    /**
+     * 两个线程在排队，一个限时的超时走了：PARKED还得留着，剩下那个放锁的时候要被叫醒；
+     * 最后一个也超时走了，PARKED清掉，放锁走快路径
+     */
+    private static void timeoutLeavesBucket() throws InterruptedException {
+        CompactLock lock = new CompactLock();
+        lock.lock();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread timed = start("timed-waiter", failure, () -> {
+            try {
+                check(!lock.tryLock(100, TimeUnit.MILLISECONDS), "timed waiter got a held lock");
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        });
+        AtomicInteger got = new AtomicInteger();
+        Thread waiter = start("waiter", failure, () -> {
+            lock.lock();
+            got.incrementAndGet();
+            lock.unlock();
+        });
+        awaitQueued(lock);
+        timed.join(STUCK_MS);
+        check(!timed.isAlive(), "timed waiter stuck");
+        check(lock.hasQueuedThreads(), "timed-out waiter took the other waiter out of the queue");
+        lock.unlock();
+        waiter.join(STUCK_MS);
+        check(!waiter.isAlive() && got.get() == 1, "remaining waiter not woken after a neighbour timed out");
+
+        lock.lock();
+        timed = start("last-timed-waiter", failure, () -> {
+            try {
+                check(!lock.tryLock(50, TimeUnit.MILLISECONDS), "timed waiter got a held lock");
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        });
+        timed.join(STUCK_MS);
+        check(!lock.hasQueuedThreads(), "last timed-out waiter left PARKED set");
+        lock.unlock();
+        check(!lock.isLocked(), "lock still held");
+        if (failure.get() != null) {
+            throw new AssertionError("timeout check failed", failure.get());
+        }
+    }
+
+    private static void interruptLeavesBucket() throws InterruptedException {
+        CompactLock lock = new CompactLock();
+        lock.lock();
+        AtomicReference<Object> outcome = new AtomicReference<>();
+        Thread waiter = new Thread(() -> {
+            try {
+                lock.lockInterruptibly();
+                outcome.set("acquired");
+                lock.unlock();
+            } catch (InterruptedException e) {
+                outcome.set(e);
+            }
+        }, "interruptible-waiter");
+        waiter.setDaemon(true);
+        waiter.start();
+        awaitQueued(lock);
+        waiter.interrupt();
+        waiter.join(STUCK_MS);
+        check(!waiter.isAlive(), "interrupted waiter stuck");
+        check(outcome.get() instanceof InterruptedException, "interrupted waiter ended with " + outcome.get());
+        check(!lock.hasQueuedThreads(), "interrupted waiter left in the parking lot");
+
+        //lock()被中断不退出，拿到锁之后中断标记还在
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread plain = start("plain-waiter", failure, () -> {
+            lock.lock();
+            check(Thread.currentThread().isInterrupted(), "lock() swallowed the interrupt");
+            lock.unlock();
+        });
+        awaitQueued(lock);
+        plain.interrupt();
+        TimeUnit.MILLISECONDS.sleep(20);
+        check(plain.isAlive() && lock.hasQueuedThreads(), "lock() gave up on interrupt");
+        lock.unlock();
+        plain.join(STUCK_MS);
+        check(!plain.isAlive(), "plain waiter stuck");
+        if (failure.get() != null) {
+            throw new AssertionError("interrupt check failed", failure.get());
+        }
+    }
+
+    /**
+     * 主线程拿着一千多把锁，每把锁上一个线程在等，单数的限时等、双数的一直等
+     * 锁比桶多，很多锁挤在同一个桶的链表里，单数的超时从链表中间摘掉自己之后，双数的一个都不能漏叫
+     */
+    private static void sharedBuckets() throws InterruptedException {
+        CompactLock[] locks = new CompactLock[SHARED_BUCKET_LOCKS];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new CompactLock();
+            locks[i].lock();
+        }
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicInteger acquired = new AtomicInteger();
+        Thread[] waiters = new Thread[locks.length];
+        for (int i = 0; i < locks.length; i++) {
+            CompactLock lock = locks[i];
+            boolean timed = (i & 1) != 0;
+            waiters[i] = start("bucket-waiter-" + i, failure, () -> {
+                if (timed) {
+                    try {
+                        check(!lock.tryLock(500, TimeUnit.MILLISECONDS), "timed waiter got a held lock");
+                    } catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    }
+                } else {
+                    lock.lock();
+                    acquired.incrementAndGet();
+                    lock.unlock();
+                }
+            });
+        }
+        for (int i = 0; i < locks.length; i += 2) {
+            awaitQueued(locks[i]);
+        }
+        for (int i = 1; i < locks.length; i += 2) {
+            waiters[i].join(STUCK_MS);
+            check(!waiters[i].isAlive(), "timed waiter " + i + " stuck");
+            check(!locks[i].hasQueuedThreads(), "timed-out waiter " + i + " left in the parking lot");
+        }
+        for (int i = 0; i < locks.length; i += 2) {
+            check(locks[i].hasQueuedThreads(), "waiter " + i + " dropped out of its bucket");
+        }
+        for (CompactLock lock : locks) {
+            lock.unlock();
+        }
+        for (int i = 0; i < locks.length; i += 2) {
+            waiters[i].join(STUCK_MS);
+            check(!waiters[i].isAlive(), "waiter " + i + " never woken");
+        }
+        check(acquired.get() == locks.length / 2, "acquired " + acquired.get());
+        if (failure.get() != null) {
+            throw new AssertionError("shared bucket check failed", failure.get());
+        }
+        for (CompactLock lock : locks) {
+            check(!lock.isLocked() && !lock.hasQueuedThreads(), "lock left in use");
+        }
+    }
+
+    private static Thread start(String name, AtomicReference<Throwable> failure, Runnable r) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        t.setUncaughtExceptionHandler((th, e) -> failure.compareAndSet(null, e));
+        t.start();
+        return t;
+    }
+
+    private static void awaitQueued(CompactLock lock) {
+        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STUCK_MS);
+        while (!lock.hasQueuedThreads()) {
+            check(System.nanoTime() - until < 0, "waiter never queued");
+            LockSupport.parkNanos(100_000L);
+        }
+    }
+
+    private static void check(boolean ok, String message) {
+        if (!ok) {
+            throw new AssertionError(message);
+        }
+    }
+
+}
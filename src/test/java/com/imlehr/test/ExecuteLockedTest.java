@@ -0,0 +1,377 @@
+package com.imlehr.test;
+
+import com.imlehr.aqs.ReentrantLock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ReentrantLock.executeLocked（FlatCombiner）的回归检查
+ * <p>
+ * executeLocked和普通lock()/unlock()混着抢同一把锁，临界区里同时只有一个人，计数对得上；
+ * action抛的异常回到发请求的线程上，不管是自己跑的还是拿锁的人替它跑的，锁都要放掉；
+ * 锁一直被普通lock()拿着的时候转不到，退回lock()排队，拿到之后自己跑；槽都满了的请求不挂出去，直接lock()自己跑；
+ * 拿锁的人一次最多替别人跑COMBINE_LIMIT个，剩下的等后面拿到锁的人跑
+ * 上限默认64，槽不够多的话看不到交接，这里没指定的话在FlatCombiner加载之前设成2
+ * -Dduration=毫秒 改混着抢多久
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+public class ExecuteLockedTest {
+
+    private static final String LIMIT_PROPERTY = "com.imlehr.aqs.combineLimit";
+
+    private static final long DURATION_MS = Long.getLong("duration", 2000);
+
+    private static final long STUCK_MS = 10_000;
+
+    private static int combineLimit;
+
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty(LIMIT_PROPERTY) == null) {
+            System.setProperty(LIMIT_PROPERTY, "2");
+        }
+        combineLimit = Math.max(1, Integer.getInteger(LIMIT_PROPERTY));
+        mixed();
+        ownFailure();
+        combinedFailure();
+        fallbackAfterSpinning();
+        slotsFull();
+        combineLimitHandoff();
+        System.out.println("dooooneeeee!");
+    }
+
+
+    /**
+     * 只在锁里抛出来的，带上是哪个请求，发请求的线程收到的得是自己那个
+     */
+    private static final class Boom extends RuntimeException {
+
+        final long id;
+
+        Boom(long id) {
+            super("boom " + id, null, false, false);
+            this.id = id;
+        }
+    }
+
+    /**
+     * 几个线程用executeLocked（偶尔抛异常、偶尔在action里再套一层、偶尔先lock()再executeLocked），
+     * 另外几个用普通的lock()/tryLock()，检查互斥和计数
+     */
+    private static void mixed() throws InterruptedException {
+        ReentrantLock lock = new ReentrantLock();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DURATION_MS);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicLong expected = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        //下面两个只在锁里读写
+        int[] inside = {0};
+        long[] count = {0};
+        Runnable critical = () -> {
+            check(inside[0]++ == 0, "two holders inside the lock");
+            count[0]++;
+            inside[0]--;
+        };
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                for (long id = 0; System.nanoTime() - deadline < 0 && failure.get() == null; id++) {
+                    long me = id;
+                    int k = r.nextInt(16);
+                    try {
+                        long v;
+                        if (k == 0) {
+                            lock.lock();
+                            try {
+                                v = lock.executeLocked(() -> {
+                                    check(lock.isHeldByCurrentThread(), "nested action ran off the holding thread");
+                                    critical.run();
+                                    return me;
+                                });
+                            } finally {
+                                lock.unlock();
+                            }
+                        } else {
+                            v = lock.executeLocked(() -> {
+                                critical.run();
+                                if (k == 1) {
+                                    throw new Boom(me);
+                                }
+                                if (k == 2) {
+                                    //套一层，已经拿着锁了就直接跑
+                                    return lock.executeLocked(() -> {
+                                        critical.run();
+                                        expected.incrementAndGet();
+                                        return me;
+                                    });
+                                }
+                                return me;
+                            });
+                        }
+                        check(v == me, "got result " + v + " for request " + me);
+                    } catch (Boom e) {
+                        check(e.id == me, "got failure of request " + e.id + " for request " + me);
+                        failed.incrementAndGet();
+                    }
+                    expected.incrementAndGet();
+                }
+            }, "combining-" + i));
+        }
+        for (int i = 0; i < 2; i++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                while (System.nanoTime() - deadline < 0 && failure.get() == null) {
+                    if (r.nextBoolean()) {
+                        lock.lock();
+                    } else if (!lock.tryLock()) {
+                        continue;
+                    }
+                    try {
+                        critical.run();
+                    } finally {
+                        lock.unlock();
+                    }
+                    expected.incrementAndGet();
+                }
+            }, "plain-" + i));
+        }
+        startAll(threads, failure);
+        joinAll(threads, failure, "mixed");
+        lock.lock();
+        try {
+            check(count[0] == expected.get(), "mixed: count " + count[0] + " expected " + expected.get());
+        } finally {
+            lock.unlock();
+        }
+        check(!lock.isLocked() && !lock.hasQueuedThreads(), "mixed: lock left in use");
+        System.out.printf("mixed: ops=%d failed=%d%n", count[0], failed.get());
+    }
+
+    /**
+     * 锁是空的，自己拿到自己跑，抛出来的异常原样回来，锁放掉了
+     */
+    private static void ownFailure() {
+        ReentrantLock lock = new ReentrantLock();
+        Boom boom = new Boom(1);
+        try {
+            lock.executeLocked(() -> {
+                throw boom;
+            });
+            throw new AssertionError("ownFailure: exception swallowed");
+        } catch (Boom e) {
+            check(e == boom, "ownFailure: got a different exception");
+        }
+        check(!lock.isLocked(), "ownFailure: lock left held after the action threw");
+        check(lock.executeLocked(() -> 2) == 2, "ownFailure: lock unusable afterwards");
+    }
+
+    /**
+     * main在executeLocked里面拿着锁，等另一个线程挂好请求、在lock()里park了再出来，
+     * main放锁之前替它跑，它的action抛的异常不能从main这边出来，要回到它自己的线程上；两边都完了锁是空的
+     */
+    private static void combinedFailure() throws InterruptedException {
+        ReentrantLock lock = new ReentrantLock();
+        Boom boom = new Boom(2);
+        AtomicReference<Thread> ranOn = new AtomicReference<>();
+        AtomicReference<Throwable> got = new AtomicReference<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread caller = new Thread(() -> {
+            try {
+                lock.executeLocked(() -> {
+                    ranOn.set(Thread.currentThread());
+                    throw boom;
+                });
+            } catch (Boom e) {
+                got.set(e);
+            }
+        }, "caller");
+        int v = lock.executeLocked(() -> {
+            startAll(List.of(caller), failure);
+            try {
+                awaitParked(caller);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            return 7;
+        });
+        check(v == 7, "combinedFailure: combiner got " + v);
+        joinAll(List.of(caller), failure, "combinedFailure");
+        check(ranOn.get() == Thread.currentThread(), "combinedFailure: request not run by the lock holder");
+        check(got.get() == boom, "combinedFailure: caller got " + got.get());
+        check(!lock.isLocked() && !lock.hasQueuedThreads(), "combinedFailure: lock left in use");
+    }
+
+    /**
+     * 锁被普通lock()拿着，没人替它跑，转完yield完退回lock()；main放锁之后它自己拿到、自己跑
+     */
+    private static void fallbackAfterSpinning() throws InterruptedException {
+        ReentrantLock lock = new ReentrantLock();
+        AtomicReference<Thread> ranOn = new AtomicReference<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        long[] result = {0};
+        Thread caller = new Thread(() -> result[0] = lock.executeLocked(() -> {
+            ranOn.set(Thread.currentThread());
+            return 3L;
+        }), "caller");
+        lock.lock();
+        try {
+            startAll(List.of(caller), failure);
+            awaitParked(caller);
+            check(ranOn.get() == null, "fallbackAfterSpinning: action ran while the lock was held");
+        } finally {
+            lock.unlock();
+        }
+        joinAll(List.of(caller), failure, "fallbackAfterSpinning");
+        check(ranOn.get() == caller, "fallbackAfterSpinning: action ran on " + ranOn.get());
+        check(result[0] == 3L, "fallbackAfterSpinning: result " + result[0]);
+        check(!lock.isLocked() && !lock.hasQueuedThreads(), "fallbackAfterSpinning: lock left in use");
+    }
+
+    /**
+     * 锁被普通lock()拿着，先让每个槽都挂上一个请求（都退回lock()里park着），再来一个挂不上去的；
+     * 放锁之后挂上去的那些都能被跑到，挂不上去的那个只能自己跑
+     */
+    private static void slotsFull() throws InterruptedException {
+        ReentrantLock lock = new ReentrantLock();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Map<Thread, Thread> ranOn = new HashMap<>();
+        int n = slotCount();
+        List<Thread> callers = new ArrayList<>();
+        for (int i = 0; i <= n; i++) {
+            int me = i;
+            callers.add(new Thread(() -> {
+                Thread self = Thread.currentThread();
+                int v = lock.executeLocked(() -> {
+                    //只在锁里读写
+                    ranOn.put(self, Thread.currentThread());
+                    return me;
+                });
+                check(v == me, "slotsFull: got result " + v + " for request " + me);
+            }, "caller-" + i));
+        }
+        Thread overflow = callers.get(n);
+        lock.lock();
+        try {
+            for (Thread t : callers) {
+                startAll(List.of(t), failure);
+                awaitParked(t);
+            }
+        } finally {
+            lock.unlock();
+        }
+        joinAll(callers, failure, "slotsFull");
+        lock.lock();
+        try {
+            check(ranOn.size() == callers.size(), "slotsFull: " + ranOn.size() + " of " + callers.size() + " requests ran");
+            check(ranOn.get(overflow) == overflow, "slotsFull: overflow request ran on " + ranOn.get(overflow));
+        } finally {
+            lock.unlock();
+        }
+        check(!lock.isLocked() && !lock.hasQueuedThreads(), "slotsFull: lock left in use");
+    }
+
+    /**
+     * 锁被普通lock()拿着，挂上COMBINE_LIMIT+3个请求；放锁之后第一个拿到锁的人跑自己的再替别人跑最多COMBINE_LIMIT个，
+     * 剩下的要等后面拿到锁的人跑，每个请求正好跑一次，没有哪个线程跑了超过1+COMBINE_LIMIT个
+     */
+    private static void combineLimitHandoff() throws InterruptedException {
+        int n = combineLimit + 3;
+        if (n > slotCount()) {
+            System.out.println("combineLimitHandoff: skipped, " + LIMIT_PROPERTY + "=" + combineLimit
+                    + " does not fit in " + slotCount() + " slots");
+            return;
+        }
+        ReentrantLock lock = new ReentrantLock();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        //下面两个只在锁里读写
+        Map<Thread, Integer> runs = new HashMap<>();
+        int[] ran = new int[n];
+        List<Thread> callers = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            int me = i;
+            callers.add(new Thread(() -> lock.executeLocked(() -> {
+                ran[me]++;
+                return runs.merge(Thread.currentThread(), 1, Integer::sum);
+            }), "caller-" + i));
+        }
+        lock.lock();
+        try {
+            for (Thread t : callers) {
+                startAll(List.of(t), failure);
+                awaitParked(t);
+            }
+        } finally {
+            lock.unlock();
+        }
+        joinAll(callers, failure, "combineLimitHandoff");
+        lock.lock();
+        try {
+            for (int i = 0; i < n; i++) {
+                check(ran[i] == 1, "combineLimitHandoff: request " + i + " ran " + ran[i] + " times");
+            }
+            for (Map.Entry<Thread, Integer> e : runs.entrySet()) {
+                check(e.getValue() <= 1 + combineLimit, "combineLimitHandoff: " + e.getKey().getName() + " ran "
+                        + e.getValue() + " requests with combineLimit=" + combineLimit);
+            }
+            System.out.printf("combineLimitHandoff: %d requests over %d threads, combineLimit=%d%n",
+                    n, runs.size(), combineLimit);
+        } finally {
+            lock.unlock();
+        }
+        check(!lock.isLocked() && !lock.hasQueuedThreads(), "combineLimitHandoff: lock left in use");
+    }
+
+    /**
+     * 跟FlatCombiner里的算法一样：核数两倍往上取到2的幂，至少8个
+     */
+    private static int slotCount() {
+        return Integer.highestOneBit(Math.max(8, Runtime.getRuntime().availableProcessors() * 2) - 1) << 1;
+    }
+
+    private static void startAll(List<Thread> threads, AtomicReference<Throwable> failure) {
+        for (Thread t : threads) {
+            t.setDaemon(true);
+            t.setUncaughtExceptionHandler((th, e) -> failure.compareAndSet(null, e));
+            t.start();
+        }
+    }
+
+    private static void joinAll(List<Thread> threads, AtomicReference<Throwable> failure, String name)
+            throws InterruptedException {
+        for (Thread t : threads) {
+            t.join(DURATION_MS + STUCK_MS);
+            check(!t.isAlive(), name + ": " + t.getName() + " stuck");
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(name + " failed", failure.get());
+        }
+    }
+
+    /**
+     * 转和yield的时候是RUNNABLE，park着说明已经退回lock()里排队了
+     */
+    private static void awaitParked(Thread t) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STUCK_MS);
+        while (t.getState() != Thread.State.WAITING && t.getState() != Thread.State.TIMED_WAITING) {
+            check(System.nanoTime() - deadline < 0, t.getName() + " never parked");
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+    }
+
+    private static void check(boolean ok, String message) {
+        if (!ok) {
+            throw new AssertionError(message);
+        }
+    }
+
+}
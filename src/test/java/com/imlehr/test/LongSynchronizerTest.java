@@ -0,0 +1,376 @@
+package com.imlehr.test;
+
+import com.imlehr.aqs.AbstractQueuedLongSynchronizer;
+import com.imlehr.aqs.AbstractQueuedSynchronizer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+
+/**
+ * AbstractQueuedLongSynchronizer的回归检查，state、arg和tryAcquireShared的返回值过了int范围之后排队的路径上不能被截断：
+ * 超过Integer.MAX_VALUE的arg排队之后原样传回tryAcquire；共享模式下返回值的低32位是负数、整个long是正数的时候，
+ * 排着的共享节点要拿到而且接着往后传播；await存下来、回来再拿回去的state超过2^32
+ * 另外检查int的AbstractQueuedSynchronizer：StateFields.state变成long之后，负数、边界值来回转、排队、await都还是原来的int
+ * 同步器都写在包外面，顺带检查门面继承下来的protected方法和ConditionObject包外面用得了
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+public class LongSynchronizerTest {
+
+    private static final long STUCK_MS = 10_000;
+
+    /**
+     * 低32位是0x80000000，截成int是Integer.MIN_VALUE
+     */
+    private static final long HIGH = (3L << 32) | 0x8000_0000L;
+
+
+    public static void main(String[] args) throws Exception {
+        longExclusive();
+        longShared();
+        longCondition();
+        intNarrowing();
+        System.out.println("dooooneeeee!");
+    }
+
+
+    /**
+     * 独占，state就是持有者拿锁时候的arg，可重入
+     */
+    static final class LongMutex extends AbstractQueuedLongSynchronizer {
+
+        @Override
+        protected boolean tryAcquire(long arg) {
+            check(arg > 0, "arg came through as " + arg);
+            long c = getState();
+            if (c == 0) {
+                if (compareAndSetState(0, arg)) {
+                    setExclusiveOwnerThread(Thread.currentThread());
+                    return true;
+                }
+                return false;
+            }
+            if (getExclusiveOwnerThread() == Thread.currentThread()) {
+                setState(c + arg);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        protected boolean tryRelease(long arg) {
+            if (getExclusiveOwnerThread() != Thread.currentThread()) {
+                throw new IllegalMonitorStateException();
+            }
+            long c = getState() - arg;
+            check(c >= 0, "released " + arg + " out of " + getState());
+            if (c == 0) {
+                setExclusiveOwnerThread(null);
+            }
+            setState(c);
+            return c == 0;
+        }
+
+        long state() {
+            return getState();
+        }
+
+        Condition newCondition() {
+            return new ConditionObject();
+        }
+    }
+
+    /**
+     * 按字节算的额度，state是剩下多少
+     */
+    static final class LongBudget extends AbstractQueuedLongSynchronizer {
+
+        LongBudget(long bytes) {
+            setState(bytes);
+        }
+
+        @Override
+        protected long tryAcquireShared(long bytes) {
+            for (; ; ) {
+                long available = getState();
+                long remaining = available - bytes;
+                if (remaining < 0 || compareAndSetState(available, remaining)) {
+                    return remaining;
+                }
+            }
+        }
+
+        @Override
+        protected boolean tryReleaseShared(long bytes) {
+            for (; ; ) {
+                long available = getState();
+                if (compareAndSetState(available, available + bytes)) {
+                    return true;
+                }
+            }
+        }
+
+        long state() {
+            return getState();
+        }
+    }
+
+    /**
+     * int的独占，state就是拿锁时候的arg，arg可以是负数，只是不能是0
+     */
+    static final class IntMutex extends AbstractQueuedSynchronizer {
+
+        int lastArg;
+
+        @Override
+        protected boolean tryAcquire(int arg) {
+            lastArg = arg;
+            if (getState() == 0 && compareAndSetState(0, arg)) {
+                setExclusiveOwnerThread(Thread.currentThread());
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        protected boolean tryRelease(int arg) {
+            if (getExclusiveOwnerThread() != Thread.currentThread()) {
+                throw new IllegalMonitorStateException();
+            }
+            check(getState() == arg, "released " + arg + " but state is " + getState());
+            setExclusiveOwnerThread(null);
+            setState(0);
+            return true;
+        }
+
+        int state() {
+            return getState();
+        }
+
+        void set(int state) {
+            setState(state);
+        }
+
+        boolean cas(int expect, int update) {
+            return compareAndSetState(expect, update);
+        }
+
+        Condition newCondition() {
+            return new ConditionObject();
+        }
+    }
+
+    /**
+     * main拿着锁，另一个线程用超过int的arg排队，放锁之后它拿到的state就是它自己的arg
+     */
+    private static void longExclusive() throws InterruptedException {
+        LongMutex sync = new LongMutex();
+        long mine = (1L << 40) + 7;
+        sync.acquire(mine);
+        check(sync.state() == mine, "state after acquire " + sync.state());
+        sync.acquire(HIGH);
+        check(sync.state() == mine + HIGH, "reentrant state " + sync.state());
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        long[] seen = new long[2];
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(() -> {
+            try {
+                check(!sync.tryAcquireNanos(HIGH, TimeUnit.MILLISECONDS.toNanos(20)), "timed acquire got a held lock");
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            sync.acquire(HIGH);
+            seen[0] = sync.state();
+            sync.release(HIGH);
+        }, "long-exclusive"));
+        threads.add(new Thread(() -> {
+            try {
+                sync.acquireInterruptibly(Long.MAX_VALUE);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            seen[1] = sync.state();
+            sync.release(Long.MAX_VALUE);
+        }, "long-interruptibly"));
+        for (Thread t : threads) {
+            t.setDaemon(true);
+            t.setUncaughtExceptionHandler((th, e) -> failure.compareAndSet(null, e));
+            t.start();
+        }
+        for (Thread t : threads) {
+            awaitParked(t);
+        }
+        check(sync.getQueueLength() == 2, "queue length " + sync.getQueueLength());
+        check(!sync.release(HIGH), "partial release freed the lock");
+        check(sync.release(mine), "full release kept the lock");
+        for (Thread t : threads) {
+            t.join(STUCK_MS);
+            check(!t.isAlive(), t.getName() + " stuck");
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("long exclusive check failed", failure.get());
+        }
+        check(seen[0] == HIGH, "queued acquire(" + HIGH + ") saw state " + seen[0]);
+        check(seen[1] == Long.MAX_VALUE, "queued acquireInterruptibly(Long.MAX_VALUE) saw state " + seen[1]);
+        check(sync.state() == 0 && !sync.hasQueuedThreads(), "lock left in use");
+    }
+
+    /**
+     * 额度是0，两个线程各要8G排着；一次放回16G+2G，第一个拿到之后剩10G，低32位截成int是负数，
+     * 按long是正数，得接着把第二个叫醒
+     */
+    private static void longShared() throws InterruptedException {
+        long each = 1L << 33;
+        long extra = 0x8000_0000L;
+        LongBudget budget = new LongBudget(0);
+        check(budget.tryAcquireSharedNanos(0, 0) && budget.state() == 0, "empty acquire failed");
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            threads.add(new Thread(() -> budget.acquireShared(each), "long-shared-" + i));
+        }
+        for (Thread t : threads) {
+            t.setDaemon(true);
+            t.setUncaughtExceptionHandler((th, e) -> failure.compareAndSet(null, e));
+            t.start();
+            awaitParked(t);
+        }
+        check((int) (each + extra) < 0, "test setup: remaining must look negative as an int");
+        budget.releaseShared(2 * each + extra);
+        for (Thread t : threads) {
+            t.join(STUCK_MS);
+            check(!t.isAlive(), t.getName() + " not woken, remaining " + budget.state());
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("long shared check failed", failure.get());
+        }
+        check(budget.state() == extra, "remaining budget " + budget.state());
+
+        //快路径上也一样
+        check(budget.tryAcquireSharedNanos(extra, 0), "fast path refused the last " + extra + " bytes");
+        check(!budget.tryAcquireSharedNanos(1, 0), "budget overdrawn");
+        check(budget.state() == 0, "budget after draining " + budget.state());
+    }
+
+    /**
+     * 拿着超过2^32的state去await，另一个线程拿锁signal，await回来state原样回来
+     */
+    private static void longCondition() throws InterruptedException {
+        LongMutex sync = new LongMutex();
+        Condition cond = sync.newCondition();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        long[] after = {0};
+        Thread waiter = new Thread(() -> {
+            sync.acquire(HIGH);
+            try {
+                sync.acquire(5);
+                cond.await();
+                after[0] = sync.state();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            } finally {
+                sync.release(5);
+                sync.release(HIGH);
+            }
+        }, "long-await");
+        waiter.setDaemon(true);
+        waiter.setUncaughtExceptionHandler((t, e) -> failure.compareAndSet(null, e));
+        waiter.start();
+        awaitParked(waiter);
+
+        sync.acquire(1);
+        check(sync.state() == 1, "await did not fully release, state " + sync.state());
+        cond.signal();
+        sync.release(1);
+        waiter.join(STUCK_MS);
+        check(!waiter.isAlive(), "waiter stuck");
+        if (failure.get() != null) {
+            throw new AssertionError("long condition check failed", failure.get());
+        }
+        check(after[0] == HIGH + 5, "await restored state " + after[0] + ", saved " + (HIGH + 5));
+        check(sync.state() == 0, "lock left in use");
+    }
+
+    /**
+     * int的门面：负数和边界值存进long的state再读出来还是原来的int，cas两边的放宽一致；
+     * 负数arg排队之后原样传回tryAcquire；await存下来的是int的state
+     */
+    private static void intNarrowing() throws InterruptedException {
+        IntMutex sync = new IntMutex();
+        sync.set(-1);
+        check(sync.state() == -1, "setState(-1) read back " + sync.state());
+        check(sync.cas(-1, Integer.MIN_VALUE), "cas(-1, MIN_VALUE) failed");
+        check(sync.state() == Integer.MIN_VALUE, "state after cas " + sync.state());
+        check(!sync.cas(Integer.MAX_VALUE, 0), "cas matched a wrong expected value");
+        check(sync.cas(Integer.MIN_VALUE, Integer.MAX_VALUE), "cas(MIN_VALUE, MAX_VALUE) failed");
+        check(sync.state() == Integer.MAX_VALUE, "state after cas " + sync.state());
+        sync.set(0);
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        int[] seen = {0};
+        sync.acquire(-1);
+        Thread queued = new Thread(() -> {
+            sync.acquire(Integer.MIN_VALUE);
+            seen[0] = sync.state();
+            sync.release(Integer.MIN_VALUE);
+        }, "int-queued");
+        queued.setDaemon(true);
+        queued.setUncaughtExceptionHandler((t, e) -> failure.compareAndSet(null, e));
+        queued.start();
+        awaitParked(queued);
+        sync.release(-1);
+        queued.join(STUCK_MS);
+        check(!queued.isAlive(), "int waiter stuck");
+        check(sync.lastArg == Integer.MIN_VALUE, "queued tryAcquire got arg " + sync.lastArg);
+        check(seen[0] == Integer.MIN_VALUE, "queued acquire saw state " + seen[0]);
+
+        Condition cond = sync.newCondition();
+        int[] after = {0};
+        Thread waiter = new Thread(() -> {
+            sync.acquire(Integer.MAX_VALUE);
+            try {
+                cond.await();
+                after[0] = sync.state();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            } finally {
+                sync.release(Integer.MAX_VALUE);
+            }
+        }, "int-await");
+        waiter.setDaemon(true);
+        waiter.setUncaughtExceptionHandler((t, e) -> failure.compareAndSet(null, e));
+        waiter.start();
+        awaitParked(waiter);
+        sync.acquire(-7);
+        cond.signal();
+        sync.release(-7);
+        waiter.join(STUCK_MS);
+        check(!waiter.isAlive(), "int await stuck");
+        if (failure.get() != null) {
+            throw new AssertionError("int narrowing check failed", failure.get());
+        }
+        check(after[0] == Integer.MAX_VALUE, "await restored int state " + after[0]);
+        check(sync.state() == 0 && !sync.hasQueuedThreads(), "int lock left in use");
+    }
+
+    private static void awaitParked(Thread t) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STUCK_MS);
+        while (t.getState() != Thread.State.WAITING) {
+            check(System.nanoTime() - deadline < 0, t.getName() + " never parked");
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+    }
+
+    private static void check(boolean ok, String message) {
+        if (!ok) {
+            throw new AssertionError(message);
+        }
+    }
+
+}
@@ -0,0 +1,507 @@
+package com.imlehr.test;
+
+import com.imlehr.aqs.McsLock;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * McsLock的回归检查：
+ * 几个线程用lock/tryLock/限时tryLock/被随机中断的lockInterruptibly抢，临界区里同时只有一个人；
+ * 超时、中断放弃的节点（ABANDONED）留在队列中间，放锁的人要跳过它们交给后面的人，排在最后的放弃了也不能把锁卡住；
+ * Condition的await/signal/signalAll、超时、中断，signal要跳过已经超时走了的等待者；
+ * 放锁换下来的节点留在ThreadLocal里下次拿锁接着用，重入不占节点
+ * 单核上不自旋，可以加-XX:ActiveProcessorCount=4再跑一遍，-Dduration=毫秒 改混着抢多久
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+public class McsLockTest {
+
+    private static final long DURATION_MS = Long.getLong("duration", 2000);
+
+    private static final long STUCK_MS = 10_000;
+
+
+    public static void main(String[] args) throws Exception {
+        exclusion();
+        abandonedNodes();
+        abandonedTail();
+        awaitSignal();
+        signalAll();
+        timedAndInterruptedAwait();
+        spareNode();
+        System.out.println("dooooneeeee!");
+    }
+
+
+    private static void exclusion() throws InterruptedException {
+        McsLock lock = new McsLock();
+        Condition cond = lock.newCondition();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DURATION_MS);
+        int[] inside = {0};
+        long[] count = {0};
+        AtomicLong expected = new AtomicLong();
+        AtomicLong gaveUp = new AtomicLong();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> contenders = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            contenders.add(new Thread(() -> {
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                while (System.nanoTime() - deadline < 0 && failure.get() == null) {
+                    boolean got = true;
+                    try {
+                        switch (r.nextInt(4)) {
+                            case 0:
+                                lock.lock();
+                                break;
+                            case 1:
+                                got = lock.tryLock();
+                                break;
+                            case 2:
+                                got = lock.tryLock(r.nextInt(100), TimeUnit.MICROSECONDS);
+                                break;
+                            default:
+                                lock.lockInterruptibly();
+                                break;
+                        }
+                    } catch (InterruptedException e) {
+                        got = false;
+                    }
+                    if (!got) {
+                        gaveUp.incrementAndGet();
+                        continue;
+                    }
+                    try {
+                        if (inside[0]++ != 0) {
+                            throw new AssertionError("two holders inside an McsLock");
+                        }
+                        if ((count[0]++ & 7) == 0) {
+                            lock.lock();
+                            check(lock.getHoldCount() == 2, "hold count " + lock.getHoldCount());
+                            lock.unlock();
+                        }
+                        inside[0]--;
+                        if ((count[0] & 63) == 0) {
+                            //顺带在条件上短暂等一下，醒来重新排队拿锁
+                            cond.awaitNanos(r.nextInt(50_000));
+                            check(lock.getHoldCount() == 1, "hold count after await " + lock.getHoldCount());
+                        } else if ((count[0] & 15) == 0) {
+                            cond.signalAll();
+                        }
+                    } catch (InterruptedException e) {
+                        //await里被中断，锁已经拿回来了
+                        check(lock.isHeldByCurrentThread(), "await threw without the lock");
+                    } finally {
+                        lock.unlock();
+                    }
+                    expected.incrementAndGet();
+                }
+                Thread.interrupted();
+            }, "mcs-" + i));
+        }
+        List<Thread> threads = new ArrayList<>(contenders);
+        threads.add(new Thread(() -> {
+            ThreadLocalRandom r = ThreadLocalRandom.current();
+            while (contenders.stream().anyMatch(Thread::isAlive)) {
+                contenders.get(r.nextInt(contenders.size())).interrupt();
+                LockSupport.parkNanos(r.nextInt(500_000));
+            }
+        }, "interrupter"));
+        for (Thread t : threads) {
+            t.setDaemon(true);
+            t.setUncaughtExceptionHandler((th, e) -> failure.compareAndSet(null, e));
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join(DURATION_MS + STUCK_MS);
+            check(!t.isAlive(), t.getName() + " stuck");
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("exclusion check failed", failure.get());
+        }
+        lock.lock();
+        try {
+            check(count[0] == expected.get(), "count " + count[0] + " expected " + expected.get());
+        } finally {
+            lock.unlock();
+        }
+        check(!lock.isLocked(), "lock left in use");
+        System.out.printf("exclusion: ops=%d gaveUp=%d%n", count[0], gaveUp.get());
+    }
+
+    /**
+     * 队列：持锁的 -> 限时的A -> 一直等的B -> 可中断的C -> 一直等的D
+     * A超时、C被中断，节点都留在队列里；放锁要越过A交给B，B放锁要越过C交给D
+     */
+    private static void abandonedNodes() throws InterruptedException {
+        McsLock lock = new McsLock();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<String> order = new ArrayList<>();
+        lock.lock();
+        Thread a = start("A", failure, () -> {
+            try {
+                check(!lock.tryLock(200, TimeUnit.MILLISECONDS), "A got a held lock");
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        });
+        awaitParked(a);
+        Thread b = start("B", failure, () -> {
+            lock.lock();
+            order.add("B");
+            lock.unlock();
+        });
+        awaitParked(b);
+        AtomicReference<Object> cOutcome = new AtomicReference<>();
+        Thread c = start("C", failure, () -> {
+            try {
+                lock.lockInterruptibly();
+                cOutcome.set("acquired");
+                lock.unlock();
+            } catch (InterruptedException e) {
+                cOutcome.set(e);
+            }
+        });
+        awaitParked(c);
+        Thread d = start("D", failure, () -> {
+            lock.lock();
+            order.add("D");
+            lock.unlock();
+        });
+        awaitParked(d);
+
+        c.interrupt();
+        c.join(STUCK_MS);
+        check(cOutcome.get() instanceof InterruptedException, "C ended with " + cOutcome.get());
+        a.join(STUCK_MS);
+        check(!a.isAlive() && !c.isAlive(), "abandoning waiters stuck");
+
+        lock.unlock();
+        b.join(STUCK_MS);
+        d.join(STUCK_MS);
+        check(!b.isAlive() && !d.isAlive(), "waiter behind an abandoned node never got the lock");
+        if (failure.get() != null) {
+            throw new AssertionError("abandoned node check failed", failure.get());
+        }
+        check(order.size() == 2 && order.get(0).equals("B") && order.get(1).equals("D"), "handoff order " + order);
+        check(!lock.isLocked(), "lock left in use");
+    }
+
+    /**
+     * 排在最后的节点放弃了：放锁的人越过它之后要把tail清掉，之后的tryLock还能拿到
+     * 放弃的同时又有人排进来，也得交给新来的
+     */
+    private static void abandonedTail() throws InterruptedException {
+        McsLock lock = new McsLock();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        lock.lock();
+        Thread a = start("tail-A", failure, () -> {
+            try {
+                check(!lock.tryLock(50, TimeUnit.MILLISECONDS), "A got a held lock");
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        });
+        a.join(STUCK_MS);
+        check(!a.isAlive(), "timed waiter stuck");
+        check(lock.isLocked(), "timed-out waiter released the lock");
+        lock.unlock();
+        check(!lock.isLocked(), "abandoned tail left the lock looking held");
+        check(lock.tryLock(), "tryLock failed after an abandoned tail was skipped");
+
+        //持锁 -> 放弃的 -> 新来的
+        Thread b = start("tail-B", failure, () -> {
+            try {
+                check(!lock.tryLock(50, TimeUnit.MILLISECONDS), "B got a held lock");
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        });
+        b.join(STUCK_MS);
+        AtomicInteger got = new AtomicInteger();
+        Thread c = start("tail-C", failure, () -> {
+            lock.lock();
+            got.incrementAndGet();
+            lock.unlock();
+        });
+        awaitParked(c);
+        lock.unlock();
+        c.join(STUCK_MS);
+        check(!c.isAlive() && got.get() == 1, "waiter queued after an abandoned node never got the lock");
+        check(!lock.isLocked(), "lock left in use");
+        if (failure.get() != null) {
+            throw new AssertionError("abandoned tail check failed", failure.get());
+        }
+    }
+
+    /**
+     * 两个线程在两个条件上轮流等对方，await之前重入两次，醒来之后重入次数要恢复
+     */
+    private static void awaitSignal() throws InterruptedException {
+        McsLock lock = new McsLock();
+        Condition[] turn = {lock.newCondition(), lock.newCondition()};
+        int rounds = 5_000;
+        int[] next = {0};
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] players = new Thread[2];
+        for (int i = 0; i < 2; i++) {
+            int me = i;
+            players[i] = start("player-" + i, failure, () -> {
+                for (int k = 0; k < rounds; k++) {
+                    lock.lock();
+                    lock.lock();
+                    try {
+                        while (next[0] != me) {
+                            turn[me].await();
+                        }
+                        check(lock.getHoldCount() == 2, "hold count after await " + lock.getHoldCount());
+                        next[0] = 1 - me;
+                        turn[1 - me].signal();
+                    } catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    } finally {
+                        lock.unlock();
+                        lock.unlock();
+                    }
+                }
+            });
+        }
+        for (Thread t : players) {
+            t.join(STUCK_MS);
+            check(!t.isAlive(), "ping-pong stuck");
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("await/signal check failed", failure.get());
+        }
+        check(!lock.isLocked(), "lock left in use");
+    }
+
+    /**
+     * 一轮一轮地signalAll，每一轮所有等的人都要醒
+     */
+    private static void signalAll() throws InterruptedException {
+        McsLock lock = new McsLock();
+        Condition cond = lock.newCondition();
+        int waiters = 8;
+        long[] generation = {0};
+        AtomicInteger woken = new AtomicInteger();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (int round = 1; round <= 50; round++) {
+            long mine = round;
+            Thread[] threads = new Thread[waiters];
+            AtomicInteger waiting = new AtomicInteger();
+            for (int i = 0; i < waiters; i++) {
+                threads[i] = start("signalAll-" + i, failure, () -> {
+                    lock.lock();
+                    try {
+                        waiting.incrementAndGet();
+                        while (generation[0] != mine) {
+                            if ((mine & 1) == 0) {
+                                cond.await();
+                            } else {
+                                cond.awaitUninterruptibly();
+                            }
+                        }
+                        woken.incrementAndGet();
+                    } catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    } finally {
+                        lock.unlock();
+                    }
+                });
+            }
+            long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STUCK_MS);
+            while (waiting.get() < waiters) {
+                check(System.nanoTime() - until < 0, "waiters never arrived");
+                LockSupport.parkNanos(100_000L);
+            }
+            lock.lock();
+            try {
+                generation[0] = mine;
+                cond.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            for (Thread t : threads) {
+                t.join(STUCK_MS);
+                check(!t.isAlive(), "waiter missed signalAll in round " + round);
+            }
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("signalAll check failed", failure.get());
+        }
+        check(woken.get() == 50 * waiters, "woken " + woken.get());
+    }
+
+    private static void timedAndInterruptedAwait() throws InterruptedException {
+        McsLock lock = new McsLock();
+        Condition cond = lock.newCondition();
+
+        lock.lock();
+        try {
+            check(cond.awaitNanos(TimeUnit.MILLISECONDS.toNanos(20)) <= 0L, "awaitNanos did not time out");
+            check(!cond.await(20, TimeUnit.MILLISECONDS), "await(timeout) did not time out");
+            check(!cond.awaitUntil(new Date(System.currentTimeMillis() + 20)), "awaitUntil did not time out");
+            check(lock.getHoldCount() == 1, "hold count after timed awaits " + lock.getHoldCount());
+        } finally {
+            lock.unlock();
+        }
+
+        //排第一的等待者超时取消了，但锁在别人手里，它还挂在条件队列上没摘掉：signal要跳过它，送给后面那个
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread quitter = start("quitter", failure, () -> {
+            lock.lock();
+            try {
+                check(cond.awaitNanos(TimeUnit.MILLISECONDS.toNanos(30)) <= 0L, "quitter was signalled");
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            } finally {
+                lock.unlock();
+            }
+        });
+        awaitParked(quitter);
+        boolean[] signalled = {false};
+        Thread stayer = start("stayer", failure, () -> {
+            lock.lock();
+            try {
+                long nanos = TimeUnit.MILLISECONDS.toNanos(STUCK_MS);
+                while (!signalled[0] && nanos > 0L) {
+                    nanos = cond.awaitNanos(nanos);
+                }
+                check(signalled[0], "signal skipped the live waiter");
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            } finally {
+                lock.unlock();
+            }
+        });
+        awaitParked(stayer);
+        lock.lock();
+        try {
+            //quitter在这期间超时，排到MCS队列里等这把锁
+            TimeUnit.MILLISECONDS.sleep(100);
+            signalled[0] = true;
+            cond.signal();
+        } finally {
+            lock.unlock();
+        }
+        quitter.join(STUCK_MS);
+        stayer.join(STUCK_MS);
+        check(!quitter.isAlive() && !stayer.isAlive(), "quitter or stayer stuck");
+
+        //signal之前被中断：抛InterruptedException，抛出来的时候锁在手里
+        AtomicReference<Object> outcome = new AtomicReference<>();
+        Thread interrupted = start("interrupted-await", failure, () -> {
+            lock.lock();
+            lock.lock();
+            try {
+                cond.await();
+                outcome.set("returned");
+            } catch (InterruptedException e) {
+                check(lock.getHoldCount() == 2, "await threw with hold count " + lock.getHoldCount());
+                outcome.set(e);
+            } finally {
+                lock.unlock();
+                lock.unlock();
+            }
+        });
+        awaitParked(interrupted);
+        interrupted.interrupt();
+        interrupted.join(STUCK_MS);
+        check(outcome.get() instanceof InterruptedException, "interrupted await ended with " + outcome.get());
+        if (failure.get() != null) {
+            throw new AssertionError("timed/interrupted await check failed", failure.get());
+        }
+        check(!lock.isLocked(), "lock left in use");
+    }
+
+    /**
+     * 放锁换下来的节点留给同一个线程下次用：第二次拿锁用的就是第一次那个节点，重入不动备用节点，
+     * 同时拿着两把锁的时候第二把才new
+     */
+    private static void spareNode() throws Exception {
+        Field holder = McsLock.class.getDeclaredField("holder");
+        holder.setAccessible(true);
+        Field spareField = Class.forName("com.imlehr.aqs.McsLock$QNode").getDeclaredField("SPARE");
+        spareField.setAccessible(true);
+        ThreadLocal<?> spare = (ThreadLocal<?>) spareField.get(null);
+
+        McsLock lock = new McsLock();
+        McsLock other = new McsLock();
+        lock.lock();
+        Object first = holder.get(lock);
+        lock.unlock();
+        check(spareOf(spare) == first, "released node not kept as the spare");
+
+        lock.lock();
+        check(holder.get(lock) == first, "second lock() did not reuse the spare node");
+        check(spareOf(spare) == null, "spare still set while its node is in use");
+        lock.lock();
+        lock.lock();
+        check(holder.get(lock) == first && spareOf(spare) == null, "reentry touched the nodes");
+
+        other.lock();
+        Object second = holder.get(other);
+        check(second != first, "two held locks share one node");
+        other.unlock();
+        check(spareOf(spare) == second, "second lock's node not kept as the spare");
+
+        lock.unlock();
+        lock.unlock();
+        check(lock.isHeldByCurrentThread(), "released too early");
+        lock.unlock();
+        check(spareOf(spare) == second, "spare replaced while one was already kept");
+
+        //tryLock失败的时候节点要还回去
+        Thread holderThread = new Thread(lock::lock);
+        holderThread.start();
+        holderThread.join();
+        check(!lock.tryLock(), "tryLock succeeded on a held lock");
+        check(spareOf(spare) == second, "failed tryLock lost the spare node");
+    }
+
+    private static Object spareOf(ThreadLocal<?> spare) {
+        return ((Object[]) spare.get())[0];
+    }
+
+    private static Thread start(String name, AtomicReference<Throwable> failure, Runnable r) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        t.setUncaughtExceptionHandler((th, e) -> failure.compareAndSet(null, e));
+        t.start();
+        return t;
+    }
+
+    /**
+     * 等线程排上队停下来，排队的顺序靠这个保证
+     */
+    private static void awaitParked(Thread t) {
+        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STUCK_MS);
+        for (; ; ) {
+            Thread.State s = t.getState();
+            if (s == Thread.State.WAITING || s == Thread.State.TIMED_WAITING) {
+                return;
+            }
+            check(s != Thread.State.TERMINATED, t.getName() + " finished before parking");
+            check(System.nanoTime() - until < 0, t.getName() + " never parked");
+            LockSupport.parkNanos(100_000L);
+        }
+    }
+
+    private static void check(boolean ok, String message) {
+        if (!ok) {
+            throw new AssertionError(message);
+        }
+    }
+
+}
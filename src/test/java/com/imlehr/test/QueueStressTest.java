@@ -0,0 +1,413 @@
+package com.imlehr.test;
+
+import com.imlehr.aqs.LockHandle;
+import com.imlehr.aqs.ReentrantLock;
+import com.imlehr.aqs.WaitStrategy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 排队那一块的回归检查：节点复用（带代数的waitStatus、ThreadLocal里的备用节点）、cancelAcquire、异步等待者、有界交接
+ * 几种获取混在一起抢同一把锁：lock、tryLock、限时tryLock、被随机中断的lockInterruptibly、
+ * lockAsync、限时tryLockAsync、lockAsync完马上cancel，另外几个线程在条件队列上await/awaitNanos，一个线程一轮一轮地signalAll
+ * 检查的是：临界区里同时只有一个人；每一轮signalAll每个等的人都醒了（awaitNanos等满了还没等到就是丢了唤醒）；
+ * 最后锁是空的、队列是空的、计数对得上；哪个线程挂住不动了也算失败
+ * 不公平、公平、有界三种锁各跑一遍，再配上每种WaitStrategy（BUSY_SPIN、SPIN_YIELD、PARK、spinThenPark）各跑一遍
+ * 单核上很多自旋的路径走不到，可以加-XX:ActiveProcessorCount=4再跑一遍，-Dduration=毫秒 改每种锁跑多久
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+public class QueueStressTest {
+
+    private static final long DURATION_MS = Long.getLong("duration", 2000);
+
+    /**
+     * 一轮signalAll之后等多久还没全醒就算丢了唤醒
+     */
+    private static final long WAKEUP_TIMEOUT_MS = 10_000;
+
+    private static final int NOISE_THREADS = 4;
+
+    private static final int WAITERS = 4;
+
+    private final String name;
+    private final ReentrantLock lock;
+    private final Condition cond;
+    private final ExecutorService pool = Executors.newFixedThreadPool(3);
+
+    /**
+     * 下面几个都只在锁里读写
+     */
+    private int inside;
+    private long count;
+    private long generation;
+    private boolean stopped;
+
+    private final AtomicLong expected = new AtomicLong();
+    private final AtomicLong interrupted = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    private QueueStressTest(String name, ReentrantLock lock) {
+        this.name = name;
+        this.lock = lock;
+        this.cond = lock.newCondition();
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        new QueueStressTest("nonfair", new ReentrantLock(false)).run();
+        new QueueStressTest("fair", new ReentrantLock(true)).run();
+        new QueueStressTest("bounded", new ReentrantLock(2, TimeUnit.MILLISECONDS)).run();
+        //每种WaitStrategy也走一遍上面那些获取方式，自旋着等的节点不设SIGNAL，超时和中断都要在转圈的时候发现
+        strategies();
+        handoff();
+        System.out.println("dooooneeeee!");
+    }
+
+
+    private static void strategies() throws Exception {
+        WaitStrategy[] strategies = {WaitStrategy.BUSY_SPIN, WaitStrategy.SPIN_YIELD, WaitStrategy.PARK,
+                WaitStrategy.spinThenPark(64)};
+        String[] names = {"busy-spin", "spin-yield", "park", "spin-then-park"};
+        for (int i = 0; i < strategies.length; i++) {
+            new QueueStressTest(names[i], new ReentrantLock(false, strategies[i])).run();
+            new QueueStressTest(names[i] + "-fair", new ReentrantLock(true, strategies[i])).run();
+            new QueueStressTest(names[i] + "-bounded",
+                    new ReentrantLock(2, TimeUnit.MILLISECONDS, strategies[i], names[i])).run();
+        }
+    }
+
+    private void run() throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DURATION_MS);
+
+        //每个等的人看到的最后一代，signalAll的线程要等所有人都追上才发下一轮
+        AtomicLongArray seen = new AtomicLongArray(WAITERS);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < WAITERS; i++) {
+            int me = i;
+            threads.add(new Thread(() -> await(me, seen), name + "-waiter-" + i));
+        }
+        List<Thread> noise = new ArrayList<>();
+        for (int i = 0; i < NOISE_THREADS; i++) {
+            noise.add(new Thread(() -> noise(deadline), name + "-noise-" + i));
+        }
+        threads.addAll(noise);
+        threads.add(new Thread(() -> interrupter(noise), name + "-interrupter"));
+        threads.add(new Thread(() -> signaller(deadline, seen), name + "-signaller"));
+        for (Thread t : threads) {
+            //挂住了的线程别拖着jvm不退
+            t.setDaemon(true);
+            t.setUncaughtExceptionHandler((th, e) -> fail(e));
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join(DURATION_MS + 3 * WAKEUP_TIMEOUT_MS);
+            if (t.isAlive()) {
+                fail(new AssertionError(t.getName() + " stuck at " + stackOf(t)));
+                break;
+            }
+        }
+        pool.shutdown();
+        pool.awaitTermination(WAKEUP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        check();
+
+        //取消掉的节点可能还要等下一个人路过才摘掉，这里再完整地拿一次放一次
+        lock.lock();
+        try {
+            if (count != expected.get()) {
+                throw new AssertionError(name + ": count " + count + " expected " + expected.get());
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (lock.isLocked() || lock.hasQueuedThreads()) {
+            throw new AssertionError(name + ": lock left in use, queue " + lock.getQueueLength());
+        }
+        System.out.printf("%s: ops=%d rounds=%d interrupted=%d timedOut=%d cancelled=%d%n",
+                name, count, generation, interrupted.get(), timedOut.get(), cancelled.get());
+    }
+
+    /**
+     * 一半用await，一半用awaitNanos，awaitNanos等满了代数还没变就是漏了唤醒
+     */
+    private void await(int me, AtomicLongArray seen) {
+        long last = 0;
+        for (; ; ) {
+            boolean done;
+            lock.lock();
+            try {
+                long nanos = TimeUnit.MILLISECONDS.toNanos(WAKEUP_TIMEOUT_MS);
+                while (generation == last) {
+                    if ((me & 1) == 0) {
+                        cond.await();
+                    } else {
+                        nanos = cond.awaitNanos(nanos);
+                        if (nanos <= 0L && generation == last) {
+                            throw new AssertionError(name + ": lost wakeup after generation " + last);
+                        }
+                    }
+                }
+                last = generation;
+                done = stopped;
+                critical();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            } finally {
+                lock.unlock();
+            }
+            expected.incrementAndGet();
+            seen.set(me, last);
+            if (done) {
+                return;
+            }
+        }
+    }
+
+    private void signaller(long deadline, AtomicLongArray seen) {
+        for (long round = 1; ; round++) {
+            boolean last = System.nanoTime() - deadline >= 0 || failure.get() != null;
+            lock.lock();
+            try {
+                generation = round;
+                stopped = last;
+                cond.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WAKEUP_TIMEOUT_MS);
+            for (int i = 0; i < WAITERS; i++) {
+                while (seen.get(i) != round) {
+                    if (System.nanoTime() - until > 0) {
+                        throw new AssertionError(name + ": waiter " + i + " missed generation " + round);
+                    }
+                    LockSupport.parkNanos(100_000L);
+                }
+            }
+            if (last) {
+                return;
+            }
+        }
+    }
+
+    private void noise(long deadline) {
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        List<CompletableFuture<?>> pending = new ArrayList<>();
+        try {
+            while (System.nanoTime() - deadline < 0 && failure.get() == null) {
+                int k = r.nextInt(8);
+                if (k >= 5) {
+                    pending.add(async(k, r));
+                    if (pending.size() > 32) {
+                        drain(pending);
+                    }
+                    continue;
+                }
+                boolean got = true;
+                try {
+                    switch (k) {
+                        case 0:
+                            lock.lock();
+                            break;
+                        case 1:
+                            got = lock.tryLock();
+                            break;
+                        case 2:
+                            got = lock.tryLock(r.nextInt(50), TimeUnit.MICROSECONDS);
+                            if (!got) {
+                                timedOut.incrementAndGet();
+                            }
+                            break;
+                        default:
+                            lock.lockInterruptibly();
+                            break;
+                    }
+                } catch (InterruptedException e) {
+                    interrupted.incrementAndGet();
+                    got = false;
+                }
+                if (!got) {
+                    continue;
+                }
+                try {
+                    critical();
+                    //顺带重入一次，再随手signalAll一下，等的人醒了发现代数没变会接着等
+                    if ((count & 15) == 0) {
+                        lock.lock();
+                        cond.signalAll();
+                        lock.unlock();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                expected.incrementAndGet();
+            }
+            drain(pending);
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    private CompletableFuture<?> async(int k, ThreadLocalRandom r) {
+        if (k == 5) {
+            return lockAsync(lock.lockAsync(pool));
+        }
+        if (k == 6) {
+            return lockAsync(lock.tryLockAsync(r.nextInt(50), TimeUnit.MICROSECONDS, pool));
+        }
+        //挂上去马上取消，取消成功了锁不能漏，取消晚了就当正常拿到了
+        CompletableFuture<LockHandle> f = lock.lockAsync(pool);
+        CompletableFuture<?> done = lockAsync(f);
+        if (f.cancel(false)) {
+            cancelled.incrementAndGet();
+        }
+        return done;
+    }
+
+    private CompletableFuture<?> lockAsync(CompletableFuture<LockHandle> f) {
+        return f.thenAccept(h -> {
+            if (h == null) {
+                timedOut.incrementAndGet();
+                return;
+            }
+            try {
+                critical();
+                expected.incrementAndGet();
+            } finally {
+                h.unlock();
+            }
+        });
+    }
+
+    /**
+     * 等的时候可能被interrupter中断，中断了就接着等同一个
+     */
+    private void drain(List<CompletableFuture<?>> pending) {
+        for (CompletableFuture<?> f : pending) {
+            for (; ; ) {
+                try {
+                    f.get(WAKEUP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    throw new AssertionError(name + ": async waiter never completed");
+                } catch (ExecutionException e) {
+                    if (!(e.getCause() instanceof CancellationException)) {
+                        fail(e.getCause());
+                    }
+                } catch (CancellationException ignored) {
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                break;
+            }
+        }
+        pending.clear();
+    }
+
+    /**
+     * 随机中断一个noise线程，在lockInterruptibly/限时tryLock里排着的会被踢出队列
+     */
+    private void interrupter(List<Thread> noise) {
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        while (noise.stream().anyMatch(Thread::isAlive)) {
+            noise.get(r.nextInt(noise.size())).interrupt();
+            LockSupport.parkNanos(r.nextInt(200_000));
+        }
+    }
+
+    /**
+     * 只在锁里调，哪个线程调都行（异步拿到的锁不属于任何线程）
+     */
+    private void critical() {
+        if (inside++ != 0) {
+            throw new AssertionError(name + ": two holders inside the lock");
+        }
+        count++;
+        inside--;
+    }
+
+    private void fail(Throwable e) {
+        failure.compareAndSet(null, e);
+    }
+
+    private void check() {
+        Throwable e = failure.get();
+        if (e != null) {
+            throw new AssertionError(name + " failed", e);
+        }
+    }
+
+    private static String stackOf(Thread t) {
+        StringBuilder sb = new StringBuilder();
+        for (StackTraceElement e : t.getStackTrace()) {
+            sb.append("\n\tat ").append(e);
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * 有界不公平：几个线程一放锁就马上再抢（插队），排队的那个最多等handoffAfter就该被交接到，
+     * 这里给得很宽，单核上时间片本身就有几毫秒，只抓“一直插队、排队的人永远拿不到”这种情况
+     */
+    private static void handoff() throws InterruptedException {
+        ReentrantLock lock = new ReentrantLock(2, TimeUnit.MILLISECONDS);
+        long[] held = {0};
+        boolean[] stop = {false};
+        Thread[] hogs = new Thread[3];
+        for (int i = 0; i < hogs.length; i++) {
+            hogs[i] = new Thread(() -> {
+                for (; ; ) {
+                    lock.lock();
+                    try {
+                        if (stop[0]) {
+                            return;
+                        }
+                        held[0]++;
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }, "hog-" + i);
+            hogs[i].start();
+        }
+        long max = 0;
+        for (int i = 0; i < 200; i++) {
+            long s = System.nanoTime();
+            lock.lock();
+            try {
+                max = Math.max(max, System.nanoTime() - s);
+            } finally {
+                lock.unlock();
+            }
+            LockSupport.parkNanos(100_000L);
+        }
+        lock.lock();
+        stop[0] = true;
+        lock.unlock();
+        for (Thread t : hogs) {
+            t.join();
+        }
+        long maxMs = TimeUnit.NANOSECONDS.toMillis(max);
+        if (maxMs > 1000) {
+            throw new AssertionError("bounded: waited " + maxMs + "ms with handoffAfter=2ms");
+        }
+        System.out.println("bounded handoff: max wait " + maxMs + "ms, hogs got it " + held[0] + " times");
+    }
+
+}
@@ -0,0 +1,332 @@
+package com.imlehr.test;
+
+import com.imlehr.aqs.ReentrantReadWriteLock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ReentrantReadWriteLock的回归检查，公平和非公平各跑一遍
+ * 读线程（lock/tryLock/限时tryLock/lockInterruptibly，随手重入一次）和写线程（同样几种拿法，一部分降级成读锁）混在一起抢，
+ * 检查读写互斥、写写互斥，降级之后确实只剩读锁；
+ * 另外单独检查：写线程排着队的时候已经拿着读锁的线程还能重入，新来的读线程要让写线程；
+ * 写锁上的条件变量来回ping-pong；readLock().newCondition()要抛UnsupportedOperationException
+ * -Dduration=毫秒 改每种锁混着抢多久
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+public class ReadWriteStressTest {
+
+    private static final long DURATION_MS = Long.getLong("duration", 2000);
+
+    private static final long STUCK_MS = 10_000;
+
+    private static final int READERS = 4;
+
+    private static final int WRITERS = 2;
+
+    private final String name;
+    private final ReentrantReadWriteLock lock;
+
+    /**
+     * 里面有几个读的、几个写的，读写互斥就是这两个不能同时非零
+     */
+    private final AtomicInteger reading = new AtomicInteger();
+    private final AtomicInteger writing = new AtomicInteger();
+
+    /**
+     * 只在写锁里改，读锁里读，读的时候不能看到写了一半的值
+     */
+    private long a;
+    private long b;
+
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong downgrades = new AtomicLong();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    private ReadWriteStressTest(String name, ReentrantReadWriteLock lock) {
+        this.name = name;
+        this.lock = lock;
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        for (boolean fair : new boolean[]{false, true}) {
+            String name = fair ? "fair" : "nonfair";
+            new ReadWriteStressTest(name, new ReentrantReadWriteLock(fair)).run();
+            reentrantReadBehindWriter(name, new ReentrantReadWriteLock(fair));
+            pingPong(name, new ReentrantReadWriteLock(fair));
+        }
+        try {
+            new ReentrantReadWriteLock().readLock().newCondition();
+            throw new AssertionError("readLock().newCondition() should throw");
+        } catch (UnsupportedOperationException expected) {
+        }
+        System.out.println("dooooneeeee!");
+    }
+
+
+    private void run() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DURATION_MS);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+            threads.add(new Thread(() -> reader(deadline), name + "-reader-" + i));
+        }
+        for (int i = 0; i < WRITERS; i++) {
+            threads.add(new Thread(() -> writer(deadline), name + "-writer-" + i));
+        }
+        for (Thread t : threads) {
+            t.setDaemon(true);
+            t.setUncaughtExceptionHandler((th, e) -> failure.compareAndSet(null, e));
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join(DURATION_MS + STUCK_MS);
+            if (t.isAlive()) {
+                throw new AssertionError(t.getName() + " stuck");
+            }
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(name + " failed", failure.get());
+        }
+        if (lock.isWriteLocked() || lock.getReadLockCount() != 0 || lock.hasQueuedThreads()) {
+            throw new AssertionError(name + ": lock left in use");
+        }
+        if (a != writes.get() || b != -a) {
+            throw new AssertionError(name + ": a=" + a + " b=" + b + " writes=" + writes.get());
+        }
+        System.out.printf("%s: reads=%d writes=%d downgrades=%d%n", name, reads.get(), writes.get(), downgrades.get());
+    }
+
+    private void reader(long deadline) {
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        ReentrantReadWriteLock.ReadLock read = lock.readLock();
+        while (System.nanoTime() - deadline < 0 && failure.get() == null) {
+            boolean got = true;
+            try {
+                switch (r.nextInt(4)) {
+                    case 0:
+                        read.lock();
+                        break;
+                    case 1:
+                        got = read.tryLock();
+                        break;
+                    case 2:
+                        got = read.tryLock(r.nextInt(100), TimeUnit.MICROSECONDS);
+                        break;
+                    default:
+                        read.lockInterruptibly();
+                        break;
+                }
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            if (!got) {
+                continue;
+            }
+            try {
+                readInside();
+                if (r.nextInt(4) == 0) {
+                    //重入，写线程排着也不能卡住
+                    read.lock();
+                    try {
+                        if (lock.getReadHoldCount() != 2) {
+                            throw new AssertionError(name + ": read hold count " + lock.getReadHoldCount());
+                        }
+                        readInside();
+                    } finally {
+                        read.unlock();
+                    }
+                }
+            } finally {
+                read.unlock();
+            }
+        }
+    }
+
+    private void readInside() {
+        reading.incrementAndGet();
+        try {
+            if (writing.get() != 0) {
+                throw new AssertionError(name + ": reader inside with a writer");
+            }
+            if (a != -b) {
+                throw new AssertionError(name + ": reader saw a half-done write");
+            }
+            reads.incrementAndGet();
+        } finally {
+            reading.decrementAndGet();
+        }
+    }
+
+    private void writer(long deadline) {
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        ReentrantReadWriteLock.WriteLock write = lock.writeLock();
+        while (System.nanoTime() - deadline < 0 && failure.get() == null) {
+            boolean got = true;
+            try {
+                switch (r.nextInt(4)) {
+                    case 0:
+                        write.lock();
+                        break;
+                    case 1:
+                        got = write.tryLock();
+                        break;
+                    case 2:
+                        got = write.tryLock(r.nextInt(100), TimeUnit.MICROSECONDS);
+                        break;
+                    default:
+                        write.lockInterruptibly();
+                        break;
+                }
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            if (!got) {
+                continue;
+            }
+            boolean downgrade = r.nextInt(4) == 0;
+            try {
+                if (writing.incrementAndGet() != 1 || reading.get() != 0) {
+                    throw new AssertionError(name + ": writer not alone, writers=" + writing.get()
+                            + " readers=" + reading.get());
+                }
+                a++;
+                LockSupport.parkNanos(r.nextInt(2) * 1000L);
+                b--;
+                writes.incrementAndGet();
+                if (write.getHoldCount() != 1 || !write.isHeldByCurrentThread()) {
+                    throw new AssertionError(name + ": write hold count " + write.getHoldCount());
+                }
+                writing.decrementAndGet();
+                if (downgrade) {
+                    lock.readLock().lock();
+                }
+            } finally {
+                write.unlock();
+            }
+            if (downgrade) {
+                try {
+                    if (lock.isWriteLockedByCurrentThread() || lock.getReadHoldCount() != 1) {
+                        throw new AssertionError(name + ": downgrade left write="
+                                + lock.isWriteLockedByCurrentThread() + " readHolds=" + lock.getReadHoldCount());
+                    }
+                    //降级之后别的写线程进不来，别的读线程可以
+                    readInside();
+                    downgrades.incrementAndGet();
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * 一个线程拿着读锁，一个写线程排上队，这时候：
+     * 拿着读锁的线程再拿一次读锁不能被挡住（不然它永远放不掉，写线程永远等）；
+     * 新来的读线程要让排着的写线程，公平非公平都一样
+     */
+    private static void reentrantReadBehindWriter(String name, ReentrantReadWriteLock lock) throws InterruptedException {
+        lock.readLock().lock();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            lock.writeLock().lock();
+            lock.writeLock().unlock();
+        }, name + "-queued-writer");
+        writer.setDaemon(true);
+        writer.start();
+        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STUCK_MS);
+        while (!lock.hasQueuedThreads()) {
+            if (System.nanoTime() - until > 0) {
+                throw new AssertionError(name + ": writer never queued");
+            }
+            Thread.yield();
+        }
+
+        Thread newcomer = new Thread(() -> {
+            try {
+                if (lock.readLock().tryLock(50, TimeUnit.MILLISECONDS)) {
+                    lock.readLock().unlock();
+                    throw new AssertionError(name + ": new reader barged past a queued writer");
+                }
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }, name + "-newcomer");
+        newcomer.setDaemon(true);
+        newcomer.setUncaughtExceptionHandler((t, e) -> failure.compareAndSet(null, e));
+        newcomer.start();
+        newcomer.join(STUCK_MS);
+
+        //主线程自己重入
+        if (!lock.readLock().tryLock(STUCK_MS, TimeUnit.MILLISECONDS)) {
+            throw new AssertionError(name + ": reentrant read blocked behind a queued writer");
+        }
+        lock.readLock().unlock();
+        lock.readLock().unlock();
+        writer.join(STUCK_MS);
+        if (writer.isAlive() || newcomer.isAlive()) {
+            throw new AssertionError(name + ": writer or newcomer stuck");
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(name + " failed", failure.get());
+        }
+    }
+
+    /**
+     * 两个线程在写锁的两个条件上轮流等对方
+     */
+    private static void pingPong(String name, ReentrantReadWriteLock lock) throws InterruptedException {
+        int rounds = 10_000;
+        ReentrantReadWriteLock.WriteLock write = lock.writeLock();
+        Condition[] turn = {write.newCondition(), write.newCondition()};
+        int[] next = {0};
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] players = new Thread[2];
+        for (int i = 0; i < 2; i++) {
+            int me = i;
+            players[i] = new Thread(() -> {
+                for (int k = 0; k < rounds; k++) {
+                    write.lock();
+                    try {
+                        while (next[0] != me) {
+                            turn[me].await();
+                        }
+                        if (write.getHoldCount() != 1) {
+                            throw new AssertionError(name + ": hold count after await " + write.getHoldCount());
+                        }
+                        next[0] = 1 - me;
+                        turn[1 - me].signal();
+                    } catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    } finally {
+                        write.unlock();
+                    }
+                }
+            }, name + "-player-" + i);
+            players[i].setDaemon(true);
+            players[i].setUncaughtExceptionHandler((t, e) -> failure.compareAndSet(null, e));
+            players[i].start();
+        }
+        for (Thread t : players) {
+            t.join(STUCK_MS);
+            if (t.isAlive()) {
+                throw new AssertionError(name + ": ping-pong stuck");
+            }
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(name + " ping-pong failed", failure.get());
+        }
+    }
+
+}
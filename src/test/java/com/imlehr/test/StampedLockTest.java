@@ -0,0 +1,314 @@
+package com.imlehr.test;
+
+import com.imlehr.aqs.StampedLock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * StampedLock的回归检查：
+ * 中间插了一次写之后validate要失败；几种转换（乐观读/读锁转写锁、写锁/乐观读转读锁）；
+ * 读锁数量超过7位能记的RFULL之后记到readerOverflow里，放完还能拿写锁；
+ * 过期的、伪造的（没有第33位的）、类型不对的stamp放锁要抛IllegalMonitorStateException；
+ * 最后几个写线程和乐观读线程混着跑，validate通过的时候读到的数据必须是一致的
+ * -Dduration=毫秒 改混着跑多久
+ *
+ * @author Lehr
+ * @create: 2026-10-18
+ */
+public class StampedLockTest {
+
+    private static final long DURATION_MS = Long.getLong("duration", 2000);
+
+    private static final long STUCK_MS = 10_000;
+
+
+    public static void main(String[] args) throws Exception {
+        validate();
+        convertToWrite();
+        convertToRead();
+        readerOverflow();
+        concurrentOverflow();
+        badStamps();
+        optimisticStress();
+        System.out.println("dooooneeeee!");
+    }
+
+
+    private static void validate() throws InterruptedException {
+        StampedLock lock = new StampedLock();
+        long opt = lock.tryOptimisticRead();
+        check(opt != 0L && StampedLock.isOptimisticReadStamp(opt), "no optimistic stamp on a free lock");
+        check(lock.validate(opt), "fresh optimistic stamp does not validate");
+
+        //读锁不改版本号
+        long r = lock.readLock();
+        check(lock.validate(opt), "a read lock invalidated an optimistic stamp");
+        lock.unlockRead(r);
+
+        Thread writer = new Thread(() -> lock.unlockWrite(lock.writeLock()), "writer");
+        writer.start();
+        writer.join();
+        check(!lock.validate(opt), "validate passed after an interleaved write");
+
+        long w = lock.writeLock();
+        check(lock.tryOptimisticRead() == 0L, "optimistic stamp handed out while write-locked");
+        check(!lock.validate(0L), "validate(0) passed");
+        lock.unlockWrite(w);
+    }
+
+    private static void convertToWrite() {
+        StampedLock lock = new StampedLock();
+
+        long opt = lock.tryOptimisticRead();
+        long w = lock.tryConvertToWriteLock(opt);
+        check(StampedLock.isWriteLockStamp(w) && lock.isWriteLocked(), "optimistic stamp did not convert to write");
+        check(lock.tryConvertToWriteLock(w) == w, "write stamp did not convert to itself");
+        lock.unlockWrite(w);
+        check(lock.tryConvertToWriteLock(opt) == 0L, "stale optimistic stamp converted to write");
+
+        //只有自己一个读线程的时候原地升级
+        long r = lock.readLock();
+        w = lock.tryConvertToWriteLock(r);
+        check(StampedLock.isWriteLockStamp(w) && !lock.isReadLocked(), "sole reader did not upgrade");
+        lock.unlockWrite(w);
+
+        //两个读线程的时候升级不了，原来的stamp还能用
+        long r1 = lock.readLock();
+        long r2 = lock.readLock();
+        check(lock.tryConvertToWriteLock(r1) == 0L, "upgraded with another reader inside");
+        check(lock.getReadLockCount() == 2, "failed upgrade changed the read count");
+        lock.unlockRead(r1);
+        lock.unlockRead(r2);
+        check(!lock.isReadLocked() && !lock.isWriteLocked(), "lock left in use");
+    }
+
+    private static void convertToRead() throws InterruptedException {
+        StampedLock lock = new StampedLock();
+
+        long opt = lock.tryOptimisticRead();
+        long r = lock.tryConvertToReadLock(opt);
+        check(StampedLock.isReadLockStamp(r) && lock.getReadLockCount() == 1, "optimistic stamp did not convert to read");
+        check(lock.tryConvertToReadLock(r) == r, "read stamp did not convert to itself");
+        lock.unlockRead(r);
+
+        //写锁降级成读锁，排着队的读线程要被放进来
+        long w = lock.writeLock();
+        CountDownLatch in = new CountDownLatch(1);
+        Thread reader = new Thread(() -> {
+            long s = lock.readLock();
+            in.countDown();
+            lock.unlockRead(s);
+        }, "queued-reader");
+        reader.setDaemon(true);
+        reader.start();
+        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STUCK_MS);
+        while (lock.getQueueLength() == 0) {
+            check(System.nanoTime() - until < 0, "reader never queued");
+            Thread.yield();
+        }
+        r = lock.tryConvertToReadLock(w);
+        check(StampedLock.isReadLockStamp(r) && !lock.isWriteLocked(), "write stamp did not convert to read");
+        check(in.await(STUCK_MS, TimeUnit.MILLISECONDS), "queued reader not woken by write-to-read conversion");
+        check(lock.tryConvertToReadLock(w) == 0L, "stale write stamp converted again");
+        lock.unlockRead(r);
+
+        //拿着锁转乐观读就是放锁
+        w = lock.writeLock();
+        opt = lock.tryConvertToOptimisticRead(w);
+        check(StampedLock.isOptimisticReadStamp(opt) && !lock.isWriteLocked(), "write did not convert to optimistic");
+        check(lock.validate(opt), "converted optimistic stamp does not validate");
+    }
+
+    /**
+     * 一个线程拿300个读锁，超过RFULL（126）的部分记到readerOverflow
+     */
+    private static void readerOverflow() {
+        StampedLock lock = new StampedLock();
+        long opt = lock.tryOptimisticRead();
+        long[] stamps = new long[300];
+        for (int i = 0; i < stamps.length; i++) {
+            stamps[i] = lock.readLock();
+            check(StampedLock.isReadLockStamp(stamps[i]), "read stamp " + i + " not a read stamp");
+        }
+        check(lock.getReadLockCount() == stamps.length, "read count " + lock.getReadLockCount());
+        check(!lock.isWriteLocked() && lock.isReadLocked(), "overflowed readers look write-locked");
+        check(lock.tryWriteLock() == 0L, "write lock taken with readers inside");
+        check(lock.validate(opt), "reader overflow invalidated an optimistic stamp");
+        for (int i = stamps.length - 1; i >= 0; i--) {
+            lock.unlockRead(stamps[i]);
+        }
+        check(lock.getReadLockCount() == 0 && !lock.isReadLocked(), "read count " + lock.getReadLockCount() + " after release");
+        long w = lock.tryWriteLock();
+        check(w != 0L, "write lock not free after releasing all readers");
+        lock.unlockWrite(w);
+        check(lock.tryUnlockRead() == false, "tryUnlockRead on a free lock");
+    }
+
+    /**
+     * 几个线程同时在RFULL上下拿放读锁，overflow那个小自旋锁不能丢数
+     */
+    private static void concurrentOverflow() throws Exception {
+        StampedLock lock = new StampedLock();
+        int threads = 8;
+        int each = 50;
+        CyclicBarrier held = new CyclicBarrier(threads + 1);
+        CyclicBarrier release = new CyclicBarrier(threads + 1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> list = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread th = new Thread(() -> {
+                try {
+                    for (int round = 0; round < 20; round++) {
+                        long[] mine = new long[each];
+                        for (int i = 0; i < each; i++) {
+                            mine[i] = (i & 1) == 0 ? lock.readLock() : lock.tryReadLock(STUCK_MS, TimeUnit.MILLISECONDS);
+                            check(mine[i] != 0L, "read lock failed");
+                        }
+                        held.await();
+                        release.await();
+                        for (long s : mine) {
+                            lock.unlockRead(s);
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            }, "overflow-reader-" + t);
+            th.setDaemon(true);
+            th.setUncaughtExceptionHandler((x, e) -> failure.compareAndSet(null, e));
+            th.start();
+            list.add(th);
+        }
+        for (int round = 0; round < 20; round++) {
+            held.await(STUCK_MS, TimeUnit.MILLISECONDS);
+            check(lock.getReadLockCount() == threads * each, "read count " + lock.getReadLockCount()
+                    + " expected " + threads * each);
+            release.await(STUCK_MS, TimeUnit.MILLISECONDS);
+        }
+        for (Thread t : list) {
+            t.join(STUCK_MS);
+            check(!t.isAlive(), t.getName() + " stuck");
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("overflow check failed", failure.get());
+        }
+        check(lock.getReadLockCount() == 0, "read count " + lock.getReadLockCount() + " after release");
+        lock.unlockWrite(lock.writeLock());
+    }
+
+    /**
+     * 放锁的时候第33位没有、版本号不对、类型不对都要拒绝，而且不能动state
+     */
+    private static void badStamps() {
+        StampedLock lock = new StampedLock();
+
+        long w = lock.writeLock();
+        expectIllegal(() -> lock.unlockWrite(w & 0xFFFFFFFFL), "write stamp without bit 32");
+        expectIllegal(() -> lock.unlockWrite(0L), "zero write stamp");
+        expectIllegal(() -> lock.unlockRead(w), "write stamp passed to unlockRead");
+        check(lock.isWriteLocked(), "rejected unlock released the write lock");
+        lock.unlockWrite(w);
+        expectIllegal(() -> lock.unlockWrite(w), "stale write stamp");
+        check(!lock.isWriteLocked(), "stale unlock changed the lock");
+
+        long r1 = lock.readLock();
+        expectIllegal(() -> lock.unlockRead(r1 & 0xFFFFFFFFL), "read stamp without bit 32");
+        expectIllegal(() -> lock.unlockWrite(r1), "read stamp passed to unlockWrite");
+        expectIllegal(() -> lock.unlockRead(lock.tryOptimisticRead()), "optimistic stamp passed to unlockRead");
+        check(lock.getReadLockCount() == 1, "rejected unlock changed the read count");
+        lock.unlockRead(r1);
+
+        //中间写过一次，旧的读stamp版本号对不上
+        lock.unlockWrite(lock.writeLock());
+        long r2 = lock.readLock();
+        expectIllegal(() -> lock.unlockRead(r1), "stale read stamp");
+        check(lock.getReadLockCount() == 1, "stale read stamp released someone else's read lock");
+        lock.unlockRead(r2);
+
+        //伪造一个版本号对得上但是没有第33位的，转换也要拒绝
+        long opt = lock.tryOptimisticRead();
+        check(lock.tryConvertToWriteLock(opt & 0xFFFFFFFFL) == 0L, "forged stamp converted to write");
+        check(lock.tryConvertToReadLock(opt & 0xFFFFFFFFL) == 0L, "forged stamp converted to read");
+        check(!lock.validate(opt & 0xFFFFFFFFL), "forged stamp validated");
+        check(!lock.isReadLocked() && !lock.isWriteLocked(), "lock left in use");
+    }
+
+    /**
+     * 写线程在锁里把x、y一起改，乐观读的线程读完x、y之后validate，通过了的话x必须等于y
+     */
+    private static void optimisticStress() throws InterruptedException {
+        StampedLock lock = new StampedLock();
+        long[] xy = new long[2];
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DURATION_MS);
+        AtomicLong validated = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            threads.add(new Thread(() -> {
+                while (System.nanoTime() - deadline < 0 && failure.get() == null) {
+                    long w = lock.writeLock();
+                    xy[0]++;
+                    Thread.yield();
+                    xy[1]++;
+                    lock.unlockWrite(w);
+                }
+            }, "xy-writer-" + i));
+        }
+        for (int i = 0; i < 4; i++) {
+            threads.add(new Thread(() -> {
+                while (System.nanoTime() - deadline < 0 && failure.get() == null) {
+                    long s = lock.tryOptimisticRead();
+                    long x = xy[0];
+                    long y = xy[1];
+                    if (!lock.validate(s)) {
+                        failed.incrementAndGet();
+                        s = lock.readLock();
+                        x = xy[0];
+                        y = xy[1];
+                        lock.unlockRead(s);
+                    } else {
+                        validated.incrementAndGet();
+                    }
+                    check(x == y, "inconsistent read x=" + x + " y=" + y);
+                }
+            }, "xy-reader-" + i));
+        }
+        for (Thread t : threads) {
+            t.setDaemon(true);
+            t.setUncaughtExceptionHandler((th, e) -> failure.compareAndSet(null, e));
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join(DURATION_MS + STUCK_MS);
+            check(!t.isAlive(), t.getName() + " stuck");
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("optimistic stress failed", failure.get());
+        }
+        check(!lock.isReadLocked() && !lock.isWriteLocked(), "lock left in use");
+        System.out.printf("optimistic: validated=%d failed=%d writes=%d%n", validated.get(), failed.get(), xy[0]);
+    }
+
+    private static void expectIllegal(Runnable r, String what) {
+        try {
+            r.run();
+        } catch (IllegalMonitorStateException expected) {
+            return;
+        }
+        throw new AssertionError(what + " was accepted");
+    }
+
+    private static void check(boolean ok, String message) {
+        if (!ok) {
+            throw new AssertionError(message);
+        }
+    }
+
+}
@@ -1,6 +1,10 @@
 package com.imlehr.test;
 
-import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+import com.imlehr.aqs.AbstractQueuedSynchronizer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * @author Lehr
@@ -22,6 +26,63 @@ public class TwinsLock{
     }
 
 
+    /**
+     * 十个线程抢，任何时候最多只能有两个在里面，同时在里面的人数超过两个或者有线程没跑完都算失败
+     */
+    public static void main(String[] args) throws InterruptedException {
+        TwinsLock lock = new TwinsLock();
+        AtomicInteger holders = new AtomicInteger();
+        AtomicInteger maxHolders = new AtomicInteger();
+        AtomicInteger finished = new AtomicInteger();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Runnable r = () -> {
+            for (int i = 0; i < 3; i++) {
+                lock.lock();
+                try {
+                    int now = holders.incrementAndGet();
+                    maxHolders.accumulateAndGet(now, Math::max);
+                    if (now > 2) {
+                        throw new AssertionError(now + " holders inside a twins lock");
+                    }
+                    System.out.println(Thread.currentThread().getName() + ":in");
+                    TimeUnit.MILLISECONDS.sleep(200);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                } finally {
+                    holders.decrementAndGet();
+                    System.out.println(Thread.currentThread().getName() + ":out");
+                    lock.unlock();
+                }
+            }
+            finished.incrementAndGet();
+        };
+        Thread[] threads = new Thread[10];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(r, "No." + i);
+            threads[i].setDaemon(true);
+            threads[i].setUncaughtExceptionHandler((t, e) -> failure.compareAndSet(null, e));
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join(30_000);
+            if (t.isAlive()) {
+                throw new AssertionError(t.getName() + " never finished");
+            }
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("twins lock failed", failure.get());
+        }
+        if (finished.get() != threads.length) {
+            throw new AssertionError("only " + finished.get() + " of " + threads.length + " workers finished");
+        }
+        if (maxHolders.get() != 2) {
+            //10个线程每个都睡200ms，两个名额一直是满的，只进来过一个说明共享模式没有往后传播
+            throw new AssertionError("expected two holders at once, saw at most " + maxHolders.get());
+        }
+        System.out.println("dooooneeeee!");
+    }
+
+
     private static final class Sync extends AbstractQueuedSynchronizer{
 
         Sync(int count)